@@ -0,0 +1,17 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Plain JVM stand-in: the default preferences are just another set of the context's.
+ */
+public final class PreferenceManager {
+
+    private PreferenceManager() {
+    }
+
+    public static SharedPreferences getDefaultSharedPreferences(Context context) {
+        return context.getSharedPreferences("default_preferences", Context.MODE_PRIVATE);
+    }
+}
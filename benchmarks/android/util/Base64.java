@@ -0,0 +1,33 @@
+package android.util;
+
+/**
+ * Plain JVM stand-in for android.util.Base64, for the flags this app uses.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        if ((flags & NO_WRAP) != 0) {
+            return java.util.Base64.getEncoder().encodeToString(input);
+        }
+        //Android wraps lines at 76 characters and ends with a newline
+        return java.util.Base64.getMimeEncoder(76, new byte[]{'\n'}).encodeToString(input) + "\n";
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        return encodeToString(input, flags).getBytes();
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(input);
+    }
+}
@@ -0,0 +1,80 @@
+package org.kde.kdeconnect.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The throughput each benchmark reached last time the baselines were recorded, in
+ * baselines.properties next to the benchmarks.
+ *
+ * Run with -Dbenchmarks.updateBaselines=true to record the current results instead of
+ * comparing against them, e.g. after an intended change or on a new reference machine.
+ *
+ * Regressions are only reported, so that ./gradlew check doesn't fail on a slower or busier
+ * machine than the one the baselines come from. Run with -Dbenchmarks.enforceBaselines=true
+ * to fail on them instead, e.g. on the reference machine.
+ */
+final class Baselines {
+
+    static final String FILE = "benchmarks/baselines.properties";
+
+    /**
+     * How much slower than the baseline a result can be before it counts as a regression.
+     * Generous, because the baselines come from one machine and runs are short.
+     */
+    static final double MAX_REGRESSION = 0.5;
+
+    private static final Properties baselines = new Properties();
+
+    static {
+        File file = new File(FILE);
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                baselines.load(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + FILE, e);
+            }
+        }
+    }
+
+    private Baselines() {
+    }
+
+    static boolean isUpdating() {
+        return Boolean.parseBoolean(System.getProperty("benchmarks.updateBaselines", "false"));
+    }
+
+    static boolean isEnforcing() {
+        return Boolean.parseBoolean(System.getProperty("benchmarks.enforceBaselines", "false"));
+    }
+
+    static synchronized void check(Benchmark.Result result) throws IOException {
+        if (isUpdating()) {
+            baselines.setProperty(result.name, String.format(Locale.US, "%.1f", result.opsPerSecond));
+            try (OutputStream out = new FileOutputStream(FILE)) {
+                baselines.store(out, "ops/s; regenerate with -Dbenchmarks.updateBaselines=true");
+            }
+            return;
+        }
+        String baseline = baselines.getProperty(result.name);
+        if (baseline == null) {
+            System.out.println(result.name + " has no baseline yet");
+            return;
+        }
+        double minimum = Double.parseDouble(baseline) * (1 - MAX_REGRESSION);
+        String message = result.name + " regressed: " + result.opsPerSecond + " ops/s, baseline " + baseline;
+        if (isEnforcing()) {
+            assertTrue(message, result.opsPerSecond >= minimum);
+        } else if (result.opsPerSecond < minimum) {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.kde.kdeconnect.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * A small JMH-style runner: warmup iterations to let the JIT settle, then measurement
+ * iterations of fixed length. The score is the median throughput, which a single GC
+ * pause or scheduler hiccup doesn't move much.
+ */
+final class Benchmark {
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    static final int WARMUP_ITERATIONS = 3;
+    static final int MEASUREMENT_ITERATIONS = 5;
+    static final long ITERATION_MS = 500;
+
+    static class Result {
+        final String name;
+        final double opsPerSecond;
+        final double minOpsPerSecond;
+        final double maxOpsPerSecond;
+
+        Result(String name, double[] scores) {
+            double[] sorted = scores.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.opsPerSecond = sorted[sorted.length / 2];
+            this.minOpsPerSecond = sorted[0];
+            this.maxOpsPerSecond = sorted[sorted.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %12.1f ops/s  [%.1f .. %.1f]", name, opsPerSecond, minOpsPerSecond, maxOpsPerSecond);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    static Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double[] scores = new double[MEASUREMENT_ITERATIONS];
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            scores[i] = iteration(operation);
+        }
+        Result result = new Result(name, scores);
+        System.out.println(result);
+        return result;
+    }
+
+    private static double iteration(Operation operation) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + ITERATION_MS * 1000000L;
+        long now;
+        do {
+            operation.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        return ops * 1e9 / (now - start);
+    }
+}
@@ -0,0 +1,40 @@
+package org.kde.kdeconnect.benchmarks;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+
+/**
+ * The little of a Context the protocol core uses: preferences, kept in memory.
+ */
+class BenchmarkContext extends ContextWrapper {
+
+    private final HashMap<String, SharedPreferences> preferences = new HashMap<>();
+
+    BenchmarkContext() {
+        super(null);
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new InMemorySharedPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return null;
+    }
+}
@@ -0,0 +1,187 @@
+package org.kde.kdeconnect.benchmarks;
+
+import org.json.JSONArray;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.LanBackend.LanLink;
+import org.kde.kdeconnect.Backends.LanBackend.LanLinkProvider;
+import org.kde.kdeconnect.CompactPacketCodec;
+import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.SecurityHelpers.RsaHelper;
+import org.kde.kdeconnect.Helpers.SecurityHelpers.SslHelper;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput of the hot paths of the protocol: packet (de)serialization, the RSA
+ * encryption used before TLS, setting up a TLS context, and payload transfer over a
+ * LanLink. Each result is compared against baselines.properties.
+ */
+public class ProtocolBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    private static BenchmarkContext context;
+    private static PublicKey publicKey;
+    private static PrivateKey privateKey;
+
+    @BeforeClass
+    public static void setUpKeys() throws Exception {
+        context = new BenchmarkContext();
+        RsaHelper.initialiseRsaKeys(context);
+        SslHelper.initialiseCertificate(context);
+        publicKey = RsaHelper.getPublicKey(context);
+        privateKey = RsaHelper.getPrivateKey(context);
+        assertNotNull(SslHelper.certificate);
+    }
+
+    @AfterClass
+    public static void printBaselineHint() {
+        if (!Baselines.isUpdating()) {
+            System.out.println("Record new baselines with -Dbenchmarks.updateBaselines=true");
+        }
+    }
+
+    //About the size of a notification, the most frequent packet with a real body
+    private static NetworkPacket notificationPacket() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.notification");
+        np.set("id", "0|org.kde.kdeconnect_tp|1|null|10101");
+        np.set("appName", "KDE Connect");
+        np.set("title", "Battery low");
+        np.set("text", "Your phone is at 15% and will run out of battery in about an hour");
+        np.set("ticker", "Battery low: Your phone is at 15%");
+        np.set("isClearable", true);
+        np.set("time", "1539942000000");
+        JSONArray actions = new JSONArray();
+        actions.put("Dismiss");
+        actions.put("Open");
+        np.set("actions", actions);
+        return np;
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        NetworkPacket np = notificationPacket();
+        Baselines.check(Benchmark.run("networkPacketSerialize", np::serialize));
+    }
+
+    @Test
+    public void unserialize() throws Exception {
+        String serialized = notificationPacket().serialize();
+        Baselines.check(Benchmark.run("networkPacketUnserialize", () -> NetworkPacket.unserialize(serialized)));
+    }
+
+    //A mouse movement, the most frequent packet of all
+    private static NetworkPacket mousePadPacket() {
+        NetworkPacket np = new NetworkPacket("kdeconnect.mousepad.request");
+        np.set("dx", 3.5);
+        np.set("dy", -2.25);
+        return np;
+    }
+
+    @Test
+    public void compactEncode() throws Exception {
+        NetworkPacket np = mousePadPacket();
+        assertTrue(CompactPacketCodec.encode(np).length() < np.serialize().length() / 2);
+        Baselines.check(Benchmark.run("compactPacketEncode", () -> CompactPacketCodec.encode(np)));
+    }
+
+    @Test
+    public void compactDecode() throws Exception {
+        String encoded = CompactPacketCodec.encode(mousePadPacket());
+        Baselines.check(Benchmark.run("compactPacketDecode", () -> NetworkPacket.unserialize(encoded)));
+    }
+
+    @Test
+    public void rsaEncrypt() throws Exception {
+        NetworkPacket np = notificationPacket();
+        Baselines.check(Benchmark.run("rsaEncrypt", () -> RsaHelper.encrypt(np, publicKey)));
+    }
+
+    @Test
+    public void rsaDecrypt() throws Exception {
+        NetworkPacket np = notificationPacket();
+        NetworkPacket encrypted = RsaHelper.encrypt(np, publicKey);
+        assertEquals(np.getString("text"), RsaHelper.decrypt(encrypted, privateKey).getString("text"));
+        Baselines.check(Benchmark.run("rsaDecrypt", () -> RsaHelper.decrypt(encrypted, privateKey)));
+    }
+
+    @Test
+    public void sslContext() throws Exception {
+        Baselines.check(Benchmark.run("sslHelperGetSslContext", () -> SslHelper.getSslContext(context, "benchmarkPeer", false)));
+    }
+
+    //Each op is one 1MiB payload, from the packet being sent to the last byte being read
+    @Test
+    public void lanLinkPayload() throws Exception {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        final Semaphore received = new Semaphore(0);
+        final long[] receivedBytes = new long[1];
+
+        LanLinkProvider provider = new LanLinkProvider(context);
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        LanLink sender = new LanLink(context, "receiver", provider, socket, LanLink.ConnectionStarted.Locally);
+        LanLink receiver = new LanLink(context, "sender", provider, server.accept(), LanLink.ConnectionStarted.Remotely);
+        server.close();
+
+        receiver.addPacketReceiver(new BaseLink.PacketReceiver() {
+            private final byte[] buffer = new byte[8192];
+
+            @Override
+            public void onPacketReceived(NetworkPacket np) {
+                long total = 0;
+                try (InputStream stream = np.getPayload()) {
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        total += read;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                receivedBytes[0] = total;
+                received.release();
+            }
+        });
+
+        final Device.SendPacketStatusCallback callback = new Device.SendPacketStatusCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        try {
+            Baselines.check(Benchmark.run("lanLinkPayload1MiB", () -> {
+                NetworkPacket np = new NetworkPacket("kdeconnect.share.request");
+                np.set("filename", "benchmark.bin");
+                np.setPayload(new ByteArrayInputStream(payload), payload.length);
+                assertTrue(sender.sendPacket(np, callback));
+                assertTrue(received.tryAcquire(10, TimeUnit.SECONDS));
+                assertEquals(PAYLOAD_SIZE, receivedBytes[0]);
+            }));
+        } finally {
+            sender.disconnect();
+            receiver.disconnect();
+        }
+    }
+}
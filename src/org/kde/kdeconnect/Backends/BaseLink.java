@@ -21,9 +21,14 @@
 package org.kde.kdeconnect.Backends;
 
 import android.content.Context;
+import android.util.Log;
 
+import org.json.JSONException;
+import org.kde.kdeconnect.CompactPacketCodec;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.CompressionHelper;
 import org.kde.kdeconnect.NetworkPacket;
+import org.kde.kdeconnect.PacketTraceRecorder;
 
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -42,6 +47,9 @@ public abstract class BaseLink {
     private final String deviceId;
     private final ArrayList<PacketReceiver> receivers = new ArrayList<>();
     protected PrivateKey privateKey;
+    private LinkMetrics metrics;
+    private volatile boolean compressionSupported = false;
+    private volatile boolean compactEncodingSupported = false;
 
     protected BaseLink(Context context, String deviceId, BaseLinkProvider linkProvider) {
         this.context = context;        
@@ -65,6 +73,62 @@ public abstract class BaseLink {
         return linkProvider;
     }
 
+    //Whether the other end said in its identity that it can read compressed packets
+    public void setCompressionSupported(boolean supported) {
+        compressionSupported = supported;
+    }
+
+    //Whether the other end said in its identity that it can read our CompactPacketCodec
+    public void setCompactEncodingSupported(boolean supported) {
+        compactEncodingSupported = supported;
+    }
+
+    //To be used by links instead of np.serialize(), so frequent small packets are sent compactly if the other end can read them
+    protected String serializeForPeer(NetworkPacket np) throws JSONException {
+        if (compactEncodingSupported) {
+            String compact = CompactPacketCodec.encode(np);
+            if (compact != null) {
+                return compact;
+            }
+        }
+        return np.serialize();
+    }
+
+    //To be called by links before sending np, so big packets are compressed if the other end can read them
+    protected NetworkPacket compressIfSupported(NetworkPacket np) {
+        if (!compressionSupported) {
+            return np;
+        }
+        try {
+            return CompressionHelper.compress(np);
+        } catch (Exception e) {
+            Log.e("KDE/BaseLink", "Could not compress " + np.getType() + ", sending it as it is", e);
+            return np;
+        }
+    }
+
+    public final synchronized LinkMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new LinkMetrics();
+        }
+        return metrics;
+    }
+
+    //Round trip time in milliseconds, or -1 if the link doesn't measure it
+    public long getRttMs() {
+        return -1;
+    }
+
+    //What the link selector assumes until the link measured its own latency, in milliseconds
+    public long getExpectedLatencyMs() {
+        return 100;
+    }
+
+    //What the link selector assumes until the link measured its own throughput, in bytes per millisecond
+    public double getExpectedThroughput() {
+        return 50;
+    }
+
     //The daemon will periodically destroy unpaired links if this returns false
     public boolean linkShouldBeKeptAlive() {
         return false;
@@ -79,6 +143,15 @@ public abstract class BaseLink {
 
     //Should be called from a background thread listening to packages
     protected void packageReceived(NetworkPacket np) {
+        if (np.getType().equals(NetworkPacket.PACKET_TYPE_COMPRESSED)) {
+            try {
+                np = CompressionHelper.decompress(np);
+            } catch (Exception e) {
+                Log.e("KDE/BaseLink", "Could not decompress a packet from " + deviceId, e);
+                return;
+            }
+        }
+        PacketTraceRecorder.record(PacketTraceRecorder.INCOMING, getName(), deviceId, np);
         for(PacketReceiver pr : receivers) {
             pr.onPacketReceived(np);
         }
@@ -33,48 +33,61 @@ import org.json.JSONObject;
 import org.kde.kdeconnect.Backends.BaseLink;
 import org.kde.kdeconnect.Backends.BasePairingHandler;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.Metrics;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.RsaHelper;
 import org.kde.kdeconnect.NetworkPacket;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
 import java.nio.charset.Charset;
 import java.security.PublicKey;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 public class BluetoothLink extends BaseLink {
+
+    //Set in the identity packets sent over bluetooth, if both ends have it we use a FramedChannel
+    static final String IDENTITY_FRAMING_KEY = "bluetoothFraming";
+    static final int FRAMING_VERSION = 2; //2 added flow control, 1 can't be talked to in framed mode anymore
+
     private final BluetoothSocket socket;
     private final BluetoothLinkProvider linkProvider;
 
     private boolean continueAccepting = true;
 
-    private Thread receivingThread = new Thread(new Runnable() {
+    private FramedChannel framedChannel = null;
+
+    private volatile boolean receiving = false;
+
+    private final Runnable receiver = new Runnable() {
         @Override
         public void run() {
-            StringBuilder sb = new StringBuilder();
+            if (framedChannel != null) {
+                try {
+                    framedChannel.readLoop(message -> processMessage(message));
+                } catch (IOException | RuntimeException e) {
+                    Log.e("BluetoothLink/receiving", "Connection to " + socket.getRemoteDevice().getAddress() + " likely broken.", e);
+                    disconnect();
+                }
+                return;
+            }
+
+            LineFrameDecoder decoder = new LineFrameDecoder();
+            FramedChannel.PacketListener listener = message -> processMessage(message);
             try {
-                Reader reader = new InputStreamReader(socket.getInputStream(), "UTF-8");
-                char[] buf = new char[512];
+                InputStream inputStream = socket.getInputStream();
+                byte[] buf = new byte[4096];
                 while (continueAccepting) {
-                    while (sb.indexOf("\n") == -1 && continueAccepting) {
-                        int charsRead;
-                        if ((charsRead = reader.read(buf)) > 0) {
-                            sb.append(buf, 0, charsRead);
-                        }
-                    }
-
-                    int endIndex = sb.indexOf("\n");
-                    if (endIndex != -1) {
-                        String message = sb.substring(0, endIndex + 1);
-                        sb.delete(0, endIndex + 1);
-                        processMessage(message);
+                    int bytesRead = inputStream.read(buf);
+                    if (bytesRead == -1) {
+                        throw new IOException("End of stream");
                     }
+                    decoder.feed(buf, 0, bytesRead, listener);
                 }
-            } catch (IOException e) {
+            } catch (IOException | RuntimeException e) {
                 Log.e("BluetoothLink/receiving", "Connection to " + socket.getRemoteDevice().getAddress() + " likely broken.", e);
                 disconnect();
             }
@@ -88,6 +101,7 @@ public class BluetoothLink extends BaseLink {
                 Log.e("BluetoothLink/receiving", "Unable to parse message.", e);
                 return;
             }
+            Metrics.packetReceived(np.getType(), message.length() + 1);
 
             if (np.getType().equals(NetworkPacket.PACKET_TYPE_ENCRYPTED)) {
                 try {
@@ -97,6 +111,22 @@ public class BluetoothLink extends BaseLink {
                 }
             }
 
+            if (np.hasPayloadTransferInfo() && framedChannel != null) {
+                int transferId = np.getPayloadTransferInfo().optInt("transferId", 0);
+                if (transferId != 0) {
+                    np.setPayload(framedChannel.openIncomingPayload(transferId), np.getPayloadSize());
+                    //The payload can only be read once this thread goes back to reading frames
+                    final NetworkPacket packetWithPayload = np;
+                    try {
+                        ThreadHelper.io().execute(() -> packageReceived(packetWithPayload));
+                    } catch (RejectedExecutionException e) {
+                        //Reading the payload can take long, so it gets a thread of its own rather than being dropped
+                        ThreadHelper.startLoop("bluetooth-payload", () -> packageReceived(packetWithPayload));
+                    }
+                    return;
+                }
+            }
+
             if (np.hasPayloadTransferInfo()) {
                 BluetoothSocket transferSocket = null;
                 try {
@@ -117,7 +147,7 @@ public class BluetoothLink extends BaseLink {
 
             packageReceived(np);
         }
-    });
+    };
 
     public BluetoothLink(Context context, BluetoothSocket socket, String deviceId, BluetoothLinkProvider linkProvider) {
         super(context, deviceId, linkProvider);
@@ -125,8 +155,32 @@ public class BluetoothLink extends BaseLink {
         this.linkProvider = linkProvider;
     }
 
+    /**
+     * Switches to framed mode, must be called after the identity packets have been
+     * exchanged and before {@link #startListening()}.
+     */
+    void enableFraming() throws IOException {
+        int maxTransmitPacketSize = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            maxTransmitPacketSize = socket.getMaxTransmitPacketSize();
+        }
+        framedChannel = new FramedChannel(socket.getInputStream(), socket.getOutputStream(), maxTransmitPacketSize);
+        Log.i("BluetoothLink", "Using framed mode with chunks of " + framedChannel.getChunkSize() + " bytes");
+    }
+
+    static boolean supportsFraming(NetworkPacket identityPacket) {
+        return identityPacket.getInt(IDENTITY_FRAMING_KEY, 0) >= FRAMING_VERSION;
+    }
+
     public void startListening() {
-        this.receivingThread.start();
+        receiving = true;
+        ThreadHelper.startLoop("bluetooth-link", () -> {
+            try {
+                receiver.run();
+            } finally {
+                receiving = false;
+            }
+        });
     }
 
     @Override
@@ -134,6 +188,16 @@ public class BluetoothLink extends BaseLink {
         return "BluetoothLink";
     }
 
+    @Override
+    public long getExpectedLatencyMs() {
+        return 50;
+    }
+
+    @Override
+    public double getExpectedThroughput() {
+        return 50; //~50KB/s, what RFCOMM usually gets
+    }
+
     @Override
     public BasePairingHandler getPairingHandler(Device device, BasePairingHandler.PairingHandlerCallback callback) {
         return new BluetoothPairingHandler(device, callback);
@@ -151,12 +215,12 @@ public class BluetoothLink extends BaseLink {
         linkProvider.disconnectedLink(this, getDeviceId(), socket);
     }
 
-    private void sendMessage(NetworkPacket np) throws JSONException, IOException {
-        byte[] message = np.serialize().getBytes(Charset.forName("UTF-8"));
+    //Returns the number of bytes sent
+    private int sendMessage(NetworkPacket np) throws JSONException, IOException {
+        byte[] message = serializeForPeer(np).getBytes(Charset.forName("UTF-8"));
         OutputStream socket = this.socket.getOutputStream();
-        Log.i("BluetoothLink", "Beginning to send message");
         socket.write(message);
-        Log.i("BluetoothLink", "Finished sending message");
+        return message.length;
     }
 
     @Override
@@ -177,6 +241,13 @@ public class BluetoothLink extends BaseLink {
             return;
         }*/
 
+        if (framedChannel != null) {
+            return sendPacketFramed(np, callback, key);
+        }
+
+        //The original type, even if it's sent encrypted
+        String type = np.getType();
+
         try {
             BluetoothServerSocket serverSocket = null;
             if (np.hasPayload()) {
@@ -188,6 +259,8 @@ public class BluetoothLink extends BaseLink {
                 np.setPayloadTransferInfo(payloadTransferInfo);
             }
 
+            np = compressIfSupported(np);
+
             if (key != null) {
                 try {
                     np = RsaHelper.encrypt(np, key);
@@ -197,31 +270,34 @@ public class BluetoothLink extends BaseLink {
                 }
             }
 
-            sendMessage(np);
+            long bytesSent = sendMessage(np);
 
             if (serverSocket != null) {
                 BluetoothSocket transferSocket = serverSocket.accept();
                 try {
                     serverSocket.close();
 
-                    int idealBufferLength = 4096;
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-                            && transferSocket.getMaxReceivePacketSize() > 0) {
-                        idealBufferLength = transferSocket.getMaxReceivePacketSize();
+                    int maxTransmitPacketSize = 0;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        maxTransmitPacketSize = transferSocket.getMaxTransmitPacketSize();
                     }
-                    byte[] buffer = new byte[idealBufferLength];
+                    byte[] buffer = new byte[FramedChannel.chunkSizeFor(maxTransmitPacketSize) + FramedChannel.HEADER_SIZE];
                     int bytesRead;
                     long progress = 0;
+                    long timeSinceLastUpdate = -1;
                     InputStream stream = np.getPayload();
+                    OutputStream outputStream = transferSocket.getOutputStream();
                     while ((bytesRead = stream.read(buffer)) != -1) {
                         progress += bytesRead;
-                        transferSocket.getOutputStream().write(buffer, 0, bytesRead);
-                        if (np.getPayloadSize() > 0) {
+                        outputStream.write(buffer, 0, bytesRead);
+                        if (np.getPayloadSize() > 0 && timeSinceLastUpdate + 500 < System.currentTimeMillis()) { //Report progress every half a second
                             callback.onProgressChanged((int) (100 * progress / np.getPayloadSize()));
+                            timeSinceLastUpdate = System.currentTimeMillis();
                         }
                     }
-                    transferSocket.getOutputStream().flush();
+                    outputStream.flush();
                     stream.close();
+                    bytesSent += progress;
                 } catch (Exception e) {
                     callback.onFailure(e);
                     return false;
@@ -233,6 +309,7 @@ public class BluetoothLink extends BaseLink {
                 }
             }
 
+            Metrics.packetSent(type, bytesSent);
             callback.onSuccess();
             return true;
         } catch (Exception e) {
@@ -241,9 +318,47 @@ public class BluetoothLink extends BaseLink {
         }
     }
 
+    private boolean sendPacketFramed(NetworkPacket np, final Device.SendPacketStatusCallback callback, PublicKey key) {
+        InputStream payload = np.getPayload();
+        String type = np.getType();
+        try {
+            int transferId = 0;
+            if (payload != null) {
+                transferId = framedChannel.nextTransferId();
+                JSONObject payloadTransferInfo = new JSONObject();
+                payloadTransferInfo.put("transferId", transferId);
+                np.setPayloadTransferInfo(payloadTransferInfo);
+            }
+
+            np = compressIfSupported(np);
+
+            if (key != null) {
+                np = RsaHelper.encrypt(np, key);
+            }
+
+            byte[] message = serializeForPeer(np).getBytes(Charset.forName("UTF-8"));
+            framedChannel.writePacket(message);
+
+            if (payload != null) {
+                framedChannel.writePayload(transferId, payload, np.getPayloadSize(), callback);
+            }
+
+            Metrics.packetSent(type, message.length + Math.max(np.getPayloadSize(), 0));
+            callback.onSuccess();
+            return true;
+        } catch (Exception e) {
+            callback.onFailure(e);
+            return false;
+        } finally {
+            if (payload != null) {
+                try { payload.close(); } catch (IOException ignored) { }
+            }
+        }
+    }
+
     @Override
     public boolean linkShouldBeKeptAlive() {
-        return receivingThread.isAlive();
+        return receiving;
     }
 
     /*
@@ -35,16 +35,19 @@ import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BaseLinkProvider;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 public class BluetoothLinkProvider extends BaseLinkProvider {
@@ -104,11 +107,11 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
 
         //This handles the case when I'm the existing device in the network and receive a hello package
         clientRunnable = new ClientRunnable();
-        new Thread(clientRunnable).start();
+        ThreadHelper.startLoop("bluetooth-client", clientRunnable);
 
         // I'm on a new network, let's be polite and introduce myself
         serverRunnable = new ServerRunnable();
-        new Thread(serverRunnable).start();
+        ThreadHelper.startLoop("bluetooth-server", serverRunnable);
     }
 
     @Override
@@ -132,6 +135,25 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
         return "BluetoothLinkProvider";
     }
 
+    private NetworkPacket createIdentityPacket() {
+        NetworkPacket np = NetworkPacket.createIdentityPacket(context);
+        np.set(BluetoothLink.IDENTITY_FRAMING_KEY, BluetoothLink.FRAMING_VERSION);
+        return np;
+    }
+
+    //Reads exactly one line, without consuming anything that comes after it
+    private static String readLine(InputStream stream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = stream.read()) != -1) {
+            line.write(b);
+            if (b == '\n') {
+                break;
+            }
+        }
+        return line.toString("UTF-8");
+    }
+
     public void disconnectedLink(BluetoothLink link, String deviceId, BluetoothSocket socket) {
         sockets.remove(socket.getRemoteDevice());
         visibleComputers.remove(deviceId);
@@ -186,22 +208,14 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
 
             Log.i("BTLinkProvider/Server", "Received connection from " + socket.getRemoteDevice().getAddress());
 
-            NetworkPacket np = NetworkPacket.createIdentityPacket(context);
+            NetworkPacket np = createIdentityPacket();
             byte[] message = np.serialize().getBytes("UTF-8");
             outputStream.write(message);
 
             Log.i("BTLinkProvider/Server", "Sent identity package");
 
-            // Listen for the response
-            StringBuilder sb = new StringBuilder();
-            Reader reader = new InputStreamReader(socket.getInputStream(), "UTF-8");
-            int charsRead;
-            char[] buf = new char[512];
-            while (sb.lastIndexOf("\n") == -1 && (charsRead = reader.read(buf)) != -1) {
-                sb.append(buf, 0, charsRead);
-            }
-
-            String response = sb.toString();
+            // Listen for the response. Byte by byte, because in framed mode binary frames can follow it right away.
+            String response = readLine(socket.getInputStream());
             final NetworkPacket identityPacket = NetworkPacket.unserialize(response);
 
             if (!identityPacket.getType().equals(NetworkPacket.PACKET_TYPE_IDENTITY)) {
@@ -213,6 +227,9 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
 
             BluetoothLink link = new BluetoothLink(context, socket,
                     identityPacket.getString("deviceId"), BluetoothLinkProvider.this);
+            if (BluetoothLink.supportsFraming(identityPacket)) {
+                link.enableFraming();
+            }
 
             addLink(identityPacket, link);
         }
@@ -221,7 +238,7 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
     private class ClientRunnable extends BroadcastReceiver implements Runnable {
 
         private boolean continueProcessing = true;
-        private Map<BluetoothDevice, Thread> connectionThreads = new HashMap<>();
+        private Map<BluetoothDevice, Future<?>> connectionThreads = new HashMap<>();
 
         void stopProcessing() {
             continueProcessing = false;
@@ -291,10 +308,13 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
         }
 
         private void connectToDevice(BluetoothDevice device) {
-            if (!connectionThreads.containsKey(device) || !connectionThreads.get(device).isAlive()) {
-                Thread connectionThread = new Thread(new ClientConnect(device));
-                connectionThread.start();
-                connectionThreads.put(device, connectionThread);
+            if (!connectionThreads.containsKey(device) || connectionThreads.get(device).isDone()) {
+                try {
+                    connectionThreads.put(device, ThreadHelper.io().submit(new ClientConnect(device)));
+                } catch (RejectedExecutionException e) {
+                    //Tried again with the next round
+                    Log.w("BluetoothLinkProvider", "No thread to connect to " + device.getAddress());
+                }
             }
         }
 
@@ -328,13 +348,7 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
             Log.i("BTLinkProvider/Client", "Connected to " + device.getAddress());
 
             try {
-                int character;
-                StringBuilder sb = new StringBuilder();
-                while (sb.lastIndexOf("\n") == -1 && (character = socket.getInputStream().read()) != -1) {
-                    sb.append((char) character);
-                }
-
-                String message = sb.toString();
+                String message = readLine(socket.getInputStream());
                 final NetworkPacket identityPacket = NetworkPacket.unserialize(message);
 
                 if (!identityPacket.getType().equals(NetworkPacket.PACKET_TYPE_IDENTITY)) {
@@ -361,10 +375,18 @@ public class BluetoothLinkProvider extends BaseLinkProvider {
                 final BluetoothLink link = new BluetoothLink(context, socket,
                         identityPacket.getString("deviceId"), BluetoothLinkProvider.this);
 
-                NetworkPacket np2 = NetworkPacket.createIdentityPacket(context);
+                NetworkPacket np2 = createIdentityPacket();
                 link.sendPacket(np2, new Device.SendPacketStatusCallback() {
                     @Override
                     public void onSuccess() {
+                        if (BluetoothLink.supportsFraming(identityPacket)) {
+                            try {
+                                link.enableFraming();
+                            } catch (IOException e) {
+                                Log.e("BTLinkProvider/Client", "Could not switch to framed mode", e);
+                                return;
+                            }
+                        }
                         addLink(identityPacket, link);
                     }
 
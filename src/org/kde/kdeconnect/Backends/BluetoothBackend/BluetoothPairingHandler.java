@@ -24,15 +24,15 @@ import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BasePairingHandler;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 import org.kde.kdeconnect_tp.R;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 public class BluetoothPairingHandler extends BasePairingHandler {
 
-    Timer mPairingTimer;
+    ScheduledFuture<?> mPairingTimer;
 
     public BluetoothPairingHandler(Device device, final PairingHandlerCallback callback) {
         super(device, callback);
@@ -86,15 +86,10 @@ public class BluetoothPairingHandler extends BasePairingHandler {
                 hidePairingNotification();
                 mDevice.displayPairingNotification();
 
-                mPairingTimer = new Timer();
-
-                mPairingTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.w("KDE/Device", "Unpairing (timeout B)");
-                        mPairStatus = PairStatus.NotPaired;
-                        hidePairingNotification();
-                    }
+                mPairingTimer = ThreadHelper.scheduleIo(() -> {
+                    Log.w("KDE/Device", "Unpairing (timeout B)");
+                    mPairStatus = PairStatus.NotPaired;
+                    hidePairingNotification();
                 }, 25 * 1000); //Time to show notification, waiting for user to accept (peer will timeout in 30 seconds)
                 mPairStatus = PairStatus.RequestedByPeer;
                 mCallback.incomingRequest();
@@ -123,14 +118,10 @@ public class BluetoothPairingHandler extends BasePairingHandler {
             @Override
             public void onSuccess() {
                 hidePairingNotification(); //Will stop the pairingTimer if it was running
-                mPairingTimer = new Timer();
-                mPairingTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        mCallback.pairingFailed(mDevice.getContext().getString(R.string.error_timed_out));
-                        Log.w("KDE/Device", "Unpairing (timeout A)");
-                        mPairStatus = PairStatus.NotPaired;
-                    }
+                mPairingTimer = ThreadHelper.scheduleIo(() -> {
+                    mCallback.pairingFailed(mDevice.getContext().getString(R.string.error_timed_out));
+                    Log.w("KDE/Device", "Unpairing (timeout A)");
+                    mPairStatus = PairStatus.NotPaired;
                 }, 30 * 1000); //Time to wait for the other to accept
                 mPairStatus = PairStatus.Requested;
             }
@@ -146,7 +137,7 @@ public class BluetoothPairingHandler extends BasePairingHandler {
     public void hidePairingNotification() {
         mDevice.hidePairingNotification();
         if (mPairingTimer != null) {
-            mPairingTimer.cancel();
+            mPairingTimer.cancel(false);
         }
     }
 
@@ -0,0 +1,378 @@
+package org.kde.kdeconnect.Backends.BluetoothBackend;
+
+import android.util.Log;
+
+import org.kde.kdeconnect.Device;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Length-prefixed framing that multiplexes packets and payloads over a single stream,
+ * so payloads don't need a new RFCOMM socket each. Every frame is:
+ *
+ * [type: 1 byte][transfer id: 4 bytes][length: 4 bytes][length bytes of data]
+ *
+ * Packet frames carry a serialized NetworkPacket (transfer id 0). A packet with a
+ * payload has a "transferId" in its payloadTransferInfo, and is followed by data
+ * frames with that id and a final end (or error) frame. Frames of different
+ * transfers can be interleaved, so small packets are not stuck behind a big payload.
+ *
+ * Payloads are flow controlled: the sender may have at most INCOMING_WINDOW_BYTES of a
+ * transfer that the receiver hasn't consumed yet. The receiver gives credit back with
+ * credit frames (a 4 byte count of consumed bytes) as its consumer reads, or stops the
+ * transfer with a cancel frame if the consumer goes away. Both carry the id of the
+ * transfer being received, which is one the other end chose.
+ *
+ * Only used when both ends announce support for it in their identity packets.
+ */
+class FramedChannel {
+
+    interface PacketListener {
+        void onPacket(String message);
+    }
+
+    static final int TYPE_PACKET = 1;
+    static final int TYPE_PAYLOAD_DATA = 2;
+    static final int TYPE_PAYLOAD_END = 3;
+    static final int TYPE_PAYLOAD_ERROR = 4;
+    static final int TYPE_PAYLOAD_CREDIT = 5;
+    static final int TYPE_PAYLOAD_CANCEL = 6;
+
+    static final int HEADER_SIZE = 9;
+
+    //Anything bigger is a corrupted stream, don't try to allocate it
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    //Aim for frames of around this size, rounded to the transmit packet size of the socket
+    private static final int TARGET_CHUNK_SIZE = 16 * 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+    //Bytes of a payload the sender may send ahead of the consumer. The reading thread never waits
+    //for a consumer, since that would hold up every other transfer on the link, so this is what
+    //a payload can buffer at most.
+    static final int INCOMING_WINDOW_BYTES = 1024 * 1024;
+    //Credit is given back in steps of this, not after every chunk
+    private static final int CREDIT_STEP_BYTES = INCOMING_WINDOW_BYTES / 4;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int chunkSize;
+
+    private final AtomicInteger lastTransferId = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, IncomingPayload> incoming = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, OutgoingPayload> outgoing = new ConcurrentHashMap<>();
+
+    FramedChannel(InputStream in, OutputStream out, int maxTransmitPacketSize) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(out);
+        this.chunkSize = chunkSizeFor(maxTransmitPacketSize);
+    }
+
+    /**
+     * Frames should fill whole transmit packets, so the last packet of every frame
+     * isn't sent half empty.
+     */
+    static int chunkSizeFor(int maxTransmitPacketSize) {
+        if (maxTransmitPacketSize <= HEADER_SIZE) {
+            return DEFAULT_CHUNK_SIZE;
+        }
+        int packets = Math.max(1, TARGET_CHUNK_SIZE / maxTransmitPacketSize);
+        return packets * maxTransmitPacketSize - HEADER_SIZE;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    int nextTransferId() {
+        int id = lastTransferId.incrementAndGet();
+        if (id <= 0) { //Wrapped around, 0 is reserved for packets
+            lastTransferId.compareAndSet(id, 0);
+            id = lastTransferId.incrementAndGet();
+        }
+        return id;
+    }
+
+    void writePacket(byte[] message) throws IOException {
+        writeFrame(TYPE_PACKET, 0, message, 0, message.length);
+    }
+
+    /**
+     * Blocking, sends the whole payload as data frames followed by an end frame. Waits for
+     * credit from the receiver, so readLoop() must be running.
+     */
+    long writePayload(int transferId, InputStream payload, long size, Device.SendPacketStatusCallback callback) throws IOException {
+        OutgoingPayload transfer = new OutgoingPayload();
+        outgoing.put(transferId, transfer);
+        byte[] buffer = new byte[chunkSize];
+        long progress = 0;
+        long timeSinceLastUpdate = -1;
+        try {
+            int bytesRead;
+            while ((bytesRead = payload.read(buffer)) != -1) {
+                transfer.acquire(bytesRead);
+                writeFrame(TYPE_PAYLOAD_DATA, transferId, buffer, 0, bytesRead);
+                progress += bytesRead;
+                if (size > 0 && timeSinceLastUpdate + 500 < System.currentTimeMillis()) { //Report progress every half a second
+                    callback.onProgressChanged((int) (100 * progress / size));
+                    timeSinceLastUpdate = System.currentTimeMillis();
+                }
+            }
+        } catch (IOException e) {
+            try {
+                writeFrame(TYPE_PAYLOAD_ERROR, transferId, buffer, 0, 0);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        } finally {
+            outgoing.remove(transferId);
+        }
+        writeFrame(TYPE_PAYLOAD_END, transferId, buffer, 0, 0);
+        return progress;
+    }
+
+    //Called by incoming payloads, from their consumer's thread
+    private void writeTransferControl(int type, int transferId, int value) {
+        byte[] data = {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        try {
+            writeFrame(type, transferId, data, 0, data.length);
+        } catch (IOException e) {
+            //The read loop will find out the connection is gone
+            Log.w("FramedChannel", "Could not update the sender of payload " + transferId, e);
+        }
+    }
+
+    private void writeFrame(int type, int transferId, byte[] data, int offset, int length) throws IOException {
+        //Frames from different threads must not interleave
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(transferId);
+            out.writeInt(length);
+            out.write(data, offset, length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Must be called from the PacketListener, before the next frame is read, for
+     * every packet that announces a transfer id.
+     */
+    InputStream openIncomingPayload(int transferId) {
+        IncomingPayload payload = new IncomingPayload(transferId);
+        incoming.put(transferId, payload);
+        return payload;
+    }
+
+    /**
+     * Reads frames until the stream ends or fails. Should be called from the receiving thread.
+     */
+    void readLoop(PacketListener listener) throws IOException {
+        try {
+            while (true) {
+                int type = in.readUnsignedByte();
+                int transferId = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+
+                switch (type) {
+                    case TYPE_PACKET:
+                        listener.onPacket(new String(data, "UTF-8"));
+                        break;
+                    case TYPE_PAYLOAD_DATA: {
+                        IncomingPayload payload = incoming.get(transferId);
+                        if (payload != null && !payload.offer(data)) {
+                            incoming.remove(transferId);
+                        }
+                        break;
+                    }
+                    case TYPE_PAYLOAD_CREDIT: {
+                        OutgoingPayload payload = outgoing.get(transferId);
+                        if (payload != null && length == 4) {
+                            payload.grant(((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff));
+                        }
+                        break;
+                    }
+                    case TYPE_PAYLOAD_CANCEL: {
+                        OutgoingPayload payload = outgoing.get(transferId);
+                        if (payload != null) {
+                            payload.cancel();
+                        }
+                        break;
+                    }
+                    case TYPE_PAYLOAD_END:
+                    case TYPE_PAYLOAD_ERROR: {
+                        IncomingPayload payload = incoming.remove(transferId);
+                        if (payload != null) {
+                            payload.finish(type == TYPE_PAYLOAD_END);
+                        }
+                        break;
+                    }
+                    default:
+                        Log.w("FramedChannel", "Ignoring frame of unknown type " + type);
+                }
+            }
+        } finally {
+            for (IncomingPayload payload : incoming.values()) {
+                payload.finish(false);
+            }
+            incoming.clear();
+            for (OutgoingPayload payload : outgoing.values()) {
+                payload.cancel(); //No more credit will come
+            }
+        }
+    }
+
+    /**
+     * The credit the receiver gave us for a payload we send.
+     */
+    private static class OutgoingPayload {
+
+        private long credit = INCOMING_WINDOW_BYTES;
+        private boolean cancelled = false;
+
+        synchronized void acquire(int bytes) throws IOException {
+            while (credit < bytes && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (cancelled) {
+                throw new IOException("Payload transfer cancelled by the receiver");
+            }
+            credit -= bytes;
+        }
+
+        synchronized void grant(int bytes) {
+            credit += bytes;
+            notifyAll();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+    }
+
+    //Queued after the last chunk of an incoming payload
+    private static final byte[] END = new byte[0];
+    private static final byte[] ERROR = new byte[0];
+
+    private class IncomingPayload extends InputStream {
+
+        private final int transferId;
+        private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private final AtomicLong bufferedBytes = new AtomicLong(0);
+        private byte[] current = null;
+        private int position = 0;
+        private int consumedSinceCredit = 0;
+        private volatile boolean closed = false;
+        private volatile boolean finished = false;
+
+        IncomingPayload(int transferId) {
+            this.transferId = transferId;
+        }
+
+        //Called from the reading thread, never blocks. Returns false if the consumer went away
+        //or the sender went past the window it was given.
+        boolean offer(byte[] data) {
+            if (closed) {
+                return false;
+            }
+            if (bufferedBytes.addAndGet(data.length) > INCOMING_WINDOW_BYTES) {
+                Log.e("FramedChannel", "Payload " + transferId + " went over its window, dropping it");
+                closed = true;
+                clear();
+                chunks.offer(ERROR);
+                writeTransferControl(TYPE_PAYLOAD_CANCEL, transferId, 0);
+                return false;
+            }
+            chunks.offer(data);
+            return true;
+        }
+
+        void finish(boolean success) {
+            finished = true;
+            if (!success) {
+                clear(); //The data is useless anyway
+            }
+            chunks.offer(success ? END : ERROR);
+        }
+
+        private void clear() {
+            chunks.clear();
+            bufferedBytes.set(0);
+        }
+
+        private boolean fill() throws IOException {
+            while (current == null || position >= current.length) {
+                if (current == END) {
+                    return false;
+                }
+                if (current == ERROR || closed) {
+                    throw new IOException("Payload transfer " + transferId + " failed");
+                }
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+                bufferedBytes.addAndGet(-current.length);
+                position = 0;
+                consumedSinceCredit += current.length;
+                if (consumedSinceCredit >= CREDIT_STEP_BYTES && !finished) {
+                    writeTransferControl(TYPE_PAYLOAD_CREDIT, transferId, consumedSinceCredit);
+                    consumedSinceCredit = 0;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (!closed && !finished) {
+                writeTransferControl(TYPE_PAYLOAD_CANCEL, transferId, 0); //Don't let the sender wait for credit forever
+            }
+            closed = true;
+            clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.kde.kdeconnect.Backends.BluetoothBackend;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the bytes coming from a socket into newline terminated packets.
+ *
+ * Bytes are kept in a single buffer that is reused between packets, and every byte
+ * is only scanned once, no matter in how many reads a packet arrives. Packets are
+ * decoded as UTF-8 once they are complete, so multi-byte characters split between
+ * two reads are not a problem ('\n' never appears inside of them).
+ */
+class LineFrameDecoder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    //Anything bigger is a corrupted stream, don't try to buffer it
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private byte[] buffer;
+    private int start = 0; //First byte of the packet being received
+    private int end = 0; //One past the last byte received
+    private int scanned = 0; //Bytes before this one are known not to be '\n'
+
+    LineFrameDecoder() {
+        this(INITIAL_CAPACITY);
+    }
+
+    LineFrameDecoder(int initialCapacity) {
+        buffer = new byte[Math.max(1, initialCapacity)];
+    }
+
+    /**
+     * Appends the bytes read from the socket, and passes every packet they complete
+     * to the listener, newline included, in the order they were received.
+     */
+    void feed(byte[] data, int offset, int length, FramedChannel.PacketListener listener) throws IOException {
+        makeRoom(length);
+        System.arraycopy(data, offset, buffer, end, length);
+        end += length;
+
+        for (; scanned < end; scanned++) {
+            if (buffer[scanned] == '\n') {
+                String message = new String(buffer, start, scanned + 1 - start, UTF8);
+                start = scanned + 1;
+                listener.onPacket(message);
+            }
+        }
+
+        if (start == end) {
+            start = end = scanned = 0;
+        }
+    }
+
+    /**
+     * Bytes of the packet being received, which hasn't got its newline yet.
+     */
+    int pending() {
+        return end - start;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    private void makeRoom(int length) throws IOException {
+        if (end + length <= buffer.length) {
+            return;
+        }
+        int pending = end - start;
+        if (pending + length > MAX_FRAME_SIZE) {
+            throw new IOException("Packet bigger than " + MAX_FRAME_SIZE + " bytes");
+        }
+        byte[] target = buffer;
+        if (pending + length > buffer.length) {
+            int capacity = buffer.length;
+            while (capacity < pending + length) {
+                capacity *= 2;
+            }
+            target = new byte[Math.min(capacity, MAX_FRAME_SIZE)];
+        }
+        //Move the partial packet to the beginning, so the bytes before it can be reused
+        System.arraycopy(buffer, start, target, 0, pending);
+        buffer = target;
+        scanned -= start;
+        end = pending;
+        start = 0;
+    }
+}
@@ -0,0 +1,135 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.util.Log;
+
+import org.kde.kdeconnect.Helpers.ThreadHelper;
+import org.kde.kdeconnect.TrafficScheduler;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when LanLinkProvider broadcasts its identity.
+ *
+ * Network changes tend to come in bursts (wifi connects, gets an address, the UI asks
+ * for a refresh...), so a broadcast is only sent once no other change has arrived for
+ * a short while. After that, the broadcast is repeated in case some device wasn't
+ * ready to hear it, less and less often while the network stays the same, and only at
+ * the longest interval while the TrafficScheduler is saving power.
+ */
+class LanDiscoveryScheduler {
+
+    interface Broadcaster {
+        /**
+         * Called from an io thread. networkChanged is true for the first broadcast
+         * after a network change, and false for the repeated ones.
+         */
+        void broadcast(boolean networkChanged);
+    }
+
+    static final long COALESCE_DELAY_MS = 500;
+    static final long FIRST_REPEAT_DELAY_MS = 2 * 1000;
+    static final long MAX_REPEAT_DELAY_MS = 5 * 60 * 1000;
+
+    private final Broadcaster broadcaster;
+    private final long coalesceDelayMs;
+    private final long firstRepeatDelayMs;
+    private final long maxRepeatDelayMs;
+
+    private boolean started = false;
+    private ScheduledFuture<?> pending;
+    private boolean pendingIsRepeat = false;
+    private boolean networkChanged = false;
+    private long nextRepeatDelayMs;
+    private int broadcastCount = 0;
+
+    LanDiscoveryScheduler(Broadcaster broadcaster) {
+        this(broadcaster, COALESCE_DELAY_MS, FIRST_REPEAT_DELAY_MS, MAX_REPEAT_DELAY_MS);
+    }
+
+    LanDiscoveryScheduler(Broadcaster broadcaster, long coalesceDelayMs, long firstRepeatDelayMs, long maxRepeatDelayMs) {
+        this.broadcaster = broadcaster;
+        this.coalesceDelayMs = coalesceDelayMs;
+        this.firstRepeatDelayMs = firstRepeatDelayMs;
+        this.maxRepeatDelayMs = maxRepeatDelayMs;
+        this.nextRepeatDelayMs = firstRepeatDelayMs;
+    }
+
+    synchronized void start() {
+        started = true;
+        onNetworkChange();
+    }
+
+    synchronized void stop() {
+        started = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Schedules a broadcast soon, merging it with any other requested in the meantime,
+     * and starts repeating it often again.
+     */
+    synchronized void onNetworkChange() {
+        if (!started) {
+            return;
+        }
+        networkChanged = true;
+        nextRepeatDelayMs = firstRepeatDelayMs;
+        if (pending != null && !pendingIsRepeat) {
+            return; //Coalesced with the broadcast already on its way
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        schedule(coalesceDelayMs, false);
+    }
+
+    synchronized int getBroadcastCount() {
+        return broadcastCount;
+    }
+
+    private void schedule(long delayMs, boolean isRepeat) {
+        pending = ThreadHelper.scheduler().schedule(this::startRun, delayMs, TimeUnit.MILLISECONDS);
+        pendingIsRepeat = isRepeat;
+    }
+
+    //On the scheduler, the broadcast itself may block
+    private void startRun() {
+        try {
+            ThreadHelper.io().execute(this::run);
+        } catch (RejectedExecutionException e) {
+            //Try again later rather than never broadcasting again
+            Log.w("LanDiscoveryScheduler", "No thread to broadcast, trying again in " + firstRepeatDelayMs + "ms");
+            synchronized (this) {
+                if (started) {
+                    schedule(firstRepeatDelayMs, pendingIsRepeat);
+                }
+            }
+        }
+    }
+
+    private void run() {
+        boolean changed;
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            changed = networkChanged;
+            networkChanged = false;
+            broadcastCount++;
+            //Repeating is the least important, when saving power only do it rarely
+            boolean savingPower = TrafficScheduler.getInstance().getBatchingWindowMs() > 0;
+            schedule(savingPower ? maxRepeatDelayMs : nextRepeatDelayMs, true);
+            nextRepeatDelayMs = Math.min(nextRepeatDelayMs * 2, maxRepeatDelayMs);
+        }
+        try {
+            broadcaster.broadcast(changed);
+        } catch (Exception e) {
+            Log.e("LanDiscoveryScheduler", "Exception broadcasting identity", e);
+        }
+    }
+}
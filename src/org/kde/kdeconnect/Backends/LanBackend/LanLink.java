@@ -27,9 +27,11 @@ import org.json.JSONObject;
 import org.kde.kdeconnect.Backends.BaseLink;
 import org.kde.kdeconnect.Backends.BasePairingHandler;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.Metrics;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.RsaHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.SslHelper;
 import org.kde.kdeconnect.Helpers.StringsHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 
 import java.io.BufferedReader;
@@ -40,9 +42,15 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.NotYetConnectedException;
 import java.security.PublicKey;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLSocket;
 
@@ -65,6 +73,34 @@ public class LanLink extends BaseLink {
 
     private LinkDisconnectedCallback callback;
 
+    // Heartbeats are answered by the other end with the time we sent them, which gives us the
+    // round trip time. They only go to peers that put KEY_HEARTBEAT in their identity: older
+    // ones would take an unknown packet from an unpaired device as a reason to unpair. Such a
+    // peer that stays silent for longer than the timeout is considered gone, and the link is
+    // closed so the device can use another one. Other peers only get empty lines, which every
+    // reader skips: we can't tell when they are gone, but a broken connection still shows up
+    // as a failed write.
+    static final String PACKET_TYPE_HEARTBEAT = "kdeconnect.lan.heartbeat";
+    public static final String KEY_HEARTBEAT = "lanHeartbeat";
+    public static final int HEARTBEAT_VERSION = 1;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 30 * 1000;
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MS = 90 * 1000;
+
+    static {
+        Metrics.addKnownPacketTypes(Collections.singleton(PACKET_TYPE_HEARTBEAT));
+    }
+
+
+    //Packets are written from many threads, but must not be interleaved
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private long heartbeatIntervalMs = DEFAULT_HEARTBEAT_INTERVAL_MS;
+    private long heartbeatTimeoutMs = DEFAULT_HEARTBEAT_TIMEOUT_MS;
+    private ScheduledFuture<?> heartbeatTask;
+    private volatile boolean heartbeatSupported = false;
+    private volatile long lastReceivedMs;
+    private volatile long rttMs = -1;
+
     @Override
     public void disconnect() {
         Log.i("LanLink/Disconnect","socket:"+ socket.hashCode());
@@ -75,6 +111,138 @@ public class LanLink extends BaseLink {
         }
     }
 
+    public static boolean isHeartbeatSupportedBy(NetworkPacket identityPacket) {
+        return identityPacket.getInt(KEY_HEARTBEAT, 0) >= HEARTBEAT_VERSION;
+    }
+
+    //Whether the other end said in its identity that it answers heartbeats
+    public void setHeartbeatSupported(boolean supported) {
+        heartbeatSupported = supported;
+    }
+
+    /**
+     * Changes how often heartbeats are sent, and how long an answering peer can stay silent
+     * before the link is considered dead.
+     */
+    public synchronized void setHeartbeat(long intervalMs, long timeoutMs) {
+        heartbeatIntervalMs = intervalMs;
+        heartbeatTimeoutMs = timeoutMs;
+        scheduleHeartbeat();
+    }
+
+    /**
+     * Smoothed round trip time of the heartbeats, or -1 if the peer never answered one.
+     */
+    @Override
+    public long getRttMs() {
+        return rttMs;
+    }
+
+    @Override
+    public long getExpectedLatencyMs() {
+        return 5;
+    }
+
+    @Override
+    public double getExpectedThroughput() {
+        return 1000; //~1MB/s, a slow wifi
+    }
+
+    private synchronized void scheduleHeartbeat() {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+        }
+        //The scheduler is shared, so the write that might block happens elsewhere
+        heartbeatTask = ThreadHelper.scheduler().scheduleAtFixedRate(() -> {
+            try {
+                ThreadHelper.io().execute(this::heartbeat);
+            } catch (RejectedExecutionException e) {
+                //Skip this one: a periodic task that throws is never run again
+                Log.w("LanLink", "No thread to send a heartbeat");
+            }
+        }, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelHeartbeat() {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+    }
+
+    private void heartbeat() {
+        final Socket socket = this.socket;
+        long now = System.currentTimeMillis();
+        boolean supported = heartbeatSupported;
+        if (supported && now - lastReceivedMs > heartbeatTimeoutMs) {
+            Log.w("KDE/LanLink", "Nothing received from " + getDeviceId() + " in " + (now - lastReceivedMs) + "ms, closing link");
+            closeSocket(socket);
+            return;
+        }
+
+        //If a packet is being written right now we don't need a heartbeat, and shouldn't wait for it
+        if (!writeLock.tryLock()) {
+            return;
+        }
+        try {
+            byte[] bytes;
+            if (supported) {
+                NetworkPacket np = new NetworkPacket(PACKET_TYPE_HEARTBEAT);
+                np.set("sent", now);
+                bytes = serializeForPeer(np).getBytes(StringsHelper.UTF8);
+            } else {
+                bytes = new byte[]{'\n'};
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(bytes);
+            out.flush();
+        } catch (Exception e) {
+            Log.w("KDE/LanLink", "Heartbeat to " + getDeviceId() + " failed, closing link: " + e.getMessage());
+            closeSocket(socket);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void heartbeatReceived(NetworkPacket np) {
+        if (np.getBoolean("reply", false)) {
+            long sample = System.currentTimeMillis() - np.getLong("sent");
+            if (sample >= 0) {
+                long previous = rttMs;
+                rttMs = (previous < 0) ? sample : (7 * previous + sample) / 8;
+            }
+            return;
+        }
+        //Answer from another thread, so reading never waits for writing
+        final Socket socket = this.socket;
+        np.set("reply", true);
+        try {
+            ThreadHelper.io().execute(() -> {
+                writeLock.lock();
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(serializeForPeer(np).getBytes(StringsHelper.UTF8));
+                    out.flush();
+                } catch (Exception e) {
+                    closeSocket(socket);
+                } finally {
+                    writeLock.unlock();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //The peer takes it as one missed heartbeat, better than stopping to read
+            Log.w("LanLink", "No thread to answer a heartbeat");
+        }
+    }
+
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     //Returns the old socket
     public Socket reset(final Socket newSocket, ConnectionStarted connectionSource) throws IOException {
 
@@ -87,9 +255,19 @@ public class LanLink extends BaseLink {
             oldSocket.close(); //This should cancel the readThread
         }
 
+        //The handshake needed a read timeout, but from now on the heartbeat takes care of
+        //noticing when the other end is gone, and the reading thread can just block
+        try {
+            newSocket.setSoTimeout(0);
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+        lastReceivedMs = System.currentTimeMillis();
+        scheduleHeartbeat();
+
         //Log.e("LanLink", "Start listening");
         //Create a thread to take care of incoming data for the new socket
-        new Thread(() -> {
+        ThreadHelper.startLoop("lan-link", () -> {
             try {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(newSocket.getInputStream(), StringsHelper.UTF8));
                 while (true) {
@@ -102,10 +280,16 @@ public class LanLink extends BaseLink {
                     if (packet == null) {
                         throw new IOException("End of stream");
                     }
+                    lastReceivedMs = System.currentTimeMillis();
                     if (packet.isEmpty()) {
                         continue;
                     }
                     NetworkPacket np = NetworkPacket.unserialize(packet);
+                    Metrics.packetReceived(np.getType(), packet.length() + 1);
+                    if (PACKET_TYPE_HEARTBEAT.equals(np.getType())) {
+                        heartbeatReceived(np);
+                        continue;
+                    }
                     receivedNetworkPacket(np);
                 }
             } catch (Exception e) {
@@ -113,10 +297,11 @@ public class LanLink extends BaseLink {
                 try { Thread.sleep(300); } catch (InterruptedException ignored) {} // Wait a bit because we might receive a new socket meanwhile
                 boolean thereIsaANewSocket = (newSocket != socket);
                 if (!thereIsaANewSocket) {
+                    cancelHeartbeat();
                     callback.linkDisconnected(LanLink.this);
                 }
             }
-        }).start();
+        });
 
         return oldSocket;
     }
@@ -146,6 +331,9 @@ public class LanLink extends BaseLink {
             return false;
         }
 
+        //The original type, even if it's sent encrypted
+        final String type = np.getType();
+
         try {
 
             //Prepare socket for the payload
@@ -159,6 +347,8 @@ public class LanLink extends BaseLink {
                 server = null;
             }
 
+            np = compressIfSupported(np);
+
             //Encrypt if key provided
             if (key != null) {
                 np = RsaHelper.encrypt(np, key);
@@ -167,13 +357,19 @@ public class LanLink extends BaseLink {
             //Log.e("LanLink/sendPacket", np.getType());
 
             //Send body of the network package
+            long bytesSent;
+            writeLock.lock();
             try {
                 OutputStream writer = socket.getOutputStream();
-                writer.write(np.serialize().getBytes(StringsHelper.UTF8));
+                byte[] bytes = serializeForPeer(np).getBytes(StringsHelper.UTF8);
+                writer.write(bytes);
                 writer.flush();
+                bytesSent = bytes.length;
             } catch (Exception e) {
                 disconnect(); //main socket is broken, disconnect
                 throw e;
+            } finally {
+                writeLock.unlock();
             }
 
             //Send payload
@@ -216,6 +412,7 @@ public class LanLink extends BaseLink {
                     outputStream.flush();
                     outputStream.close();
                     Log.i("KDE/LanLink", "Finished sending payload ("+progress+" bytes written)");
+                    bytesSent += progress;
                 } finally {
                     try { server.close(); } catch (Exception e) { }
                     try { payloadSocket.close(); } catch (Exception e) { }
@@ -224,6 +421,7 @@ public class LanLink extends BaseLink {
                 }
             }
 
+            Metrics.packetSent(type, bytesSent);
             callback.onSuccess();
             return true;
         } catch (Exception e) {
@@ -22,19 +22,24 @@ package org.kde.kdeconnect.Backends.LanBackend;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.preference.PreferenceManager;
 import android.util.Base64;
 import android.util.Log;
 
+import org.json.JSONException;
 import org.kde.kdeconnect.Backends.BaseLink;
 import org.kde.kdeconnect.Backends.BaseLinkProvider;
 import org.kde.kdeconnect.BackgroundService;
 import org.kde.kdeconnect.Device;
 import org.kde.kdeconnect.Helpers.DeviceHelper;
+import org.kde.kdeconnect.Helpers.LatencyHistogram;
+import org.kde.kdeconnect.Helpers.Metrics;
 import org.kde.kdeconnect.Helpers.NetworkHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.SslHelper;
 import org.kde.kdeconnect.Helpers.StringsHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 import org.kde.kdeconnect.UserInterface.CustomDevicesActivity;
 
@@ -51,9 +56,12 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.HandshakeCompletedEvent;
@@ -77,15 +85,60 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
     final static int MAX_PORT = 1764;
     final static int PAYLOAD_TRANSFER_MIN_PORT = 1739;
 
+    public static final String KEY_MDNS_DISCOVERY = "mdns_discovery";
+
+    //The largest payload a UDP datagram can carry
+    private final static int UDP_BUFFER_SIZE = 65507;
+
     final Context context;
 
     private final HashMap<String, LanLink> visibleComputers = new HashMap<>();  //Links by device id
+    private final HashMap<String, HandshakeInProgress> handshakesInProgress = new HashMap<>();  //By device id
+
+    //A handshake that has been going on for longer is considered stuck, and doesn't stop new connections
+    private final static long HANDSHAKE_TIMEOUT_MS = 30 * 1000;
+
+    //How long we leave it to a device to connect to us before we connect to it ourselves
+    final static long INCOMING_CONNECTION_TIMEOUT_MS = 5 * 1000;
+    //Devices we are waiting for, see awaitConnectionFrom
+    private final Set<String> awaitedConnections = Collections.synchronizedSet(new HashSet<String>());
+    long incomingConnectionTimeoutMs = INCOMING_CONNECTION_TIMEOUT_MS; //Shorter in tests
+
+    //If there is no thread to start or stop mDNS discovery, how long until we try again
+    private final static long MDNS_RETRY_MS = 1000;
+
+    private static final LatencyHistogram handshakeTime = Metrics.histogram("lan.tls_handshake");
+    private static final LatencyHistogram timeToFirstLink = Metrics.histogram("lan.time_to_first_link");
+    private static final Metrics.Counter handshakeFailures = Metrics.counter("lan.tls_handshake_failures");
+
+    private static class HandshakeInProgress {
+        final Socket socket;
+        final long startedMs;
+
+        HandshakeInProgress(Socket socket) {
+            this.socket = socket;
+            this.startedMs = System.currentTimeMillis();
+        }
+    }
 
     ServerSocket tcpServer;
     private DatagramSocket udpServer;
     private DatagramSocket udpServerOldPort;
+    private final UdpDiscoveryFilter udpDiscoveryFilter = new UdpDiscoveryFilter();
+
+    private final LanPeerAddressCache peerAddressCache;
+    private final static int DIRECT_CONNECT_TIMEOUT_MS = 3000;
 
-    boolean listening = false;
+    //When we started looking for devices, until the first link after that
+    private volatile long discoveryStartedMs = 0;
+    private volatile long timeToFirstLinkMs = -1;
+
+    private volatile MdnsDiscovery mdnsDiscovery;
+    private WifiManager.MulticastLock multicastLock;
+    //Starting and stopping mDNS happens off the main thread, one at a time
+    private final Object mdnsLock = new Object();
+
+    volatile boolean listening = false;
 
     // To prevent infinte loop between Android < IceCream because both device can only broadcast identity package but cannot connect via TCP
     ArrayList<InetAddress> reverseConnectionBlackList = new ArrayList<>();
@@ -125,9 +178,13 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
 
         final InetAddress address = packet.getAddress();
 
+        if (!udpDiscoveryFilter.accept(address, packet.getData(), packet.getOffset(), packet.getLength(), System.currentTimeMillis())) {
+            return;
+        }
+
         try {
 
-            String message = new String(packet.getData(), StringsHelper.UTF8);
+            String message = new String(packet.getData(), packet.getOffset(), packet.getLength(), StringsHelper.UTF8);
             final NetworkPacket identityPacket = NetworkPacket.unserialize(message);
             final String deviceId = identityPacket.getString("deviceId");
             if (!identityPacket.getType().equals(NetworkPacket.PACKET_TYPE_IDENTITY)) {
@@ -148,18 +205,16 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
 
             Log.i("KDE/LanLinkProvider", "Broadcast identity package received from " + identityPacket.getString("deviceName"));
 
-            int tcpPort = identityPacket.getInt("tcpPort", MIN_PORT);
-
-            SocketFactory socketFactory = SocketFactory.getDefault();
-            Socket socket = socketFactory.createSocket(address, tcpPort);
-            configureSocket(socket);
-
-            OutputStream out = socket.getOutputStream();
-            NetworkPacket myIdentity = NetworkPacket.createIdentityPacket(context);
-            out.write(myIdentity.serialize().getBytes());
-            out.flush();
+            if (!shouldConnectTo(deviceId)) {
+                if (!visibleComputers.containsKey(deviceId)) {
+                    Log.i("KDE/LanLinkProvider", "Letting " + identityPacket.getString("deviceName") + " connect to us");
+                    sendIdentityTo(address);
+                    awaitConnectionFrom(identityPacket, address);
+                }
+                return;
+            }
 
-            identityPacketReceived(identityPacket, socket, LanLink.ConnectionStarted.Remotely);
+            connectTo(identityPacket, address);
 
         } catch (Exception e) {
             Log.e("KDE/LanLinkProvider", "Cannot connect to " + address);
@@ -167,19 +222,112 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
             if (!reverseConnectionBlackList.contains(address)) {
                 Log.w("KDE/LanLinkProvider", "Blacklisting " + address);
                 reverseConnectionBlackList.add(address);
-                new Timer().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        reverseConnectionBlackList.remove(address);
-                    }
-                }, 5 * 1000);
+                ThreadHelper.scheduler().schedule(() -> reverseConnectionBlackList.remove(address), 5, TimeUnit.SECONDS);
 
                 // Try to cause a reverse connection
-                onNetworkChange();
+                discoveryScheduler.onNetworkChange();
             }
         }
     }
 
+    private void connectTo(NetworkPacket identityPacket, InetAddress address) throws IOException, JSONException {
+        int tcpPort = identityPacket.getInt("tcpPort", MIN_PORT);
+        SocketFactory socketFactory = SocketFactory.getDefault();
+        Socket socket = socketFactory.createSocket(address, tcpPort);
+        connected(identityPacket, socket);
+    }
+
+    /**
+     * If the device we left the connection to hasn't connected after a while, because it
+     * can't reach our port or didn't get our identity, connect to it ourselves.
+     */
+    private void awaitConnectionFrom(final NetworkPacket identityPacket, final InetAddress address) {
+        final String deviceId = identityPacket.getString("deviceId");
+        if (!awaitedConnections.add(deviceId)) {
+            return; //Already waiting for it
+        }
+        ThreadHelper.scheduleIo(() -> {
+            awaitedConnections.remove(deviceId);
+            if (!listening || visibleComputers.containsKey(deviceId) || isHandshakeInProgress(deviceId)) {
+                return;
+            }
+            Log.i("KDE/LanLinkProvider", identityPacket.getString("deviceName") + " didn't connect to us, connecting to it");
+            try {
+                connectTo(identityPacket, address);
+            } catch (Exception e) {
+                Log.e("KDE/LanLinkProvider", "Cannot connect to " + address, e);
+            }
+        }, incomingConnectionTimeoutMs);
+    }
+
+    private boolean isHandshakeInProgress(String deviceId) {
+        synchronized (handshakesInProgress) {
+            HandshakeInProgress current = handshakesInProgress.get(deviceId);
+            return current != null && System.currentTimeMillis() - current.startedMs < HANDSHAKE_TIMEOUT_MS;
+        }
+    }
+
+    /**
+     * We connected to a device: tell it who we are and start the handshake.
+     */
+    private void connected(NetworkPacket identityPacket, Socket socket) throws IOException, JSONException {
+        configureSocket(socket);
+
+        OutputStream out = socket.getOutputStream();
+        out.write(NetworkPacket.getIdentityPacketBytes(context, 0));
+        out.flush();
+
+        identityPacketReceived(identityPacket, socket, LanLink.ConnectionStarted.Remotely);
+    }
+
+    /**
+     * Connects right away to the paired devices we reached before, instead of waiting for
+     * discovery. Each one in its own thread, so dead addresses don't delay the others.
+     */
+    private void connectToKnownPeers() {
+        SharedPreferences trustedDevices = context.getSharedPreferences("trusted_devices", Context.MODE_PRIVATE);
+        for (final LanPeerAddressCache.Peer peer : peerAddressCache.getAll()) {
+            if (!trustedDevices.getBoolean(peer.deviceId, false)) {
+                peerAddressCache.forget(peer.deviceId);
+                continue;
+            }
+            if (visibleComputers.containsKey(peer.deviceId)) {
+                continue;
+            }
+            try {
+                ThreadHelper.io().execute(() -> connectToKnownPeer(peer));
+            } catch (RejectedExecutionException e) {
+                //Discovery will find the rest
+                Log.w("KDE/LanLinkProvider", "No thread to reconnect directly to " + peer.identityPacket.getString("deviceName"));
+                return;
+            }
+        }
+    }
+
+    private void connectToKnownPeer(LanPeerAddressCache.Peer peer) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(peer.address, peer.port), DIRECT_CONNECT_TIMEOUT_MS);
+            Log.i("KDE/LanLinkProvider", "Reconnected directly to " + peer.identityPacket.getString("deviceName"));
+            connected(peer.identityPacket, socket);
+        } catch (Exception e) {
+            //Not there anymore, or moved: discovery will find it
+            Log.i("KDE/LanLinkProvider", "Could not reconnect directly to " + peer.identityPacket.getString("deviceName") + " at " + peer.address);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * How long the first link took to come up after we last started looking for devices,
+     * or -1 if none has yet.
+     */
+    long getTimeToFirstLinkMs() {
+        return timeToFirstLinkMs;
+    }
+
     void configureSocket(Socket socket) {
         try {
             socket.setKeepAlive(true);
@@ -216,6 +364,12 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
         try {
             if (identityPacket.getInt("protocolVersion") >= MIN_VERSION_WITH_SSL_SUPPORT) {
 
+                if (!startHandshake(deviceId, socket, connectionStarted)) {
+                    Log.i("KDE/LanLinkProvider", "Already negotiating a better connection with " + identityPacket.getString("deviceName") + ", dropping this one");
+                    socket.close();
+                    return;
+                }
+
                 SharedPreferences preferences = context.getSharedPreferences("trusted_devices", Context.MODE_PRIVATE);
                 boolean isDeviceTrusted = preferences.getBoolean(deviceId, false);
 
@@ -251,12 +405,15 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
                     }
                 });
                 //Handshake is blocking, so do it on another thread and free this thread to keep receiving new connection
-                new Thread(() -> {
+                ThreadHelper.io().execute(() -> {
                     try {
                         synchronized (this) {
+                            long start = System.nanoTime();
                             sslsocket.startHandshake();
+                            handshakeTime.record((System.nanoTime() - start) / 1000);
                         }
                     } catch (Exception e) {
+                        handshakeFailures.inc();
                         Log.e("KDE/LanLinkProvider", "Handshake failed with " + identityPacket.getString("deviceName"));
                         e.printStackTrace();
 
@@ -264,15 +421,100 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
                         //for (String cipher : ciphers) {
                         //    Log.i("SupportedCiphers","cipher: " + cipher);
                         //}
+                    } finally {
+                        handshakeFinished(deviceId, socket);
                     }
-                }).start();
+                });
             } else {
                 addLink(identityPacket, socket, connectionStarted);
             }
         } catch (Exception e) {
             e.printStackTrace();
+            handshakeFinished(deviceId, socket);
+        }
+
+    }
+
+    /**
+     * Whoever started a connection, the device with the smallest id, so both ends agree on
+     * which one to keep when two connections between them are being set up at once.
+     */
+    private boolean isPreferredConnection(String deviceId, LanLink.ConnectionStarted connectionStarted) {
+        String myId = DeviceHelper.getDeviceId(context);
+        String initiatorId = (connectionStarted == LanLink.ConnectionStarted.Remotely) ? myId : deviceId;
+        String otherId = (connectionStarted == LanLink.ConnectionStarted.Remotely) ? deviceId : myId;
+        return initiatorId.compareTo(otherId) < 0;
+    }
+
+    /**
+     * Registers a TLS handshake with a device about to start on socket.
+     *
+     * @return false if another connection with the device is already being negotiated and
+     * should be kept instead of this one. If this one is preferred, the other is closed.
+     */
+    private boolean startHandshake(String deviceId, Socket socket, LanLink.ConnectionStarted connectionStarted) {
+        Socket other = null;
+        synchronized (handshakesInProgress) {
+            HandshakeInProgress current = handshakesInProgress.get(deviceId);
+            if (current != null && current.socket != socket && System.currentTimeMillis() - current.startedMs < HANDSHAKE_TIMEOUT_MS) {
+                if (!isPreferredConnection(deviceId, connectionStarted)) {
+                    return false;
+                }
+                other = current.socket;
+            }
+            handshakesInProgress.put(deviceId, new HandshakeInProgress(socket));
+        }
+        if (other != null) {
+            try {
+                other.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    private void handshakeFinished(String deviceId, Socket socket) {
+        synchronized (handshakesInProgress) {
+            HandshakeInProgress current = handshakesInProgress.get(deviceId);
+            if (current != null && current.socket == socket) {
+                handshakesInProgress.remove(deviceId);
+            }
+        }
+    }
+
+    /**
+     * When we hear a device's broadcast we would normally connect to it, but it may be
+     * connecting to us after hearing ours at the same time. To negotiate a single connection
+     * per pair, only the device with the smallest id connects, and the other one just makes
+     * sure it has heard its identity. We can only leave it to them if we accept connections.
+     */
+    private boolean shouldConnectTo(String deviceId) {
+        if (tcpServer == null || tcpServer.isClosed()) {
+            return true;
         }
+        return DeviceHelper.getDeviceId(context).compareTo(deviceId) < 0;
+    }
 
+    //The port we really accept connections on, MIN_PORT may have been taken
+    private int getTcpPort() {
+        ServerSocket server = tcpServer;
+        return (server != null) ? server.getLocalPort() : MIN_PORT;
+    }
+
+    /**
+     * Like a broadcast, but only to one address.
+     */
+    private void sendIdentityTo(InetAddress address) {
+        try {
+            DatagramSocket socket = getBroadcastSocket();
+            byte[] bytes = NetworkPacket.getIdentityPacketBytes(context, getTcpPort());
+            socket.send(new DatagramPacket(bytes, bytes.length, address, MIN_PORT));
+            socket.send(new DatagramPacket(bytes, bytes.length, address, MIN_PORT_LEGACY));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e("KDE/LanLinkProvider", "Sending udp identity package failed (" + address + ")");
+        }
     }
 
     /**
@@ -295,19 +537,37 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
         if (currentLink != null) {
             //Update old link
             Log.i("KDE/LanLinkProvider", "Reusing same link for device " + deviceId);
+            currentLink.setHeartbeatSupported(LanLink.isHeartbeatSupportedBy(identityPacket));
             final Socket oldSocket = currentLink.reset(socket, connectionOrigin);
             Log.i("KDE/LanLinkProvider", "Replacing socket. old: "+ oldSocket.hashCode() + " - new: "+ socket.hashCode());
         } else {
             Log.i("KDE/LanLinkProvider", "Creating a new link for device " + deviceId);
             //Let's create the link
             LanLink link = new LanLink(context, deviceId, this, socket, connectionOrigin);
+            link.setHeartbeatSupported(LanLink.isHeartbeatSupportedBy(identityPacket));
             visibleComputers.put(deviceId, link);
             connectionAccepted(identityPacket, link);
         }
+
+        long started = discoveryStartedMs;
+        if (started != 0) {
+            discoveryStartedMs = 0;
+            timeToFirstLinkMs = System.currentTimeMillis() - started;
+            timeToFirstLink.record(timeToFirstLinkMs * 1000);
+            Log.i("KDE/LanLinkProvider", "First link up " + timeToFirstLinkMs + "ms after starting discovery");
+        }
+
+        SharedPreferences trustedDevices = context.getSharedPreferences("trusted_devices", Context.MODE_PRIVATE);
+        if (trustedDevices.getBoolean(deviceId, false) && socket.getInetAddress() != null) {
+            //If they connected to us, the port we know is the one they said they listen on
+            int port = (connectionOrigin == LanLink.ConnectionStarted.Remotely) ? socket.getPort() : identityPacket.getInt("tcpPort", MIN_PORT);
+            peerAddressCache.remember(deviceId, socket.getInetAddress().getHostAddress(), port, identityPacket, System.currentTimeMillis());
+        }
     }
 
     public LanLinkProvider(Context context) {
         this.context = context;
+        this.peerAddressCache = new LanPeerAddressCache(context);
     }
 
     private DatagramSocket setupUdpListener(int udpPort) {
@@ -321,12 +581,13 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
             e.printStackTrace();
             return null;
         }
-        new Thread(() -> {
+        ThreadHelper.startLoop("lan-udp", () -> {
+            //Reused for every datagram: udpPacketReceived is done with it before the next receive
+            byte[] data = new byte[UDP_BUFFER_SIZE];
+            DatagramPacket packet = new DatagramPacket(data, data.length);
             while (listening) {
-                final int bufferSize = 1024 * 512;
-                byte[] data = new byte[bufferSize];
-                DatagramPacket packet = new DatagramPacket(data, bufferSize);
                 try {
+                    packet.setLength(data.length);
                     server.receive(packet);
                     udpPacketReceived(packet);
                 } catch (Exception e) {
@@ -335,7 +596,7 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
                 }
             }
             Log.w("UdpListener", "Stopping UDP listener");
-        }).start();
+        });
         return server;
     }
 
@@ -343,7 +604,7 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
 
         try {
             tcpServer = openServerSocketOnFreePort(MIN_PORT);
-            new Thread(() -> {
+            ThreadHelper.startLoop("lan-tcp", () -> {
                 while (listening) {
                     try {
                         Socket socket = tcpServer.accept();
@@ -355,7 +616,7 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
                     }
                 }
                 Log.w("TcpListener", "Stopping TCP listener");
-            }).start();
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -378,56 +639,170 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
         throw new IOException("No ports available");
     }
 
-    private void broadcastUdpPacket() {
+    private final LanDiscoveryScheduler discoveryScheduler = new LanDiscoveryScheduler(this::broadcastUdpPacket);
+
+    //Shared by the broadcasts and the identities sent to a single address
+    private DatagramSocket broadcastSocket;
+    private final Object broadcastSocketLock = new Object();
+    private String customDevicesPreference;
+    private final ArrayList<InetAddress> broadcastAddresses = new ArrayList<>();
+
+    private void broadcastUdpPacket(boolean networkChanged) {
 
         if (NetworkHelper.isOnMobileNetwork(context)) {
             Log.w("LanLinkProvider", "On 3G network, not sending broadcast.");
             return;
         }
 
-        new Thread(() -> {
+        if (networkChanged) {
+            connectToKnownPeers();
+        }
 
-            String deviceListPrefs = PreferenceManager.getDefaultSharedPreferences(context).getString(CustomDevicesActivity.KEY_CUSTOM_DEVLIST_PREFERENCE, "");
-            ArrayList<String> iplist = new ArrayList<>();
-            if (!deviceListPrefs.isEmpty()) {
-                iplist = CustomDevicesActivity.deserializeIpList(deviceListPrefs);
-            }
-            iplist.add("255.255.255.255"); //Default: broadcast.
+        //Resolving the custom devices can mean DNS lookups, so only do it again when something changed
+        String deviceListPrefs = PreferenceManager.getDefaultSharedPreferences(context).getString(CustomDevicesActivity.KEY_CUSTOM_DEVLIST_PREFERENCE, "");
+        if (networkChanged || !deviceListPrefs.equals(customDevicesPreference)) {
+            customDevicesPreference = deviceListPrefs;
+            resolveBroadcastAddresses(deviceListPrefs);
+        }
 
-            NetworkPacket identity = NetworkPacket.createIdentityPacket(context);
-            identity.set("tcpPort", MIN_PORT);
-            DatagramSocket socket = null;
-            byte[] bytes = null;
+        DatagramSocket broadcastSocket;
+        byte[] bytes;
+        try {
+            broadcastSocket = getBroadcastSocket();
+            bytes = NetworkPacket.getIdentityPacketBytes(context, getTcpPort());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e("KDE/LanLinkProvider", "Failed to create DatagramSocket");
+            return;
+        }
+
+        //Log.e("KDE/LanLinkProvider","Sending packet to "+broadcastAddresses.size()+" ips");
+        for (InetAddress client : broadcastAddresses) {
             try {
-                socket = new DatagramSocket();
-                socket.setReuseAddress(true);
-                socket.setBroadcast(true);
-                bytes = identity.serialize().getBytes(StringsHelper.UTF8);
+                broadcastSocket.send(new DatagramPacket(bytes, bytes.length, client, MIN_PORT));
+                broadcastSocket.send(new DatagramPacket(bytes, bytes.length, client, MIN_PORT_LEGACY));
+                //Log.i("KDE/LanLinkProvider","Udp identity package sent to address "+client);
             } catch (Exception e) {
                 e.printStackTrace();
-                Log.e("KDE/LanLinkProvider", "Failed to create DatagramSocket");
+                Log.e("KDE/LanLinkProvider", "Sending udp identity package failed (" + client + ")");
             }
+        }
 
-            if (bytes != null) {
-                //Log.e("KDE/LanLinkProvider","Sending packet to "+iplist.size()+" ips");
-                for (String ipstr : iplist) {
-                    try {
-                        InetAddress client = InetAddress.getByName(ipstr);
-                        socket.send(new DatagramPacket(bytes, bytes.length, client, MIN_PORT));
-                        socket.send(new DatagramPacket(bytes, bytes.length, client, MIN_PORT_LEGACY));
-                        //Log.i("KDE/LanLinkProvider","Udp identity package sent to address "+client);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        Log.e("KDE/LanLinkProvider", "Sending udp identity package failed. Invalid address? (" + ipstr + ")");
-                    }
+        MdnsDiscovery mdns = mdnsDiscovery;
+        if (mdns != null) {
+            if (networkChanged) {
+                mdns.onNetworkChange();
+            } else {
+                mdns.query();
+            }
+            //Peers we already know the address of don't need to hear the broadcast
+            for (MdnsPeer peer : mdns.getPeers()) {
+                if (!visibleComputers.containsKey(peer.deviceId)) {
+                    sendIdentityTo(peer.address);
                 }
             }
+        }
+    }
 
-            if (socket != null) {
-                socket.close();
+    private DatagramSocket getBroadcastSocket() throws SocketException {
+        synchronized (broadcastSocketLock) {
+            if (broadcastSocket == null || broadcastSocket.isClosed()) {
+                broadcastSocket = new DatagramSocket();
+                broadcastSocket.setReuseAddress(true);
+                broadcastSocket.setBroadcast(true);
+            }
+            return broadcastSocket;
+        }
+    }
+
+    /**
+     * Multicast DNS-SD discovery runs alongside the broadcasts when enabled, for networks
+     * that filter them.
+     */
+    public static boolean isMdnsDiscoveryEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_MDNS_DISCOVERY, false);
+    }
+
+    /**
+     * Starts or stops mDNS discovery, so it runs while we are listening and it's enabled.
+     * Called when either changes.
+     */
+    public void updateMdnsDiscovery() {
+        //Joining the group and announcing ourselves, or sending a goodbye, is network access,
+        //not allowed on the main thread
+        try {
+            ThreadHelper.io().execute(() -> {
+                synchronized (mdnsLock) {
+                    boolean wanted = listening && isMdnsDiscoveryEnabled(context);
+                    if (wanted && mdnsDiscovery == null) {
+                        openMdnsDiscovery();
+                    } else if (!wanted && mdnsDiscovery != null) {
+                        closeMdnsDiscovery();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //A socket and its receive loop may have to go away, try until there is a thread for it
+            Log.w("KDE/LanLinkProvider", "No thread to update mDNS discovery, trying again in " + MDNS_RETRY_MS + "ms");
+            ThreadHelper.scheduler().schedule(this::updateMdnsDiscovery, MDNS_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //Must be called holding mdnsLock
+    private void openMdnsDiscovery() {
+        //Android drops multicast packets not addressed to us unless we hold this lock
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager != null) {
+            multicastLock = wifiManager.createMulticastLock("KDE/LanLinkProvider");
+            multicastLock.setReferenceCounted(false);
+            multicastLock.acquire();
+        }
+        MdnsPeer self = new MdnsPeer(DeviceHelper.getDeviceId(context), DeviceHelper.getDeviceName(context),
+                DeviceHelper.getDeviceType(context).toString(), NetworkPacket.ProtocolVersion, null, getTcpPort(), MdnsDiscovery.TTL_SECONDS);
+        MdnsDiscovery mdns = new MdnsDiscovery(peer -> {
+            if (!visibleComputers.containsKey(peer.deviceId)) {
+                Log.i("KDE/LanLinkProvider", "Found " + peer.deviceName + " through mDNS");
+                sendIdentityTo(peer.address);
             }
+        });
+        try {
+            mdns.start(self);
+            mdnsDiscovery = mdns;
+        } catch (Exception e) {
+            Log.e("KDE/LanLinkProvider", "Could not start mDNS discovery", e);
+            closeMdnsDiscovery();
+        }
+    }
 
-        }).start();
+    //Must be called holding mdnsLock
+    private void closeMdnsDiscovery() {
+        MdnsDiscovery mdns = mdnsDiscovery;
+        mdnsDiscovery = null;
+        if (mdns != null) {
+            mdns.stop();
+        }
+        if (multicastLock != null) {
+            multicastLock.release();
+            multicastLock = null;
+        }
+    }
+
+    private void resolveBroadcastAddresses(String deviceListPrefs) {
+        ArrayList<String> iplist = new ArrayList<>();
+        if (!deviceListPrefs.isEmpty()) {
+            iplist = CustomDevicesActivity.deserializeIpList(deviceListPrefs);
+        }
+        iplist.add("255.255.255.255"); //Default: broadcast.
+
+        broadcastAddresses.clear();
+        for (String ipstr : iplist) {
+            try {
+                broadcastAddresses.add(InetAddress.getByName(ipstr));
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("KDE/LanLinkProvider", "Invalid address? (" + ipstr + ")");
+            }
+        }
     }
 
     @Override
@@ -451,19 +826,24 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
                 setupTcpListener();
             }
 
-            broadcastUdpPacket();
+            discoveryStartedMs = System.currentTimeMillis();
+            updateMdnsDiscovery();
+            discoveryScheduler.start();
         }
     }
 
     @Override
     public void onNetworkChange() {
-        broadcastUdpPacket();
+        discoveryStartedMs = System.currentTimeMillis();
+        discoveryScheduler.onNetworkChange();
     }
 
     @Override
     public void onStop() {
         //Log.i("KDE/LanLinkProvider", "onStop");
         listening = false;
+        discoveryScheduler.stop();
+        updateMdnsDiscovery();
         try {
             tcpServer.close();
         } catch (Exception e) {
@@ -479,6 +859,18 @@ public class LanLinkProvider extends BaseLinkProvider implements LanLink.LinkDis
         } catch (Exception e) {
             e.printStackTrace();
         }
+        synchronized (broadcastSocketLock) {
+            if (broadcastSocket != null) {
+                broadcastSocket.close();
+            }
+        }
+    }
+
+    /**
+     * How many discovery datagrams each address sent us, and how many were dropped as repeats.
+     */
+    HashMap<InetAddress, UdpDiscoveryFilter.SourceStats> getUdpDiscoveryStats() {
+        return udpDiscoveryFilter.getAllStats();
     }
 
     @Override
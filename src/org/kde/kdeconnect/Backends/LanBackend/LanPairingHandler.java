@@ -28,18 +28,18 @@ import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BasePairingHandler;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 import org.kde.kdeconnect_tp.R;
 
 import java.security.KeyFactory;
 import java.security.cert.CertificateEncodingException;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 public class LanPairingHandler extends BasePairingHandler {
 
-    Timer mPairingTimer;
+    ScheduledFuture<?> mPairingTimer;
 
     public LanPairingHandler(Device device, final PairingHandlerCallback callback) {
         super(device, callback);
@@ -107,15 +107,10 @@ public class LanPairingHandler extends BasePairingHandler {
                 hidePairingNotification();
                 mDevice.displayPairingNotification();
 
-                mPairingTimer = new Timer();
-
-                mPairingTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.w("KDE/Device","Unpairing (timeout B)");
-                        mPairStatus = PairStatus.NotPaired;
-                        hidePairingNotification();
-                    }
+                mPairingTimer = ThreadHelper.scheduleIo(() -> {
+                    Log.w("KDE/Device","Unpairing (timeout B)");
+                    mPairStatus = PairStatus.NotPaired;
+                    hidePairingNotification();
                 }, 25*1000); //Time to show notification, waiting for user to accept (peer will timeout in 30 seconds)
                 mPairStatus = PairStatus.RequestedByPeer;
                 mCallback.incomingRequest();
@@ -144,14 +139,10 @@ public class LanPairingHandler extends BasePairingHandler {
             @Override
             public void onSuccess() {
                 hidePairingNotification(); //Will stop the pairingTimer if it was running
-                mPairingTimer = new Timer();
-                mPairingTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        mCallback.pairingFailed(mDevice.getContext().getString(R.string.error_timed_out));
-                        Log.w("KDE/Device","Unpairing (timeout A)");
-                        mPairStatus = PairStatus.NotPaired;
-                    }
+                mPairingTimer = ThreadHelper.scheduleIo(() -> {
+                    mCallback.pairingFailed(mDevice.getContext().getString(R.string.error_timed_out));
+                    Log.w("KDE/Device","Unpairing (timeout A)");
+                    mPairStatus = PairStatus.NotPaired;
                 }, 30*1000); //Time to wait for the other to accept
                 mPairStatus = PairStatus.Requested;
             }
@@ -172,7 +163,7 @@ public class LanPairingHandler extends BasePairingHandler {
     void hidePairingNotification() {
         mDevice.hidePairingNotification();
         if (mPairingTimer != null) {
-            mPairingTimer .cancel();
+            mPairingTimer.cancel(false);
         }
     }
 
@@ -0,0 +1,112 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.kde.kdeconnect.CompactPacketCodec;
+import org.kde.kdeconnect.Helpers.CompressionHelper;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where we last reached each paired device, kept across restarts so we can connect
+ * to them again right away instead of waiting to hear their broadcast.
+ */
+class LanPeerAddressCache {
+
+    static final int MAX_PEERS = 16;
+
+    private static final String PREFERENCES_NAME = "lan_peer_addresses";
+
+    static class Peer {
+        final String deviceId;
+        final String address;
+        final int port;
+        final long lastSeenMs;
+        final NetworkPacket identityPacket;
+
+        Peer(String deviceId, String address, int port, long lastSeenMs, NetworkPacket identityPacket) {
+            this.deviceId = deviceId;
+            this.address = address;
+            this.port = port;
+            this.lastSeenMs = lastSeenMs;
+            this.identityPacket = identityPacket;
+        }
+    }
+
+    private final SharedPreferences preferences;
+
+    LanPeerAddressCache(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    synchronized void remember(String deviceId, String address, int port, NetworkPacket identityPacket, long nowMs) {
+        try {
+            //Only what we need to connect again, not the certificate
+            NetworkPacket identity = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+            identity.set("deviceId", deviceId);
+            identity.set("deviceName", identityPacket.getString("deviceName"));
+            identity.set("deviceType", identityPacket.getString("deviceType"));
+            identity.set("protocolVersion", identityPacket.getInt("protocolVersion"));
+            if (identityPacket.has("incomingCapabilities")) {
+                identity.set("incomingCapabilities", identityPacket.getJSONArray("incomingCapabilities"));
+                identity.set("outgoingCapabilities", identityPacket.getJSONArray("outgoingCapabilities"));
+            }
+            if (identityPacket.has(CompressionHelper.KEY_COMPRESSION)) {
+                identity.set(CompressionHelper.KEY_COMPRESSION, identityPacket.getJSONArray(CompressionHelper.KEY_COMPRESSION));
+            }
+            if (identityPacket.has(CompactPacketCodec.KEY_COMPACT_ENCODING)) {
+                identity.set(CompactPacketCodec.KEY_COMPACT_ENCODING, identityPacket.getInt(CompactPacketCodec.KEY_COMPACT_ENCODING));
+            }
+            if (identityPacket.has(LanLink.KEY_HEARTBEAT)) {
+                identity.set(LanLink.KEY_HEARTBEAT, identityPacket.getInt(LanLink.KEY_HEARTBEAT));
+            }
+
+            JSONObject entry = new JSONObject();
+            entry.put("address", address);
+            entry.put("port", port);
+            entry.put("lastSeen", nowMs);
+            entry.put("identity", identity.serialize());
+
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.putString(deviceId, entry.toString());
+            List<Peer> peers = getAll();
+            if (!preferences.contains(deviceId) && peers.size() >= MAX_PEERS) {
+                Peer oldest = peers.get(0);
+                for (Peer peer : peers) {
+                    if (peer.lastSeenMs < oldest.lastSeenMs) {
+                        oldest = peer;
+                    }
+                }
+                editor.remove(oldest.deviceId);
+            }
+            editor.apply();
+        } catch (JSONException e) {
+            Log.e("LanPeerAddressCache", "Could not store the address of " + deviceId, e);
+        }
+    }
+
+    synchronized void forget(String deviceId) {
+        preferences.edit().remove(deviceId).apply();
+    }
+
+    synchronized List<Peer> getAll() {
+        List<Peer> peers = new ArrayList<>();
+        for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+            try {
+                JSONObject entry = new JSONObject((String) stored.getValue());
+                peers.add(new Peer(stored.getKey(), entry.getString("address"), entry.getInt("port"),
+                        entry.getLong("lastSeen"), NetworkPacket.unserialize(entry.getString("identity"))));
+            } catch (Exception e) {
+                Log.e("LanPeerAddressCache", "Ignoring unreadable entry for " + stored.getKey(), e);
+            }
+        }
+        return peers;
+    }
+}
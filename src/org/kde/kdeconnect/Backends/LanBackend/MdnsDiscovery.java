@@ -0,0 +1,178 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.util.Log;
+
+import org.kde.kdeconnect.Helpers.ThreadHelper;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.List;
+
+/**
+ * Advertises this device and finds others through multicast DNS-SD, for networks that
+ * filter or throttle broadcasts. Only addresses are discovered this way: connecting
+ * still starts by sending our identity to them.
+ */
+class MdnsDiscovery {
+
+    interface Listener {
+        /**
+         * Called from the receiving thread for every announcement of another device.
+         */
+        void onPeerResolved(MdnsPeer peer);
+    }
+
+    static final String MDNS_GROUP = "224.0.0.251";
+    static final int MDNS_PORT = 5353;
+    static final int TTL_SECONDS = 120;
+
+    private final String groupAddress;
+    private final int port;
+    private final Listener listener;
+    private final MdnsPeerCache cache = new MdnsPeerCache();
+
+    private MulticastSocket socket;
+    private InetAddress group;
+    private volatile MdnsPeer self;
+
+    MdnsDiscovery(Listener listener) {
+        this(MDNS_GROUP, MDNS_PORT, listener);
+    }
+
+    MdnsDiscovery(String groupAddress, int port, Listener listener) {
+        this.groupAddress = groupAddress;
+        this.port = port;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts answering queries with self, and asks who else is there.
+     */
+    synchronized void start(MdnsPeer self) throws IOException {
+        if (socket != null) {
+            return;
+        }
+        this.self = self;
+        group = InetAddress.getByName(groupAddress);
+        final MulticastSocket socket = new MulticastSocket(port);
+        socket.setTimeToLive(255);
+        socket.joinGroup(group);
+        this.socket = socket;
+
+        ThreadHelper.startLoop("mdns", () -> {
+            byte[] data = new byte[9000];
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            while (!socket.isClosed()) {
+                try {
+                    packet.setLength(data.length);
+                    socket.receive(packet);
+                    messageReceived(packet);
+                } catch (Exception e) {
+                    if (!socket.isClosed()) {
+                        Log.e("MdnsDiscovery", "Receive exception", e);
+                    }
+                }
+            }
+        });
+
+        announce();
+        query();
+    }
+
+    /**
+     * Says goodbye, so others forget us now instead of when our records expire.
+     */
+    synchronized void stop() {
+        if (socket == null) {
+            return;
+        }
+        MdnsPeer self = this.self;
+        if (self != null) {
+            send(MdnsMessage.buildAnnouncement(self, 0));
+        }
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        socket.close();
+        socket = null;
+        cache.clear();
+    }
+
+    /**
+     * Joins the group again on whatever interface we have now, and starts over finding peers.
+     */
+    synchronized void onNetworkChange() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException ignored) {
+        }
+        try {
+            socket.joinGroup(group);
+        } catch (IOException e) {
+            Log.e("MdnsDiscovery", "Could not join the mDNS group", e);
+        }
+        announce();
+        query();
+    }
+
+    synchronized void query() {
+        if (socket != null) {
+            send(MdnsMessage.buildQuery());
+        }
+    }
+
+    /**
+     * The peers resolved so far whose records haven't expired.
+     */
+    List<MdnsPeer> getPeers() {
+        return cache.getAll(System.currentTimeMillis());
+    }
+
+    MdnsPeer getPeer(String deviceId) {
+        return cache.get(deviceId, System.currentTimeMillis());
+    }
+
+    private void messageReceived(DatagramPacket packet) {
+        byte[] data = packet.getData();
+        if (MdnsMessage.isQuery(data, packet.getOffset(), packet.getLength())) {
+            //Queries only come when a device starts or its network changes, and then backs off
+            synchronized (this) {
+                announce();
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        MdnsPeer self = this.self;
+        for (MdnsPeer peer : MdnsMessage.parseResponse(data, packet.getOffset(), packet.getLength(), packet.getAddress())) {
+            if (self != null && self.deviceId.equals(peer.deviceId)) {
+                continue;
+            }
+            cache.put(peer, now);
+            if (peer.ttlSeconds > 0) {
+                listener.onPeerResolved(peer);
+            }
+        }
+    }
+
+    private void announce() {
+        MdnsPeer self = this.self;
+        if (socket != null && self != null) {
+            send(MdnsMessage.buildAnnouncement(self, TTL_SECONDS));
+        }
+    }
+
+    private void send(byte[] bytes) {
+        try {
+            socket.send(new DatagramPacket(bytes, bytes.length, group, port));
+        } catch (IOException e) {
+            Log.e("MdnsDiscovery", "Send exception", e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import org.kde.kdeconnect.Helpers.StringsHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The few DNS-SD messages multicast discovery needs (RFC 6762 and 6763): a PTR query for
+ * the KDE Connect service, and the PTR, SRV and TXT records that answer it. We don't
+ * announce an A record: the address the announcement comes from is the one that works
+ * from the network it was heard on. A records from other implementations are still used.
+ */
+final class MdnsMessage {
+
+    static final String SERVICE_TYPE = "_kdeconnect._udp.local";
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_PTR = 12;
+    private static final int TYPE_TXT = 16;
+    private static final int TYPE_SRV = 33;
+    private static final int CLASS_IN = 1;
+    private static final int CACHE_FLUSH = 0x8000;
+    private static final int FLAG_RESPONSE = 0x8400; //Response, authoritative
+
+    private MdnsMessage() {
+    }
+
+    static byte[] buildQuery() {
+        Writer w = new Writer();
+        w.writeShort(0); //Id, always 0 in mDNS
+        w.writeShort(0); //Flags: standard query
+        w.writeShort(1); //Questions
+        w.writeShort(0);
+        w.writeShort(0);
+        w.writeShort(0);
+        w.writeName(SERVICE_TYPE);
+        w.writeShort(TYPE_PTR);
+        w.writeShort(CLASS_IN);
+        return w.toByteArray();
+    }
+
+    /**
+     * The records announcing a peer, whose address is ignored. A ttl of 0 tells everyone to forget it.
+     */
+    static byte[] buildAnnouncement(MdnsPeer peer, int ttlSeconds) {
+        String instance = peer.deviceId + "." + SERVICE_TYPE;
+        String host = peer.deviceId + ".local";
+
+        Writer w = new Writer();
+        w.writeShort(0);
+        w.writeShort(FLAG_RESPONSE);
+        w.writeShort(0);
+        w.writeShort(3); //Answers
+        w.writeShort(0);
+        w.writeShort(0);
+
+        w.writeName(SERVICE_TYPE);
+        w.writeRecordHeader(TYPE_PTR, CLASS_IN, ttlSeconds);
+        int start = w.startData();
+        w.writeName(instance);
+        w.endData(start);
+
+        w.writeName(instance);
+        w.writeRecordHeader(TYPE_SRV, CLASS_IN | CACHE_FLUSH, ttlSeconds);
+        start = w.startData();
+        w.writeShort(0); //Priority
+        w.writeShort(0); //Weight
+        w.writeShort(peer.port);
+        w.writeName(host);
+        w.endData(start);
+
+        w.writeName(instance);
+        w.writeRecordHeader(TYPE_TXT, CLASS_IN | CACHE_FLUSH, ttlSeconds);
+        start = w.startData();
+        w.writeString("id=" + peer.deviceId);
+        w.writeString("name=" + peer.deviceName);
+        w.writeString("type=" + peer.deviceType);
+        w.writeString("protocol=" + peer.protocolVersion);
+        w.endData(start);
+        return w.toByteArray();
+    }
+
+    /**
+     * @return true if the message asks for the KDE Connect service
+     */
+    static boolean isQuery(byte[] data, int offset, int length) {
+        try {
+            Reader r = new Reader(data, offset, length);
+            r.readShort();
+            if ((r.readShort() & 0x8000) != 0) {
+                return false;
+            }
+            int questions = r.readShort();
+            r.skip(6);
+            for (int i = 0; i < questions; i++) {
+                String name = r.readName();
+                int type = r.readShort();
+                r.readShort();
+                if (SERVICE_TYPE.equalsIgnoreCase(name) && (type == TYPE_PTR || type == 255)) {
+                    return true;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            //Truncated or not DNS at all
+        }
+        return false;
+    }
+
+    /**
+     * The peers announced in a response. Peers without an A record get the address the
+     * message came from. Unparseable messages yield no peers.
+     */
+    static List<MdnsPeer> parseResponse(byte[] data, int offset, int length, InetAddress source) {
+        List<MdnsPeer> peers = new ArrayList<>();
+        try {
+            Reader r = new Reader(data, offset, length);
+            r.readShort();
+            if ((r.readShort() & 0x8000) == 0) {
+                return peers;
+            }
+            int questions = r.readShort();
+            int records = r.readShort() + r.readShort() + r.readShort();
+            for (int i = 0; i < questions; i++) {
+                r.readName();
+                r.skip(4);
+            }
+
+            List<String> instances = new ArrayList<>();
+            HashMap<String, Integer> ptrTtls = new HashMap<>();
+            HashMap<String, int[]> srvs = new HashMap<>(); //port, ttl
+            HashMap<String, String> srvTargets = new HashMap<>();
+            HashMap<String, HashMap<String, String>> txts = new HashMap<>();
+            HashMap<String, InetAddress> addresses = new HashMap<>();
+
+            for (int i = 0; i < records; i++) {
+                String name = r.readName().toLowerCase();
+                int type = r.readShort();
+                r.readShort();
+                int ttl = r.readInt();
+                int dataLength = r.readShort();
+                int dataEnd = r.position() + dataLength;
+                switch (type) {
+                    case TYPE_PTR:
+                        if (name.equals(SERVICE_TYPE.toLowerCase())) {
+                            String instance = r.readName().toLowerCase();
+                            instances.add(instance);
+                            ptrTtls.put(instance, ttl);
+                        }
+                        break;
+                    case TYPE_SRV:
+                        r.skip(4);
+                        int port = r.readShort();
+                        srvs.put(name, new int[]{port, ttl});
+                        srvTargets.put(name, r.readName().toLowerCase());
+                        break;
+                    case TYPE_TXT:
+                        HashMap<String, String> attributes = new HashMap<>();
+                        while (r.position() < dataEnd) {
+                            String entry = r.readString();
+                            int equals = entry.indexOf('=');
+                            if (equals > 0) {
+                                attributes.put(entry.substring(0, equals), entry.substring(equals + 1));
+                            }
+                        }
+                        txts.put(name, attributes);
+                        break;
+                    case TYPE_A:
+                        if (dataLength == 4) {
+                            addresses.put(name, InetAddress.getByAddress(r.readBytes(4)));
+                        }
+                        break;
+                }
+                r.seek(dataEnd);
+            }
+
+            for (String instance : instances) {
+                int[] srv = srvs.get(instance);
+                HashMap<String, String> txt = txts.get(instance);
+                if (srv == null || txt == null || txt.get("id") == null) {
+                    continue;
+                }
+                InetAddress address = addresses.get(srvTargets.get(instance));
+                int protocolVersion;
+                try {
+                    protocolVersion = Integer.parseInt(txt.get("protocol"));
+                } catch (NumberFormatException e) {
+                    protocolVersion = 0;
+                }
+                String name = txt.get("name");
+                String type = txt.get("type");
+                peers.add(new MdnsPeer(txt.get("id"), name != null ? name : "", type != null ? type : "", protocolVersion,
+                        address != null ? address : source, srv[0], Math.min(srv[1], ptrTtls.get(instance))));
+            }
+        } catch (Exception e) {
+            //Truncated or malformed: ignore what we couldn't make sense of
+        }
+        return peers;
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        void writeShort(int value) {
+            write((value >> 8) & 0xFF);
+            write(value & 0xFF);
+        }
+
+        void writeInt(int value) {
+            writeShort(value >>> 16);
+            writeShort(value & 0xFFFF);
+        }
+
+        void writeName(String name) {
+            for (String label : name.split("\\.")) {
+                writeString(label, 63);
+            }
+            write(0);
+        }
+
+        void writeString(String s) {
+            writeString(s, 255);
+        }
+
+        private void writeString(String s, int maxLength) {
+            byte[] bytes = s.getBytes(StringsHelper.UTF8);
+            int length = Math.min(bytes.length, maxLength);
+            write(length);
+            write(bytes, 0, length);
+        }
+
+        void writeRecordHeader(int type, int rrClass, int ttl) {
+            writeShort(type);
+            writeShort(rrClass);
+            writeInt(ttl);
+        }
+
+        int startData() {
+            writeShort(0); //Length, filled in by endData
+            return count;
+        }
+
+        void endData(int start) {
+            int length = count - start;
+            buf[start - 2] = (byte) (length >> 8);
+            buf[start - 1] = (byte) length;
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.start = offset;
+            this.end = offset + length;
+            this.pos = offset;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        void seek(int position) {
+            if (position > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            pos = position;
+        }
+
+        void skip(int n) {
+            seek(pos + n);
+        }
+
+        int readByte() {
+            if (pos >= end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        int readShort() {
+            return (readByte() << 8) | readByte();
+        }
+
+        int readInt() {
+            return (readShort() << 16) | readShort();
+        }
+
+        byte[] readBytes(int n) {
+            if (pos + n > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            byte[] bytes = new byte[n];
+            System.arraycopy(data, pos, bytes, 0, n);
+            pos += n;
+            return bytes;
+        }
+
+        String readString() {
+            int length = readByte();
+            return new String(readBytes(length), StringsHelper.UTF8);
+        }
+
+        String readName() {
+            StringBuilder name = new StringBuilder();
+            int resumeAt = -1;
+            int jumps = 0;
+            while (true) {
+                int length = readByte();
+                if (length == 0) {
+                    break;
+                }
+                if ((length & 0xC0) == 0xC0) {
+                    //Compression pointer, relative to the start of the message
+                    int target = start + (((length & 0x3F) << 8) | readByte());
+                    if (resumeAt < 0) {
+                        resumeAt = pos;
+                    }
+                    if (++jumps > 32) {
+                        throw new IndexOutOfBoundsException(); //Pointer loop
+                    }
+                    seek(target);
+                    continue;
+                }
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                name.append(new String(readBytes(length), StringsHelper.UTF8));
+            }
+            if (resumeAt >= 0) {
+                pos = resumeAt;
+            }
+            return name.toString();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import java.net.InetAddress;
+
+/**
+ * A KDE Connect device announced through multicast DNS-SD.
+ */
+class MdnsPeer {
+
+    final String deviceId;
+    final String deviceName;
+    final String deviceType;
+    final int protocolVersion;
+    final InetAddress address;
+    final int port;
+    final int ttlSeconds;
+
+    MdnsPeer(String deviceId, String deviceName, String deviceType, int protocolVersion, InetAddress address, int port, int ttlSeconds) {
+        this.deviceId = deviceId;
+        this.deviceName = deviceName;
+        this.deviceType = deviceType;
+        this.protocolVersion = protocolVersion;
+        this.address = address;
+        this.port = port;
+        this.ttlSeconds = ttlSeconds;
+    }
+}
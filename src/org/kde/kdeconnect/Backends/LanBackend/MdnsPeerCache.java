@@ -0,0 +1,69 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The peers resolved through multicast DNS-SD, each kept for as long as its records
+ * said it could be, so they can be contacted directly without asking again.
+ */
+class MdnsPeerCache {
+
+    private static class Entry {
+        final MdnsPeer peer;
+        final long expiresAtMs;
+
+        Entry(MdnsPeer peer, long expiresAtMs) {
+            this.peer = peer;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>(); //By device id
+
+    /**
+     * Adds or refreshes a peer. A peer announced with a ttl of 0 is leaving and is removed.
+     */
+    synchronized void put(MdnsPeer peer, long nowMs) {
+        if (peer.ttlSeconds <= 0) {
+            entries.remove(peer.deviceId);
+        } else {
+            entries.put(peer.deviceId, new Entry(peer, nowMs + peer.ttlSeconds * 1000L));
+        }
+    }
+
+    /**
+     * The peer, or null if we don't know it or its records expired.
+     */
+    synchronized MdnsPeer get(String deviceId, long nowMs) {
+        Entry entry = entries.get(deviceId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtMs <= nowMs) {
+            entries.remove(deviceId);
+            return null;
+        }
+        return entry.peer;
+    }
+
+    synchronized List<MdnsPeer> getAll(long nowMs) {
+        List<MdnsPeer> peers = new ArrayList<>(entries.size());
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.expiresAtMs <= nowMs) {
+                it.remove();
+            } else {
+                peers.add(entry.peer);
+            }
+        }
+        return peers;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
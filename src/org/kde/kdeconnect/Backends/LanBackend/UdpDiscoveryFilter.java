@@ -0,0 +1,131 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import org.kde.kdeconnect.Helpers.Metrics;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Drops discovery datagrams that repeat one we just got from the same address, before
+ * they are parsed, and counts what every address sends. The totals across addresses
+ * are also kept in Metrics.
+ *
+ * Devices broadcast the same identity to both discovery ports, and keep repeating it,
+ * so most of what arrives on a busy network is something we have already handled.
+ */
+class UdpDiscoveryFilter {
+
+    static final long REPEAT_WINDOW_MS = 1000;
+    static final int MAX_SOURCES = 256;
+    private static final long FORGET_SOURCE_MS = 10 * 60 * 1000;
+
+    private static final Metrics.Counter acceptedCounter = Metrics.counter("discovery.udp.accepted");
+    private static final Metrics.Counter droppedCounter = Metrics.counter("discovery.udp.dropped");
+    private static final Metrics.Gauge sourcesGauge = Metrics.gauge("discovery.udp.sources");
+
+    static class SourceStats {
+        long received;
+        long dropped;
+        long firstSeenMs;
+        long lastSeenMs;
+
+        /**
+         * Datagrams per minute since this address was first seen.
+         */
+        double getRatePerMinute() {
+            long elapsed = Math.max(lastSeenMs - firstSeenMs, 1000);
+            return received * 60000.0 / elapsed;
+        }
+
+        SourceStats copy() {
+            SourceStats copy = new SourceStats();
+            copy.received = received;
+            copy.dropped = dropped;
+            copy.firstSeenMs = firstSeenMs;
+            copy.lastSeenMs = lastSeenMs;
+            return copy;
+        }
+    }
+
+    private static class Source {
+        final SourceStats stats = new SourceStats();
+        int lastHash;
+        int lastLength = -1;
+        long lastAcceptedMs;
+    }
+
+    private final long repeatWindowMs;
+    private final HashMap<InetAddress, Source> sources = new HashMap<>();
+
+    UdpDiscoveryFilter() {
+        this(REPEAT_WINDOW_MS);
+    }
+
+    UdpDiscoveryFilter(long repeatWindowMs) {
+        this.repeatWindowMs = repeatWindowMs;
+    }
+
+    /**
+     * @return false if the same bytes were accepted from this address less than the
+     * repeat window ago, and should be ignored
+     */
+    synchronized boolean accept(InetAddress address, byte[] data, int offset, int length, long nowMs) {
+        Source source = sources.get(address);
+        if (source == null) {
+            if (sources.size() >= MAX_SOURCES) {
+                forgetOldSources(nowMs);
+            }
+            source = new Source();
+            source.stats.firstSeenMs = nowMs;
+            sources.put(address, source);
+            sourcesGauge.set(sources.size());
+        }
+        source.stats.received++;
+        source.stats.lastSeenMs = nowMs;
+
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        if (length == source.lastLength && hash == source.lastHash && nowMs - source.lastAcceptedMs < repeatWindowMs) {
+            source.stats.dropped++;
+            droppedCounter.inc();
+            return false;
+        }
+        acceptedCounter.inc();
+        source.lastHash = hash;
+        source.lastLength = length;
+        source.lastAcceptedMs = nowMs;
+        return true;
+    }
+
+    /**
+     * A copy of the counters of an address, or null if nothing was received from it.
+     */
+    synchronized SourceStats getStats(InetAddress address) {
+        Source source = sources.get(address);
+        return source != null ? source.stats.copy() : null;
+    }
+
+    synchronized HashMap<InetAddress, SourceStats> getAllStats() {
+        HashMap<InetAddress, SourceStats> all = new HashMap<>();
+        for (InetAddress address : sources.keySet()) {
+            all.put(address, sources.get(address).stats.copy());
+        }
+        return all;
+    }
+
+    private void forgetOldSources(long nowMs) {
+        Iterator<Source> it = sources.values().iterator();
+        while (it.hasNext()) {
+            if (nowMs - it.next().stats.lastSeenMs > FORGET_SOURCE_MS) {
+                it.remove();
+            }
+        }
+        if (sources.size() >= MAX_SOURCES) {
+            //Flooded with addresses we can't tell apart: start over rather than grow
+            sources.clear();
+        }
+    }
+}
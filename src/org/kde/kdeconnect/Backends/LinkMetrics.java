@@ -0,0 +1,75 @@
+package org.kde.kdeconnect.Backends;
+
+/**
+ * Live measurements of how well a link sends packets, so a device with several links
+ * can pick the best one for each packet.
+ */
+public class LinkMetrics {
+
+    //Weight of the newest sample in the moving averages
+    private static final double WEIGHT = 0.2;
+
+    //Smaller payloads take mostly latency, and say little about throughput
+    static final long MIN_THROUGHPUT_SAMPLE_BYTES = 64 * 1024;
+
+    private long packetsSent = 0;
+    private long packetsFailed = 0;
+    private double errorRate = 0;
+    private double sendTimeMs = -1;
+    private double throughput = -1;
+    private long bytesInFlight = 0;
+
+    public synchronized void sendStarted(long payloadBytes) {
+        bytesInFlight += payloadBytes;
+    }
+
+    public synchronized void sendFinished(long payloadBytes, boolean success, long elapsedMs) {
+        bytesInFlight -= payloadBytes;
+        errorRate = errorRate * (1 - WEIGHT) + (success ? 0 : WEIGHT);
+        if (!success) {
+            packetsFailed++;
+            return;
+        }
+        packetsSent++;
+        if (payloadBytes >= MIN_THROUGHPUT_SAMPLE_BYTES) {
+            double sample = payloadBytes / (double) Math.max(elapsedMs, 1);
+            throughput = (throughput < 0) ? sample : throughput * (1 - WEIGHT) + sample * WEIGHT;
+        } else if (payloadBytes == 0) {
+            sendTimeMs = (sendTimeMs < 0) ? elapsedMs : sendTimeMs * (1 - WEIGHT) + elapsedMs * WEIGHT;
+        }
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public synchronized long getPacketsFailed() {
+        return packetsFailed;
+    }
+
+    /**
+     * Recent share of failed sends, between 0 and 1.
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Average time to send a packet without payload, or -1 if none was sent yet.
+     */
+    public synchronized double getSendTimeMs() {
+        return sendTimeMs;
+    }
+
+    /**
+     * Average payload throughput in bytes per millisecond, or -1 if no payload big enough
+     * to tell was sent yet.
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    public synchronized long getBytesInFlight() {
+        return bytesInFlight;
+    }
+}
@@ -21,6 +21,7 @@
 package org.kde.kdeconnect.Backends.LoopbackBackend;
 
 import android.content.Context;
+import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BaseLink;
 import org.kde.kdeconnect.Backends.BaseLinkProvider;
@@ -29,11 +30,47 @@ import org.kde.kdeconnect.Device;
 import org.kde.kdeconnect.NetworkPacket;
 
 import java.security.PublicKey;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class LoopbackLink extends BaseLink {
 
+    private final LoopbackLinkProvider.LoadProfile profile;
+    private final ScheduledExecutorService network;
+    private final Random random;
+    private final boolean echo;
+    //The network executor is shared, so packets still on the way are dropped here once we stop
+    private volatile boolean stopped = false;
+
+    //When the emulated wire is done with what's already on it
+    private long wireFreeAtMs = 0;
+
+    private long delivered = 0;
+    private long lost = 0;
+    private long bytesSent = 0;
+
     public LoopbackLink(Context context, BaseLinkProvider linkProvider) {
         super(context, "loopback", linkProvider);
+        this.profile = null;
+        this.network = null;
+        this.random = null;
+        this.echo = true;
+    }
+
+    /**
+     * A virtual peer behind the network of the profile. Packets to it are absorbed, and
+     * packets from it come from inject(). Without a network executor they are handed
+     * over right away.
+     */
+    LoopbackLink(Context context, String deviceId, BaseLinkProvider linkProvider, LoopbackLinkProvider.LoadProfile profile,
+                 ScheduledExecutorService network, Random random) {
+        super(context, deviceId, linkProvider);
+        this.profile = profile;
+        this.network = network;
+        this.random = random;
+        this.echo = false;
     }
 
     @Override
@@ -41,6 +78,19 @@ public class LoopbackLink extends BaseLink {
         return "LoopbackLink";
     }
 
+    @Override
+    public long getExpectedLatencyMs() {
+        return profile != null ? profile.latencyMs : 0;
+    }
+
+    @Override
+    public double getExpectedThroughput() {
+        if (profile == null || profile.bandwidthBytesPerSecond <= 0) {
+            return Double.MAX_VALUE;
+        }
+        return profile.bandwidthBytesPerSecond / 1000.0;
+    }
+
     @Override
     public BasePairingHandler getPairingHandler(Device device, BasePairingHandler.PairingHandlerCallback callback) {
         return new LoopbackPairingHandler(device, callback);
@@ -48,7 +98,13 @@ public class LoopbackLink extends BaseLink {
 
     @Override
     public boolean sendPacket(NetworkPacket in, Device.SendPacketStatusCallback callback) {
-        packageReceived(in);
+        if (echo) {
+            packageReceived(in);
+        } else {
+            synchronized (this) {
+                bytesSent += sizeOf(in);
+            }
+        }
         if (in.hasPayload()) {
             callback.onProgressChanged(0);
             in.setPayload(in.getPayload(), in.getPayloadSize());
@@ -62,4 +118,78 @@ public class LoopbackLink extends BaseLink {
     public boolean sendPacketEncrypted(NetworkPacket np, Device.SendPacketStatusCallback callback, PublicKey key) {
         return sendPacket(np, callback);
     }
+
+    /**
+     * Receives a packet as if the virtual peer had sent it, after the latency and
+     * transfer time of the emulated network.
+     *
+     * @return false if the emulated network lost it
+     */
+    public boolean inject(final NetworkPacket np) {
+        if (network == null) {
+            //An ideal network
+            synchronized (this) {
+                delivered++;
+            }
+            packageReceived(np);
+            return true;
+        }
+
+        if (stopped) {
+            Log.w("LoopbackLink", "Network stopped, dropping " + np.getType());
+            return false;
+        }
+
+        long delayMs;
+        synchronized (this) {
+            if (random.nextDouble() < profile.lossRate) {
+                lost++;
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            long transferMs = profile.bandwidthBytesPerSecond > 0 ? sizeOf(np) * 1000 / profile.bandwidthBytesPerSecond : 0;
+            wireFreeAtMs = Math.max(wireFreeAtMs, now) + transferMs;
+            delayMs = wireFreeAtMs + profile.latencyMs - now;
+            delivered++;
+        }
+        try {
+            //The network executor has a single thread, so packets of a link arrive in order
+            network.schedule(() -> {
+                if (!stopped) {
+                    packageReceived(np);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w("LoopbackLink", "Network stopped, dropping " + np.getType());
+            return false;
+        }
+        return true;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    public synchronized long getLostCount() {
+        return lost;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    //What it would take on the wire
+    private long sizeOf(NetworkPacket np) {
+        long size = np.getPayloadSize() > 0 ? np.getPayloadSize() : 0;
+        try {
+            size += serializeForPeer(np).length();
+        } catch (Exception e) {
+            //Not serializable, it's not going anywhere anyway
+        }
+        return size;
+    }
 }
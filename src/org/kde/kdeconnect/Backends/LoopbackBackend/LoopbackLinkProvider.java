@@ -22,15 +22,59 @@ package org.kde.kdeconnect.Backends.LoopbackBackend;
 
 import android.content.Context;
 
+import org.json.JSONArray;
 import org.kde.kdeconnect.Backends.BaseLinkProvider;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Connects to virtual peers that live in this process. With the default profile there
+ * is one peer that echoes back everything we send, as if we were talking to ourselves.
+ * With a load profile there are as many peers as asked for, behind an emulated network,
+ * and packets can be injected as if each of them had sent it (see LoopbackLink.inject).
+ */
 public class LoopbackLinkProvider extends BaseLinkProvider {
 
+    /**
+     * How many virtual peers to emulate and what the network between us and each of them is like.
+     */
+    public static class LoadProfile {
+        public final int peers;
+        public final long latencyMs;
+        public final long bandwidthBytesPerSecond; //0 for unlimited
+        public final double lossRate; //Between 0 and 1
+        public final long seed;
+
+        public LoadProfile(int peers, long latencyMs, long bandwidthBytesPerSecond, double lossRate, long seed) {
+            this.peers = peers;
+            this.latencyMs = latencyMs;
+            this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+            this.lossRate = lossRate;
+            this.seed = seed;
+        }
+
+        boolean isIdeal() {
+            return latencyMs <= 0 && bandwidthBytesPerSecond <= 0 && lossRate <= 0;
+        }
+    }
+
     private final Context context;
+    private final LoadProfile profile;
+    private final ArrayList<LoopbackLink> links = new ArrayList<>();
 
     public LoopbackLinkProvider(Context context) {
+        this(context, null);
+    }
+
+    public LoopbackLinkProvider(Context context, LoadProfile profile) {
         this.context = context;
+        this.profile = profile;
     }
 
     @Override
@@ -40,12 +84,68 @@ public class LoopbackLinkProvider extends BaseLinkProvider {
 
     @Override
     public void onStop() {
+        List<LoopbackLink> oldLinks;
+        synchronized (this) {
+            oldLinks = new ArrayList<>(links);
+            links.clear();
+        }
+        for (LoopbackLink link : oldLinks) {
+            link.stop();
+            connectionLost(link);
+        }
     }
 
     @Override
     public void onNetworkChange() {
+        if (profile == null) {
+            NetworkPacket np = NetworkPacket.createIdentityPacket(context);
+            connectionAccepted(np, new LoopbackLink(context, this));
+            return;
+        }
+
+        List<LoopbackLink> newLinks = new ArrayList<>();
+        synchronized (this) {
+            if (!links.isEmpty()) {
+                return; //The virtual network doesn't change
+            }
+            //The shared scheduler has a single thread, and it only hands packets over once they are due
+            ScheduledExecutorService network = profile.isIdeal() ? null : ThreadHelper.scheduler();
+            Random random = new Random(profile.seed);
+            for (int i = 0; i < profile.peers; i++) {
+                LoopbackLink link = new LoopbackLink(context, getPeerId(i), this, profile, network, new Random(random.nextLong()));
+                links.add(link);
+                newLinks.add(link);
+            }
+        }
+        for (int i = 0; i < newLinks.size(); i++) {
+            connectionAccepted(createPeerIdentityPacket(i), newLinks.get(i));
+        }
+    }
+
+    /**
+     * The links to the virtual peers of the load profile, in order.
+     */
+    public synchronized List<LoopbackLink> getLinks() {
+        return Collections.unmodifiableList(new ArrayList<>(links));
+    }
+
+    static String getPeerId(int index) {
+        return "loopback_" + index;
+    }
+
+    private NetworkPacket createPeerIdentityPacket(int index) {
         NetworkPacket np = NetworkPacket.createIdentityPacket(context);
-        connectionAccepted(np, new LoopbackLink(context, this));
+        np.set("deviceId", getPeerId(index));
+        np.set("deviceName", "Loopback " + index);
+        np.set("deviceType", "desktop");
+        //A peer that sends what we receive and receives what we send, so all our plugins load
+        JSONArray incoming = np.getJSONArray("incomingCapabilities");
+        JSONArray outgoing = np.getJSONArray("outgoingCapabilities");
+        if (incoming != null && outgoing != null) {
+            np.set("incomingCapabilities", outgoing);
+            np.set("outgoingCapabilities", incoming);
+        }
+        return np;
     }
 /*
     @Override
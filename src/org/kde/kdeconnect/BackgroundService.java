@@ -28,6 +28,8 @@ import android.content.SharedPreferences;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BaseLink;
@@ -36,16 +38,22 @@ import org.kde.kdeconnect.Backends.BaseLinkProvider;
 import org.kde.kdeconnect.Backends.LanBackend.LanLinkProvider;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.RsaHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.SslHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class BackgroundService extends Service {
 
+    //When the io pool is full, how long until we try again
+    private static final long RETRY_DELAY_MS = 1000;
+
     private static BackgroundService instance;
 
     public interface DeviceListChangedCallback {
@@ -161,13 +169,18 @@ public class BackgroundService extends Service {
     }
 
     private void cleanDevices() {
-        new Thread(() -> {
-            for (Device d : devices.values()) {
-                if (!d.isPaired() && !d.isPairRequested() && !d.isPairRequestedByPeer() && !d.deviceShouldBeKeptAlive()) {
-                    d.disconnect();
+        try {
+            ThreadHelper.io().execute(() -> {
+                for (Device d : devices.values()) {
+                    if (!d.isPaired() && !d.isPairRequested() && !d.isPairRequestedByPeer() && !d.deviceShouldBeKeptAlive()) {
+                        d.disconnect();
+                    }
                 }
-            }
-        }).start();
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w("KDE/BackgroundService", "No thread to clean devices, trying again in " + RETRY_DELAY_MS + "ms");
+            ThreadHelper.scheduler().schedule(this::cleanDevices, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
     private final BaseLinkProvider.ConnectionReceiver deviceListener = new BaseLinkProvider.ConnectionReceiver() {
@@ -254,10 +267,21 @@ public class BackgroundService extends Service {
 
         // Register screen on listener
         IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_BATTERY_LOW);
+        filter.addAction(Intent.ACTION_BATTERY_OKAY);
         registerReceiver(new KdeConnectBroadcastReceiver(), filter);
 
+        TrafficScheduler trafficScheduler = TrafficScheduler.getInstance();
+        trafficScheduler.setBatchingWindowMs(PreferenceManager.getDefaultSharedPreferences(this)
+                .getInt(TrafficScheduler.KEY_BATCHING_WINDOW_SECONDS, TrafficScheduler.DEFAULT_BATCHING_WINDOW_SECONDS) * 1000L);
+        trafficScheduler.setScreenOn(((PowerManager) getSystemService(Context.POWER_SERVICE)).isScreenOn());
+
         Log.i("KDE/BackgroundService", "Service not started yet, initializing...");
 
+        PacketTraceRecorder.setEnabled(this, PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PacketTraceRecorder.KEY_RECORD_PACKET_TRACE, false));
+
         initializeSecurityParameters();
         loadRememberedDevicesFromSettings();
         registerLinkProviders();
@@ -280,6 +304,7 @@ public class BackgroundService extends Service {
         for (BaseLinkProvider a : linkProviders) {
             a.onStop();
         }
+        PacketTraceRecorder.flush();
         super.onDestroy();
     }
 
@@ -319,18 +344,24 @@ public class BackgroundService extends Service {
     }
 
     public static void RunCommand(final Context c, final InstanceCallback callback) {
-        new Thread(() -> {
-            if (callback != null) {
-                mutex.lock();
-                try {
-                    callbacks.add(callback);
-                } finally {
-                    mutex.unlock();
+        try {
+            ThreadHelper.io().execute(() -> {
+                if (callback != null) {
+                    mutex.lock();
+                    try {
+                        callbacks.add(callback);
+                    } finally {
+                        mutex.unlock();
+                    }
                 }
-            }
-            Intent serviceIntent = new Intent(c, BackgroundService.class);
-            c.startService(serviceIntent);
-        }).start();
+                Intent serviceIntent = new Intent(c, BackgroundService.class);
+                c.startService(serviceIntent);
+            });
+        } catch (RejectedExecutionException e) {
+            //Often called from the main thread, which must not block or crash
+            Log.w("KDE/BackgroundService", "No thread to run a command, trying again in " + RETRY_DELAY_MS + "ms");
+            ThreadHelper.scheduler().schedule(() -> RunCommand(c, callback), RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
 }
@@ -0,0 +1,248 @@
+package org.kde.kdeconnect;
+
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.kde.kdeconnect.Helpers.StringsHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A compact encoding for the small packets that are sent many times a second, like mouse
+ * movements and media player positions, for peers that listed our VERSION in the
+ * "compactEncoding" field of their identity.
+ *
+ * Each type in SCHEMAS has a number and a fixed list of fields. A packet is written as
+ * the varint number of its type, a varint with a bit for every field that's present, and
+ * then the values of those fields in order: varints for integers, 8 bytes for doubles, a
+ * byte for booleans and varint length prefixed UTF-8 for strings. There's no id. Packets
+ * with a payload, fields outside the schema or values of another kind are sent as JSON.
+ *
+ * Since links send packets as lines, the bytes are base64 encoded after a MARKER, which
+ * NetworkPacket.unserialize recognizes. Decoded packets are plain NetworkPackets, so
+ * plugins read them the same way as any other.
+ */
+public final class CompactPacketCodec {
+
+    public static final String KEY_COMPACT_ENCODING = "compactEncoding";
+    //Increase when SCHEMAS change in any way other than adding types at the end
+    public static final int VERSION = 1;
+
+    static final char MARKER = '~';
+
+    private static final int INT = 0;
+    private static final int DOUBLE = 1;
+    private static final int BOOLEAN = 2;
+    private static final int STRING = 3;
+
+    private static class Schema {
+        final int number;
+        final String type;
+        final String[] keys;
+        final int[] kinds;
+
+        Schema(int number, String type, Object... fields) {
+            this.number = number;
+            this.type = type;
+            keys = new String[fields.length / 2];
+            kinds = new int[fields.length / 2];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (String) fields[2 * i];
+                kinds[i] = (Integer) fields[2 * i + 1];
+            }
+        }
+
+        int indexOf(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final Schema[] SCHEMAS = {
+            new Schema(1, "kdeconnect.mousepad.request",
+                    "dx", DOUBLE, "dy", DOUBLE,
+                    "singleclick", BOOLEAN, "doubleclick", BOOLEAN, "middleclick", BOOLEAN, "rightclick", BOOLEAN,
+                    "singlehold", BOOLEAN, "scroll", BOOLEAN,
+                    "key", STRING, "specialKey", INT, "alt", BOOLEAN, "ctrl", BOOLEAN, "shift", BOOLEAN),
+            new Schema(2, "kdeconnect.mpris",
+                    "player", STRING, "pos", INT, "isPlaying", BOOLEAN, "length", INT, "volume", INT),
+            new Schema(3, "kdeconnect.mpris.request",
+                    "player", STRING, "action", STRING, "Seek", INT, "SetPosition", INT, "setVolume", INT,
+                    "requestNowPlaying", BOOLEAN, "requestVolume", BOOLEAN),
+            new Schema(4, "kdeconnect.battery",
+                    "currentCharge", INT, "isCharging", BOOLEAN, "thresholdEvent", INT),
+            new Schema(5, "kdeconnect.battery.request",
+                    "request", BOOLEAN),
+            new Schema(6, "kdeconnect.lan.heartbeat",
+                    "sent", INT, "reply", BOOLEAN),
+    };
+
+    private static final HashMap<String, Schema> schemasByType = new HashMap<>();
+
+    static {
+        for (Schema schema : SCHEMAS) {
+            schemasByType.put(schema.type, schema);
+        }
+    }
+
+    private CompactPacketCodec() {
+    }
+
+    public static boolean isSupportedBy(NetworkPacket identityPacket) {
+        return identityPacket.getInt(KEY_COMPACT_ENCODING, 0) == VERSION;
+    }
+
+    /**
+     * @return np as a line in the compact encoding, or null if it can't be written that way
+     */
+    public static String encode(NetworkPacket np) {
+        Schema schema = schemasByType.get(np.getType());
+        if (schema == null || np.hasPayload()) {
+            return null;
+        }
+        JSONObject body = np.getBody();
+        Object[] values = new Object[schema.keys.length];
+        long present = 0;
+        Iterator<?> keys = body.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            int index = schema.indexOf(key);
+            if (index < 0 || !fits(schema.kinds[index], body.opt(key))) {
+                return null;
+            }
+            values[index] = body.opt(key);
+            present |= 1L << index;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        writeVarint(out, schema.number);
+        writeVarint(out, present);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            switch (schema.kinds[i]) {
+                case INT:
+                    long n = ((Number) values[i]).longValue();
+                    writeVarint(out, (n << 1) ^ (n >> 63));
+                    break;
+                case DOUBLE:
+                    long bits = Double.doubleToLongBits(((Number) values[i]).doubleValue());
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.write((int) (bits >>> shift));
+                    }
+                    break;
+                case BOOLEAN:
+                    out.write((Boolean) values[i] ? 1 : 0);
+                    break;
+                case STRING:
+                    byte[] bytes = ((String) values[i]).getBytes(StringsHelper.UTF8);
+                    writeVarint(out, bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                    break;
+            }
+        }
+        return MARKER + Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP) + "\n";
+    }
+
+    static NetworkPacket decode(String line) throws JSONException {
+        byte[] data;
+        try {
+            data = Base64.decode(line.substring(1).trim(), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Invalid compact packet");
+        }
+        int[] pos = {0};
+        try {
+            int number = (int) readVarint(data, pos);
+            if (number < 1 || number > SCHEMAS.length) {
+                throw new JSONException("Unknown compact packet type " + number);
+            }
+            Schema schema = SCHEMAS[number - 1];
+            long present = readVarint(data, pos);
+            NetworkPacket np = new NetworkPacket(schema.type);
+            JSONObject body = np.getBody();
+            for (int i = 0; i < schema.keys.length; i++) {
+                if ((present & (1L << i)) == 0) {
+                    continue;
+                }
+                switch (schema.kinds[i]) {
+                    case INT:
+                        long n = readVarint(data, pos);
+                        body.put(schema.keys[i], (n >>> 1) ^ -(n & 1));
+                        break;
+                    case DOUBLE:
+                        long bits = 0;
+                        for (int b = 0; b < 8; b++) {
+                            bits = (bits << 8) | (data[pos[0]++] & 0xFF);
+                        }
+                        body.put(schema.keys[i], Double.longBitsToDouble(bits));
+                        break;
+                    case BOOLEAN:
+                        body.put(schema.keys[i], data[pos[0]++] != 0);
+                        break;
+                    case STRING:
+                        int length = (int) readVarint(data, pos);
+                        if (length < 0 || pos[0] + length > data.length) {
+                            throw new JSONException("Truncated compact packet");
+                        }
+                        body.put(schema.keys[i], new String(data, pos[0], length, StringsHelper.UTF8));
+                        pos[0] += length;
+                        break;
+                }
+            }
+            return np;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new JSONException("Truncated compact packet");
+        }
+    }
+
+    private static boolean fits(int kind, Object value) {
+        switch (kind) {
+            case INT:
+                if (value instanceof Integer || value instanceof Long) {
+                    return true;
+                }
+                //NetworkPacket stores longs as doubles
+                if (value instanceof Double) {
+                    double d = (Double) value;
+                    return d == Math.rint(d) && Math.abs(d) < (1L << 53);
+                }
+                return false;
+            case DOUBLE:
+                return value instanceof Number;
+            case BOOLEAN:
+                return value instanceof Boolean;
+            case STRING:
+                return value instanceof String;
+        }
+        return false;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] pos) throws JSONException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data[pos[0]++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new JSONException("Invalid varint");
+    }
+}
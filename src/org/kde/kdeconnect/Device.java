@@ -37,9 +37,13 @@ import android.util.Log;
 
 import org.kde.kdeconnect.Backends.BaseLink;
 import org.kde.kdeconnect.Backends.BasePairingHandler;
+import org.kde.kdeconnect.Backends.LinkMetrics;
 import org.kde.kdeconnect.Backends.LanBackend.LanLinkProvider;
+import org.kde.kdeconnect.Helpers.CompressionHelper;
+import org.kde.kdeconnect.Helpers.Metrics;
 import org.kde.kdeconnect.Helpers.NotificationHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.SslHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.Plugins.Plugin;
 import org.kde.kdeconnect.Plugins.PluginFactory;
 import org.kde.kdeconnect.UserInterface.MainActivity;
@@ -52,17 +56,21 @@ import java.security.cert.Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 public class Device implements BaseLink.PacketReceiver {
 
+    //Spread concurrent payload transfers over all the links of a device, set from the share plugin settings
+    public static final String KEY_STRIPE_PAYLOADS = "stripe_payloads";
+
     private final Context context;
 
     private final String deviceId;
@@ -80,12 +88,15 @@ public class Device implements BaseLink.PacketReceiver {
 
     private final CopyOnWriteArrayList<BaseLink> links = new CopyOnWriteArrayList<>();
 
-    private List<String> m_supportedPlugins = new ArrayList<>();
+    private volatile List<String> m_supportedPlugins = Collections.emptyList();
     private final ConcurrentHashMap<String, Plugin> plugins = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Plugin> failedPlugins = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Plugin> pluginsWithoutPermissions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Plugin> pluginsWithoutOptionalPermissions = new ConcurrentHashMap<>();
-    private Map<String, ArrayList<String>> pluginsByIncomingInterface = new HashMap<>();
+    //Replaced as a whole when the plugins change, so receiving packets never waits for pluginLifecycleLock
+    private volatile PluginRoutingTable routingTable = PluginRoutingTable.EMPTY;
+    private final Object pluginLifecycleLock = new Object();
+    private final PacketDispatcher packetDispatcher = new PacketDispatcher();
 
     private final SharedPreferences settings;
 
@@ -95,6 +106,13 @@ public class Device implements BaseLink.PacketReceiver {
         void onPluginsChanged(Device device);
     }
 
+    private final CopyOnWriteArrayList<PacketHandledListener> packetHandledListeners = new CopyOnWriteArrayList<>();
+
+    public interface PacketHandledListener {
+        //Called from the queue of the plugin, right after its onPacketReceived returns
+        void onPacketHandled(Device device, String pluginKey, NetworkPacket np);
+    }
+
     public enum PairStatus {
         NotPaired,
         Paired
@@ -162,7 +180,7 @@ public class Device implements BaseLink.PacketReceiver {
         }
 
         //Assume every plugin is supported until addLink is called and we can get the actual list
-        m_supportedPlugins = new Vector<>(PluginFactory.getAvailablePlugins());
+        m_supportedPlugins = Collections.unmodifiableList(new ArrayList<>(PluginFactory.getAvailablePlugins()));
 
         //Do not load plugins yet, the device is not present
         //reloadPluginsFromSettings();
@@ -436,6 +454,10 @@ public class Device implements BaseLink.PacketReceiver {
         return !links.isEmpty();
     }
 
+    public List<BaseLink> getLinks() {
+        return Collections.unmodifiableList(new ArrayList<>(links));
+    }
+
     public void addLink(NetworkPacket identityPacket, BaseLink link) {
         //FilesHelper.LogOpenFileCount();
 
@@ -467,6 +489,8 @@ public class Device implements BaseLink.PacketReceiver {
         }
 
 
+        link.setCompressionSupported(CompressionHelper.isSupportedBy(identityPacket));
+        link.setCompactEncodingSupported(CompactPacketCodec.isSupportedBy(identityPacket));
         links.add(link);
 
         try {
@@ -513,9 +537,9 @@ public class Device implements BaseLink.PacketReceiver {
         Set<String> outgoingCapabilities = identityPacket.getStringSet("outgoingCapabilities", null);
         Set<String> incomingCapabilities = identityPacket.getStringSet("incomingCapabilities", null);
         if (incomingCapabilities != null && outgoingCapabilities != null) {
-            m_supportedPlugins = new Vector<>(PluginFactory.pluginsForCapabilities(context, incomingCapabilities, outgoingCapabilities));
+            m_supportedPlugins = Collections.unmodifiableList(new ArrayList<>(PluginFactory.pluginsForCapabilities(context, incomingCapabilities, outgoingCapabilities)));
         } else {
-            m_supportedPlugins = new Vector<>(PluginFactory.getAvailablePlugins());
+            m_supportedPlugins = Collections.unmodifiableList(new ArrayList<>(PluginFactory.getAvailablePlugins()));
         }
 
         link.addPacketReceiver(this);
@@ -548,7 +572,7 @@ public class Device implements BaseLink.PacketReceiver {
     }
 
     @Override
-    public void onPacketReceived(NetworkPacket np) {
+    public void onPacketReceived(final NetworkPacket np) {
 
         hackToMakeRetrocompatiblePacketTypes(np);
 
@@ -567,20 +591,7 @@ public class Device implements BaseLink.PacketReceiver {
         } else if (isPaired()) {
 
             //If capabilities are not supported, iterate all plugins
-            Collection<String> targetPlugins = pluginsByIncomingInterface.get(np.getType());
-            Log.i("PairingPacketReceived", "Type :"+np.getType());
-            if (targetPlugins != null && !targetPlugins.isEmpty()) {
-                for (String pluginKey : targetPlugins) {
-                    Plugin plugin = plugins.get(pluginKey);
-                    try {
-                        plugin.onPacketReceived(np);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        Log.e("KDE/Device", "Exception in " + plugin.getPluginKey() + "'s onPacketReceived()");
-                        //try { Log.e("KDE/Device", "NetworkPacket:" + np.serialize()); } catch (Exception _) { }
-                    }
-                }
-            } else {
+            if (!dispatchToPlugins(np, true)) {
                 Log.w("Device", "Ignoring packet with type " + np.getType() + " because no plugin can handle it");
             }
         } else {
@@ -594,24 +605,76 @@ public class Device implements BaseLink.PacketReceiver {
             unpair();
 
             //If capabilities are not supported, iterate all plugins
-            Collection<String> targetPlugins = pluginsByIncomingInterface.get(np.getType());
-            if (targetPlugins != null && !targetPlugins.isEmpty()) {
-                for (String pluginKey : targetPlugins) {
-                    Plugin plugin = plugins.get(pluginKey);
-                    try {
-                        plugin.onUnpairedDevicePacketReceived(np);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        Log.e("KDE/Device", "Exception in " + plugin.getDisplayName() + "'s onPacketReceived() in unPairedPacketListeners");
-                    }
-                }
-            } else {
+            if (!dispatchToPlugins(np, false)) {
                 Log.e("Device", "Ignoring packet with type " + np.getType() + " because no plugin can handle it");
             }
         }
 
     }
 
+    /**
+     * Queues the packet for every plugin that handles its type, loading the ones that
+     * load on demand first. Returns false if no plugin handles it.
+     */
+    private boolean dispatchToPlugins(final NetworkPacket np, final boolean paired) {
+        PluginRoutingTable routing = routingTable;
+        List<Plugin> targetPlugins = routing.get(np.getType());
+        List<String> deferredPlugins = routing.getDeferred(np.getType());
+
+        for (final Plugin plugin : targetPlugins) {
+            final String pluginKey = plugin.getPluginKey();
+            packetDispatcher.dispatch(pluginKey, np, () -> {
+                if (plugins.get(pluginKey) != plugin) {
+                    return; //Unloaded while the packet was waiting
+                }
+                deliverPacket(plugin, np, paired);
+                packetHandled(pluginKey, np);
+            });
+        }
+
+        for (final String pluginKey : deferredPlugins) {
+            //Created from the queue of the plugin, so the link doesn't wait for onCreate
+            packetDispatcher.dispatch(pluginKey, np, () -> {
+                Plugin plugin = loadDeferredPlugin(pluginKey);
+                if (plugin != null) {
+                    deliverPacket(plugin, np, paired);
+                    packetHandled(pluginKey, np);
+                }
+            });
+        }
+
+        return !targetPlugins.isEmpty() || !deferredPlugins.isEmpty();
+    }
+
+    /**
+     * How many plugins a packet of this type would be queued for right now.
+     */
+    int countPluginsFor(String packetType) {
+        PluginRoutingTable routing = routingTable;
+        return routing.get(packetType).size() + routing.getDeferred(packetType).size();
+    }
+
+    private void deliverPacket(Plugin plugin, NetworkPacket np, boolean paired) {
+        long start = System.nanoTime();
+        if (paired) {
+            try {
+                plugin.onPacketReceived(np);
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("KDE/Device", "Exception in " + plugin.getPluginKey() + "'s onPacketReceived()");
+                //try { Log.e("KDE/Device", "NetworkPacket:" + np.serialize()); } catch (Exception _) { }
+            }
+        } else {
+            try {
+                plugin.onUnpairedDevicePacketReceived(np);
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("KDE/Device", "Exception in " + plugin.getDisplayName() + "'s onPacketReceived() in unPairedPacketListeners");
+            }
+        }
+        Metrics.pluginHandleTime(plugin.getPluginKey()).record((System.nanoTime() - start) / 1000);
+    }
+
     public static abstract class SendPacketStatusCallback {
         public abstract void onSuccess();
 
@@ -621,6 +684,8 @@ public class Device implements BaseLink.PacketReceiver {
         }
     }
 
+    private final OutgoingQueue outgoingQueue = new OutgoingQueue(this::sendPacketBlocking);
+
     private SendPacketStatusCallback defaultCallback = new SendPacketStatusCallback() {
         @Override
         public void onSuccess() {
@@ -646,7 +711,16 @@ public class Device implements BaseLink.PacketReceiver {
 
     //Async
     public void sendPacket(final NetworkPacket np, final SendPacketStatusCallback callback) {
-        new Thread(() -> sendPacketBlocking(np, callback)).start();
+        if (np.hasPayload()) {
+            //Transfers can take very long, don't make other packets wait for them
+            try {
+                ThreadHelper.io().execute(() -> sendPacketBlocking(np, callback));
+            } catch (RejectedExecutionException e) {
+                callback.onFailure(e);
+            }
+        } else {
+            outgoingQueue.offer(np, callback);
+        }
     }
 
     public boolean sendPacketBlocking(final NetworkPacket np, final SendPacketStatusCallback callback) {
@@ -658,23 +732,48 @@ public class Device implements BaseLink.PacketReceiver {
         }
         */
 
+        if (np.isExpired(System.currentTimeMillis())) {
+            Metrics.counter("send.expired").inc();
+            callback.onFailure(new TimeoutException(np.getType() + " expired before it could be sent"));
+            return false;
+        }
+
         hackToMakeRetrocompatiblePacketTypes(np);
 
         boolean useEncryption = (protocolVersion < LanLinkProvider.MIN_VERSION_WITH_SSL_SUPPORT && (!np.getType().equals(NetworkPacket.PACKET_TYPE_PAIR) && isPaired()));
 
+        boolean stripe = np.hasPayload() && PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_STRIPE_PAYLOADS, false);
+        long payloadSize = np.hasPayload() ? Math.max(np.getPayloadSize(), 0) : 0;
+
         boolean success = false;
-        //Make a copy to avoid concurrent modification exception if the original list changes
-        for (final BaseLink link : links) {
+        String sentThrough = "none";
+        //Best link first, falling back to the others
+        for (final BaseLink link : LinkSelector.order(links, np, stripe)) {
             if (link == null)
                 continue; //Since we made a copy, maybe somebody destroyed the link in the meanwhile
+            LinkMetrics metrics = link.getMetrics();
+            metrics.sendStarted(payloadSize);
+            long start = System.nanoTime();
             if (useEncryption) {
                 success = link.sendPacketEncrypted(np, callback, publicKey);
             } else {
                 success = link.sendPacket(np, callback);
             }
-            if (success) break; //If the link didn't call sendSuccess(), try the next one
+            long elapsedNanos = System.nanoTime() - start;
+            metrics.sendFinished(payloadSize, success, elapsedNanos / 1000000);
+            if (success) {
+                Metrics.sendLatency(link.getName()).record(elapsedNanos / 1000);
+            } else {
+                Metrics.counter("send.failures").inc();
+            }
+            if (success) {
+                sentThrough = link.getName();
+                break; //If the link didn't call sendSuccess(), try the next one
+            }
         }
 
+        PacketTraceRecorder.record(PacketTraceRecorder.OUTGOING, sentThrough, deviceId, np);
+
         if (!success) {
             Log.e("KDE/sendPacket", "No device link (of " + links.size() + " available) could send the package. Packet " + np.getType() + " to " + name + " lost!");
         }
@@ -698,15 +797,26 @@ public class Device implements BaseLink.PacketReceiver {
         return getPlugin(pluginKey, false);
     }
 
+    /**
+     * Whether the plugin is left to load on demand and hasn't been needed yet.
+     */
+    public boolean isPluginDeferred(String pluginKey) {
+        return !plugins.containsKey(pluginKey) && routingTable.isDeferred(pluginKey);
+    }
+
     public Plugin getPlugin(String pluginKey, boolean includeFailed) {
         Plugin plugin = plugins.get(pluginKey);
+        if (plugin == null && routingTable.isDeferred(pluginKey)) {
+            plugin = loadDeferredPlugin(pluginKey); //The user interface wants it
+        }
         if (includeFailed && plugin == null) {
             plugin = failedPlugins.get(pluginKey);
         }
         return plugin;
     }
 
-    private synchronized boolean addPlugin(final String pluginKey) {
+    //Must be called holding pluginLifecycleLock
+    private boolean addPlugin(final String pluginKey) {
         Plugin existing = plugins.get(pluginKey);
         if (existing != null) {
 
@@ -779,7 +889,10 @@ public class Device implements BaseLink.PacketReceiver {
         return success;
     }
 
-    private synchronized boolean removePlugin(String pluginKey) {
+    //Must be called holding pluginLifecycleLock
+    private boolean removePlugin(String pluginKey) {
+
+        packetDispatcher.remove(pluginKey);
 
         Plugin plugin = plugins.remove(pluginKey);
         Plugin failedPlugin = failedPlugins.remove(pluginKey);
@@ -815,40 +928,85 @@ public class Device implements BaseLink.PacketReceiver {
 
     public void reloadPluginsFromSettings() {
 
-        failedPlugins.clear();
+        synchronized (pluginLifecycleLock) {
 
-        HashMap<String, ArrayList<String>> newPluginsByIncomingInterface = new HashMap<>();
+            failedPlugins.clear();
 
-        for (String pluginKey : m_supportedPlugins) {
+            PluginRoutingTable.Builder newRoutingTable = new PluginRoutingTable.Builder();
+            ArrayList<String> pluginsToRemove = new ArrayList<>();
+            boolean lazyLoading = PluginFactory.isLazyLoadingEnabled(context);
 
-            PluginFactory.PluginInfo pluginInfo = PluginFactory.getPluginInfo(context, pluginKey);
+            for (String pluginKey : m_supportedPlugins) {
 
-            boolean pluginEnabled = false;
-            boolean listenToUnpaired = pluginInfo.listenToUnpaired();
-            if ((isPaired() || listenToUnpaired) && isReachable()) {
-                pluginEnabled = isPluginEnabled(pluginKey);
-            }
+                PluginFactory.PluginInfo pluginInfo = PluginFactory.getPluginInfo(context, pluginKey);
+
+                boolean pluginEnabled = false;
+                boolean listenToUnpaired = pluginInfo.listenToUnpaired();
+                if ((isPaired() || listenToUnpaired) && isReachable()) {
+                    pluginEnabled = isPluginEnabled(pluginKey);
+                }
 
-            if (pluginEnabled) {
-                boolean success = addPlugin(pluginKey);
-                if (success) {
+                if (pluginEnabled && lazyLoading && pluginInfo.loadsOnDemand()
+                        && !plugins.containsKey(pluginKey) && canLoadOnDemand(pluginInfo)) {
                     for (String packageType : pluginInfo.getSupportedPacketTypes()) {
                         packageType = hackToMakeRetrocompatiblePacketTypes(packageType);
-                        ArrayList<String> plugins = newPluginsByIncomingInterface.get(packageType);
-                        if (plugins == null) plugins = new ArrayList<>();
-                        plugins.add(pluginKey);
-                        newPluginsByIncomingInterface.put(packageType, plugins);
+                        newRoutingTable.addDeferred(packageType, pluginKey);
                     }
+                } else if (pluginEnabled) {
+                    boolean success = addPlugin(pluginKey);
+                    if (success) {
+                        Plugin plugin = plugins.get(pluginKey);
+                        for (String packageType : pluginInfo.getSupportedPacketTypes()) {
+                            packageType = hackToMakeRetrocompatiblePacketTypes(packageType);
+                            newRoutingTable.add(packageType, plugin);
+                        }
+                    }
+                } else {
+                    pluginsToRemove.add(pluginKey);
                 }
-            } else {
-                removePlugin(pluginKey);
+
             }
 
+            //Stop routing packets to the plugins before destroying them
+            routingTable = newRoutingTable.build();
+
+            for (String pluginKey : pluginsToRemove) {
+                removePlugin(pluginKey);
+            }
         }
 
-        pluginsByIncomingInterface = newPluginsByIncomingInterface;
+        onPluginsChanged();
+    }
 
+    /**
+     * Plugins missing permissions are created right away anyway, so the device
+     * screen can ask for them.
+     */
+    private boolean canLoadOnDemand(PluginFactory.PluginInfo pluginInfo) {
+        return pluginInfo.getMinSdk() <= Build.VERSION.SDK_INT && pluginInfo.arePermissionsGranted(context);
+    }
+
+    /**
+     * Creates a plugin that was left to load on demand, or returns it if it already
+     * exists. Returns null if it failed to load or has been disabled in the meantime.
+     */
+    private Plugin loadDeferredPlugin(String pluginKey) {
+        Plugin plugin;
+        synchronized (pluginLifecycleLock) {
+            plugin = plugins.get(pluginKey);
+            if (plugin != null) {
+                return plugin;
+            }
+            if (!routingTable.isDeferred(pluginKey)) {
+                return null;
+            }
+            Log.i("KDE/Device", "Loading " + pluginKey + " on demand");
+            plugin = addPlugin(pluginKey) ? plugins.get(pluginKey) : null;
+            //If it failed, it shows up as failed in the device screen and is retried on the next reload
+            routingTable = routingTable.withLoaded(pluginKey, plugin);
+        }
         onPluginsChanged();
+        return plugin;
     }
 
     public void onPluginsChanged() {
@@ -881,6 +1039,20 @@ public class Device implements BaseLink.PacketReceiver {
         pluginsChangedListeners.remove(listener);
     }
 
+    public void addPacketHandledListener(PacketHandledListener listener) {
+        packetHandledListeners.add(listener);
+    }
+
+    public void removePacketHandledListener(PacketHandledListener listener) {
+        packetHandledListeners.remove(listener);
+    }
+
+    private void packetHandled(String pluginKey, NetworkPacket np) {
+        for (PacketHandledListener listener : packetHandledListeners) {
+            listener.onPacketHandled(this, pluginKey, np);
+        }
+    }
+
     public void disconnect() {
         for (BaseLink link : links) {
             link.disconnect();
@@ -0,0 +1,96 @@
+package org.kde.kdeconnect.Helpers;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflates big packets into a kdeconnect.compressed packet, for peers that listed
+ * "deflate" in the "compression" field of their identity. Others never get one.
+ */
+public class CompressionHelper {
+
+    public static final String KEY_COMPRESSION = "compression";
+    public static final String DEFLATE = "deflate";
+
+    //Smaller packets don't gain enough to be worth the time
+    static final int MIN_COMPRESSED_SIZE = 1024;
+    //Refuse to inflate anything bigger, so a bad peer can't make us run out of memory
+    static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    public static JSONArray getSupportedCompressions() {
+        JSONArray supported = new JSONArray();
+        supported.put(DEFLATE);
+        return supported;
+    }
+
+    public static boolean isSupportedBy(NetworkPacket identityPacket) {
+        if (!identityPacket.has(KEY_COMPRESSION)) {
+            return false;
+        }
+        List<String> compressions = identityPacket.getStringList(KEY_COMPRESSION);
+        return compressions != null && compressions.contains(DEFLATE);
+    }
+
+    /**
+     * @return a compressed packet with the payload of np, or np itself if it's too small
+     * or doesn't compress well enough to be worth it
+     */
+    public static NetworkPacket compress(NetworkPacket np) throws JSONException, IOException {
+        String serialized = np.serialize();
+        if (serialized.length() < MIN_COMPRESSED_SIZE) {
+            return np;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(serialized.length() / 2);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(serialized.getBytes(StringsHelper.UTF8));
+            out.finish();
+        } finally {
+            deflater.end();
+        }
+        //NO_WRAP: packets are delimited by newlines
+        String data = Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+        if (data.length() >= serialized.length() * 3 / 4) {
+            return np;
+        }
+
+        NetworkPacket compressed = new NetworkPacket(NetworkPacket.PACKET_TYPE_COMPRESSED);
+        compressed.set("data", data);
+        compressed.setPayload(np.getPayload(), np.getPayloadSize());
+        compressed.setPayloadTransferInfo(np.getPayloadTransferInfo());
+        return compressed;
+    }
+
+    public static NetworkPacket decompress(NetworkPacket np) throws JSONException, IOException {
+        byte[] data = Base64.decode(np.getString("data"), Base64.NO_WRAP);
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (out.size() > MAX_DECOMPRESSED_SIZE) {
+                throw new IOException("Compressed packet too big");
+            }
+        }
+
+        NetworkPacket decompressed = NetworkPacket.unserialize(new String(out.toByteArray(), StringsHelper.UTF8));
+        decompressed.setPayload(np.getPayload(), np.getPayloadSize());
+        decompressed.setPayloadTransferInfo(np.getPayloadTransferInfo());
+        return decompressed;
+    }
+}
@@ -545,7 +545,15 @@ public class DeviceHelper {
         preferences.edit().putString(KEY_DEVICE_NAME_PREFERENCE, name).apply();
     }
 
+    //Doesn't change while the app is installed, no need to query the settings provider for every packet
+    private static volatile String deviceId;
+
     public static String getDeviceId(Context context) {
-        return Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        String id = deviceId;
+        if (id == null) {
+            id = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+            deviceId = id;
+        }
+        return id;
     }
 }
@@ -0,0 +1,78 @@
+package org.kde.kdeconnect.Helpers;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Counts latencies in power of two buckets of microseconds, so recording is cheap and
+ * the memory used is fixed no matter how many samples there are. Percentiles are
+ * approximate: they return the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    //Up to 2^31us, about 35 minutes. Anything slower goes in the last bucket.
+    private static final int BUCKETS = 32;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long totalMicros = 0;
+    private long maxMicros = 0;
+
+    public synchronized void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        counts[Math.min(bucket, BUCKETS - 1)]++;
+        count++;
+        totalMicros += micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMeanMicros() {
+        return count > 0 ? totalMicros / count : 0;
+    }
+
+    public synchronized long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return a latency at least as high as that percentile of the samples, or 0 if there are none
+     */
+    public synchronized long getPercentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(bucket == 0 ? 0 : (1L << bucket) - 1, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", count,
+                getMeanMicros() / 1000.0, getPercentileMicros(50) / 1000.0, getPercentileMicros(90) / 1000.0,
+                getPercentileMicros(99) / 1000.0, maxMicros / 1000.0);
+    }
+}
@@ -0,0 +1,263 @@
+package org.kde.kdeconnect.Helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters, gauges and latency histograms of the transports and plugins,
+ * for the diagnostics screen and the metrics dump. Updating a metric is a map lookup and
+ * an atomic add, so it's cheap enough for every packet; hot paths should still keep
+ * the metric they update instead of building its name each time.
+ *
+ * Packet types come from the other end, so only the ones we know of (those of our plugins
+ * and the internal ones) get metrics of their own, anything else is counted as "other".
+ */
+public final class Metrics {
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * What goes in and out for one packet type.
+     */
+    public static final class PacketTypeMetrics {
+        public final Counter packetsIn;
+        public final Counter bytesIn;
+        public final Counter packetsOut;
+        public final Counter bytesOut;
+
+        private PacketTypeMetrics(String type) {
+            packetsIn = counter("packets.in." + type);
+            bytesIn = counter("bytes.in." + type);
+            packetsOut = counter("packets.out." + type);
+            bytesOut = counter("bytes.out." + type);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, PacketTypeMetrics> packetTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Boolean> knownPacketTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> sendLatencies = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> pluginHandleTimes = new ConcurrentHashMap<>();
+
+    private static final long startedMs = System.currentTimeMillis();
+
+    static final String OTHER_PACKET_TYPE = "other";
+
+    static {
+        addKnownPacketTypes(Arrays.asList(NetworkPacket.PACKET_TYPE_IDENTITY, NetworkPacket.PACKET_TYPE_PAIR,
+                NetworkPacket.PACKET_TYPE_ENCRYPTED, NetworkPacket.PACKET_TYPE_COMPRESSED));
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public static Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = gauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Packet types that get metrics of their own, see {@link #packetType(String)}.
+     */
+    public static void addKnownPacketTypes(Collection<String> types) {
+        for (String type : types) {
+            knownPacketTypes.put(type, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * The metrics of a known packet type, or the shared "other" ones for any other type.
+     */
+    public static PacketTypeMetrics packetType(String type) {
+        if (type == null || !knownPacketTypes.containsKey(type)) {
+            type = OTHER_PACKET_TYPE;
+        }
+        PacketTypeMetrics metrics = packetTypes.get(type);
+        if (metrics == null) {
+            PacketTypeMetrics created = new PacketTypeMetrics(type);
+            metrics = packetTypes.putIfAbsent(type, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    public static void packetReceived(String type, long bytes) {
+        PacketTypeMetrics metrics = packetType(type);
+        metrics.packetsIn.inc();
+        metrics.bytesIn.add(bytes);
+    }
+
+    public static void packetSent(String type, long bytes) {
+        PacketTypeMetrics metrics = packetType(type);
+        metrics.packetsOut.inc();
+        metrics.bytesOut.add(bytes);
+    }
+
+    /**
+     * How long sending a packet over a kind of link takes, payload included.
+     */
+    public static LatencyHistogram sendLatency(String linkName) {
+        return cachedHistogram(sendLatencies, "send.latency.", linkName);
+    }
+
+    /**
+     * How long a plugin takes to handle a packet, not counting the time it waited in its queue.
+     */
+    public static LatencyHistogram pluginHandleTime(String pluginKey) {
+        return cachedHistogram(pluginHandleTimes, "plugin.handle.", pluginKey);
+    }
+
+    //Saves building the name every time
+    private static LatencyHistogram cachedHistogram(ConcurrentHashMap<String, LatencyHistogram> cache, String prefix, String key) {
+        LatencyHistogram histogram = cache.get(key);
+        if (histogram == null) {
+            histogram = histogram(prefix + key);
+            LatencyHistogram existing = cache.putIfAbsent(key, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Everything, as {"uptimeMs": .., "counters": {name: value}, "gauges": {..},
+     * "histograms": {name: {"count", "meanUs", "p50Us", "p90Us", "p99Us", "maxUs"}}}, sorted by name.
+     */
+    public static JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("uptimeMs", System.currentTimeMillis() - startedMs);
+
+        JSONObject countersJson = new JSONObject();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            countersJson.put(entry.getKey(), entry.getValue().get());
+        }
+        json.put("counters", countersJson);
+
+        JSONObject gaugesJson = new JSONObject();
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()) {
+            gaugesJson.put(entry.getKey(), entry.getValue().get());
+        }
+        json.put("gauges", gaugesJson);
+
+        JSONObject histogramsJson = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            JSONObject histogramJson = new JSONObject();
+            histogramJson.put("count", histogram.getCount());
+            histogramJson.put("meanUs", histogram.getMeanMicros());
+            histogramJson.put("p50Us", histogram.getPercentileMicros(50));
+            histogramJson.put("p90Us", histogram.getPercentileMicros(90));
+            histogramJson.put("p99Us", histogram.getPercentileMicros(99));
+            histogramJson.put("maxUs", histogram.getMaxMicros());
+            histogramsJson.put(entry.getKey(), histogramJson);
+        }
+        json.put("histograms", histogramsJson);
+        return json;
+    }
+
+    /**
+     * Human readable version of toJson, one metric per line.
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("uptime: ").append((System.currentTimeMillis() - startedMs) / 1000).append("s\n");
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Sets every counter and histogram back to zero. Gauges keep their value, as they
+     * describe the current state rather than what happened so far.
+     */
+    public static void reset() {
+        //In place, as hot paths keep references to their metrics
+        for (Counter counter : counters.values()) {
+            counter.value.set(0);
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.kde.kdeconnect.Helpers;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads of the app, instead of everyone starting their own:
+ *
+ * - io: for anything that blocks and then ends, like a write to a socket or a connection
+ *   attempt. Threads are created as needed, up to MAX_IO_THREADS, and tasks are never
+ *   queued, so a long running one can't hold up others. When the pool is full execute()
+ *   throws RejectedExecutionException, so callers that must not lose their task catch it.
+ * - loops: a thread of their own for every loop that lives as long as a link or a
+ *   listener, started with startLoop(), so they never take the place of io tasks.
+ * - cpu: for work that only computes, one thread per core and a bounded queue.
+ * - scheduler: for timeouts and anything else that has to run later or periodically.
+ *   It has a single thread, so scheduled tasks must be short and hand anything that
+ *   might block over to io.
+ *
+ * Every pool keeps "threads.<pool>.size", ".active" and ".queued" gauges and a
+ * ".rejected" counter in Metrics. Running loops are counted in "threads.loop.active".
+ */
+public final class ThreadHelper {
+
+    static final int MAX_IO_THREADS = 128;
+    static final int MAX_CPU_QUEUE = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ExecutorService io = new MeteredThreadPool("io", 0, MAX_IO_THREADS, new SynchronousQueue<>());
+    private static final ExecutorService cpu;
+    private static final ScheduledExecutorService scheduler = new MeteredScheduledThreadPool("scheduler");
+    private static final Metrics.Gauge activeLoops = Metrics.gauge("threads.loop.active");
+    //By loop name, so the threads of each kind of loop are numbered on their own
+    private static final Map<String, NamedThreadFactory> loopThreadFactories = new HashMap<>();
+
+    static {
+        int cores = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        MeteredThreadPool pool = new MeteredThreadPool("cpu", cores, cores, new LinkedBlockingQueue<>(MAX_CPU_QUEUE));
+        pool.allowCoreThreadTimeOut(true);
+        cpu = pool;
+    }
+
+    private ThreadHelper() {
+    }
+
+    public static ExecutorService io() {
+        return io;
+    }
+
+    public static ExecutorService cpu() {
+        return cpu;
+    }
+
+    public static ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs task on the io pool after delayMs, for delayed work that may block.
+     */
+    public static ScheduledFuture<?> scheduleIo(final Runnable task, long delayMs) {
+        return scheduler.schedule(() -> {
+            try {
+                io.execute(task);
+            } catch (RejectedExecutionException e) {
+                Log.e("ThreadHelper", "Dropping a delayed task, the io pool is full");
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs loop on a new thread named "kdeconnect-<name>-N", for loops that block for as
+     * long as a link or a listener lives.
+     */
+    public static Thread startLoop(String name, final Runnable loop) {
+        Thread thread = loopThreadFactory(name).newThread(() -> {
+            activeLoops.add(1);
+            try {
+                loop.run();
+            } catch (Throwable t) {
+                Log.e("ThreadHelper", "Uncaught exception in " + Thread.currentThread().getName(), t);
+            } finally {
+                activeLoops.add(-1);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static synchronized NamedThreadFactory loopThreadFactory(String name) {
+        NamedThreadFactory factory = loopThreadFactories.get(name);
+        if (factory == null) {
+            factory = new NamedThreadFactory(name);
+            loopThreadFactories.put(name, factory);
+        }
+        return factory;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "kdeconnect-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class Meters implements RejectedExecutionHandler {
+        final String name;
+        final Metrics.Gauge size;
+        final Metrics.Gauge active;
+        final Metrics.Gauge queued;
+        final Metrics.Counter rejected;
+
+        Meters(String name) {
+            this.name = name;
+            size = Metrics.gauge("threads." + name + ".size");
+            active = Metrics.gauge("threads." + name + ".active");
+            queued = Metrics.gauge("threads." + name + ".queued");
+            rejected = Metrics.counter("threads." + name + ".rejected");
+        }
+
+        void update(ThreadPoolExecutor pool, int activeDelta) {
+            size.set(pool.getPoolSize());
+            //getActiveCount doesn't count yet the task that's about to start, and still counts the one that finished
+            active.set(pool.getActiveCount() + activeDelta);
+            queued.set(pool.getQueue().size());
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+            rejected.inc();
+            Log.e("ThreadHelper", "The " + name + " pool is full (" + pool.getPoolSize() + " threads, "
+                    + pool.getQueue().size() + " queued)");
+            throw new RejectedExecutionException("The " + name + " pool is full");
+        }
+    }
+
+    private static class MeteredThreadPool extends ThreadPoolExecutor {
+        private final Meters meters;
+
+        MeteredThreadPool(String name, int coreThreads, int maxThreads, BlockingQueue<Runnable> queue) {
+            super(coreThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new NamedThreadFactory(name));
+            meters = new Meters(name);
+            setRejectedExecutionHandler(meters);
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            meters.update(this, 1);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            meters.update(this, -1);
+            if (t != null) {
+                Log.e("ThreadHelper", "Uncaught exception in the " + meters.name + " pool", t);
+            }
+        }
+    }
+
+    private static class MeteredScheduledThreadPool extends ScheduledThreadPoolExecutor {
+        private final Meters meters;
+
+        MeteredScheduledThreadPool(String name) {
+            super(1, new NamedThreadFactory(name));
+            meters = new Meters(name);
+            setRejectedExecutionHandler(meters);
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            meters.update(this, 1);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            meters.update(this, -1);
+        }
+    }
+}
@@ -63,8 +63,18 @@ public class KdeConnectBroadcastReceiver extends BroadcastReceiver {
                 });
                 break;
             case Intent.ACTION_SCREEN_ON:
+                TrafficScheduler.getInstance().setScreenOn(true);
                 BackgroundService.RunCommand(context, BackgroundService::onNetworkChange);
                 break;
+            case Intent.ACTION_SCREEN_OFF:
+                TrafficScheduler.getInstance().setScreenOn(false);
+                break;
+            case Intent.ACTION_BATTERY_LOW:
+                TrafficScheduler.getInstance().setBatteryLow(true);
+                break;
+            case Intent.ACTION_BATTERY_OKAY:
+                TrafficScheduler.getInstance().setBatteryLow(false);
+                break;
             default:
                 Log.i("BroadcastReceiver", "Ignoring broadcast event: " + intent.getAction());
                 break;
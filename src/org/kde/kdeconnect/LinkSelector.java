@@ -0,0 +1,93 @@
+package org.kde.kdeconnect;
+
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.LinkMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Orders the links of a device from best to worst for a packet, using what they measured
+ * so far: latency for plain packets, and throughput for packets with a payload.
+ *
+ * Links that haven't measured anything yet are ranked by what their type usually achieves
+ * (see BaseLink.getExpectedLatencyMs() and getExpectedThroughput()), so a payload never
+ * goes to a link just because nothing is known about it. Links that measure the same
+ * keep the order they were added in.
+ */
+final class LinkSelector {
+
+    private static class Candidate implements Comparable<Candidate> {
+        final BaseLink link;
+        final double cost;
+
+        Candidate(BaseLink link, double cost) {
+            this.link = link;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    private LinkSelector() {
+    }
+
+    /**
+     * @param stripe if the packet has a payload, count the payloads each link is already
+     *               sending, so that concurrent transfers spread over all the links in
+     *               proportion to their throughput instead of queueing on the fastest one
+     */
+    static List<BaseLink> order(List<BaseLink> links, NetworkPacket np, boolean stripe) {
+        if (links.size() < 2) {
+            return links;
+        }
+        long payloadSize = np.hasPayload() ? Math.max(np.getPayloadSize(), 0) : 0;
+        List<Candidate> candidates = new ArrayList<>(links.size());
+        for (BaseLink link : links) {
+            if (link == null) {
+                continue;
+            }
+            double cost = np.hasPayload() ? payloadCost(link, payloadSize, stripe) : packetCost(link);
+            candidates.add(new Candidate(link, cost));
+        }
+        Collections.sort(candidates); //Stable, so ties keep their order
+
+        List<BaseLink> ordered = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ordered.add(candidate.link);
+        }
+        return ordered;
+    }
+
+    //Expected time to deliver a packet without payload
+    private static double packetCost(BaseLink link) {
+        LinkMetrics metrics = link.getMetrics();
+        double latency = link.getRttMs() >= 0 ? link.getRttMs() : metrics.getSendTimeMs();
+        if (latency < 0) {
+            latency = link.getExpectedLatencyMs();
+        }
+        return latency / reliability(metrics);
+    }
+
+    //Expected time until the payload is delivered
+    private static double payloadCost(BaseLink link, long payloadSize, boolean stripe) {
+        LinkMetrics metrics = link.getMetrics();
+        double throughput = metrics.getThroughput();
+        if (throughput <= 0) {
+            throughput = link.getExpectedThroughput();
+        }
+        long bytes = Math.max(payloadSize, 1);
+        if (stripe) {
+            bytes += metrics.getBytesInFlight();
+        }
+        return bytes / throughput / reliability(metrics);
+    }
+
+    private static double reliability(LinkMetrics metrics) {
+        return Math.max(1 - metrics.getErrorRate(), 0.01);
+    }
+}
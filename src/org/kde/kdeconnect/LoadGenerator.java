@@ -0,0 +1,412 @@
+package org.kde.kdeconnect;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.BaseLinkProvider;
+import org.kde.kdeconnect.Backends.LoopbackBackend.LoopbackLink;
+import org.kde.kdeconnect.Backends.LoopbackBackend.LoopbackLinkProvider;
+import org.kde.kdeconnect.Helpers.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replays packet traces from virtual peers (see LoopbackLinkProvider.LoadProfile)
+ * through real Devices and their plugins, and measures how many packets each plugin
+ * handles per second and how long they take from being sent to being handled.
+ *
+ * Meant for tests and profiling: the virtual devices are paired and use the plugins
+ * enabled in this app's settings, like any other device would.
+ */
+public class LoadGenerator implements BaseLinkProvider.ConnectionReceiver, Device.PacketHandledListener {
+
+    public static class TracedPacket {
+        public final long offsetMs;
+        public final NetworkPacket packet;
+
+        public TracedPacket(long offsetMs, NetworkPacket packet) {
+            this.offsetMs = offsetMs;
+            this.packet = packet;
+        }
+    }
+
+    public static class PluginReport {
+        public final String pluginKey;
+        public final long handled;
+        public final double packetsPerSecond;
+        public final LatencyHistogram latency;
+
+        PluginReport(String pluginKey, long handled, double packetsPerSecond, LatencyHistogram latency) {
+            this.pluginKey = pluginKey;
+            this.handled = handled;
+            this.packetsPerSecond = packetsPerSecond;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-28s %8d packets %10.1f/s  %s", pluginKey, handled, packetsPerSecond, latency);
+        }
+    }
+
+    private static class PluginStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long lastHandledNanos;
+    }
+
+    private static class Injected {
+        final long atNanos;
+        boolean handled = false;
+        //Plugins it was dispatched to that haven't handled it yet, it's forgotten once this is 0
+        int remaining;
+
+        Injected(long atNanos, int plugins) {
+            this.atNanos = atNanos;
+            this.remaining = plugins;
+        }
+    }
+
+    private final Context context;
+    private final LoopbackLinkProvider.LoadProfile profile;
+    private final HashMap<BaseLink, Device> devices = new HashMap<>();
+    private LoopbackLinkProvider linkProvider;
+
+    //Guarded by this
+    private final IdentityHashMap<NetworkPacket, Injected> injected = new IdentityHashMap<>();
+    private final TreeMap<String, PluginStats> pluginStats = new TreeMap<>();
+    private long unhandled = 0;
+    private long lost = 0;
+    private long replayStartedNanos = 0;
+
+    public LoadGenerator(Context context, LoopbackLinkProvider.LoadProfile profile) {
+        this.context = context;
+        this.profile = profile;
+    }
+
+    /**
+     * Connects to and pairs with the virtual peers.
+     */
+    public void start() {
+        linkProvider = new LoopbackLinkProvider(context, profile);
+        linkProvider.addConnectionReceiver(this);
+        linkProvider.onStart();
+    }
+
+    /**
+     * Disconnects and unpairs the virtual peers, so nothing about them is left in the settings.
+     */
+    public void stop() {
+        List<Device> oldDevices;
+        synchronized (devices) {
+            oldDevices = new ArrayList<>(devices.values());
+        }
+        for (Device device : oldDevices) {
+            device.removePacketHandledListener(this);
+            device.unpair();
+        }
+        if (linkProvider != null) {
+            linkProvider.onStop();
+            linkProvider.removeConnectionReceiver(this);
+            linkProvider = null;
+        }
+    }
+
+    public List<Device> getDevices() {
+        synchronized (devices) {
+            return new ArrayList<>(devices.values());
+        }
+    }
+
+    @Override
+    public void onConnectionReceived(NetworkPacket identityPacket, BaseLink link) {
+        Device device = new Device(context, identityPacket, link);
+        device.addPacketHandledListener(this);
+        synchronized (devices) {
+            devices.put(link, device);
+        }
+        //Loopback pairing completes right away
+        device.requestPairing();
+    }
+
+    @Override
+    public void onConnectionLost(BaseLink link) {
+        Device device;
+        synchronized (devices) {
+            device = devices.remove(link);
+        }
+        if (device != null) {
+            device.removeLink(link);
+        }
+    }
+
+    /**
+     * Sends every packet of the trace from every virtual peer, each at its offset from
+     * now. Blocks until the last one is sent, but not until they are handled: use
+     * awaitIdle for that.
+     */
+    public void replay(List<TracedPacket> trace) throws InterruptedException, JSONException {
+        replay(trace, true);
+    }
+
+    /**
+     * Like replay(trace), but if realTime is false the offsets are ignored and every packet
+     * is sent as soon as the previous one is, to measure how fast they can be handled.
+     * Packets with a payload get one of zeros of the same size.
+     */
+    public void replay(List<TracedPacket> trace, boolean realTime) throws InterruptedException, JSONException {
+        List<LoopbackLink> links = linkProvider.getLinks();
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (replayStartedNanos == 0) {
+                replayStartedNanos = start;
+            }
+        }
+        for (TracedPacket entry : trace) {
+            long waitMs = entry.offsetMs - (System.nanoTime() - start) / 1000000;
+            if (realTime && waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+            //Every peer sends its own copy, like it would have received it from the network
+            String serialized = entry.packet.serialize();
+            for (LoopbackLink link : links) {
+                NetworkPacket np = NetworkPacket.unserialize(serialized);
+                if (entry.packet.hasPayload()) {
+                    np.setPayload(new ZeroInputStream(entry.packet.getPayloadSize()), entry.packet.getPayloadSize());
+                }
+                Device device;
+                synchronized (devices) {
+                    device = devices.get(link);
+                }
+                int plugins = device != null ? device.countPluginsFor(np.getType()) : 0;
+                synchronized (this) {
+                    //One no plugin handles is never forgotten by onPacketHandled, so only count it
+                    if (plugins > 0) {
+                        injected.put(np, new Injected(System.nanoTime(), plugins));
+                    }
+                    unhandled++;
+                }
+                if (!link.inject(np)) {
+                    synchronized (this) {
+                        injected.remove(np);
+                        unhandled--;
+                        lost++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until every packet sent and not lost has been handled by a plugin.
+     *
+     * @return false if some were still waiting when the timeout expired, e.g. because no plugin handles their type
+     */
+    public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (unhandled > 0) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    @Override
+    public void onPacketHandled(Device device, String pluginKey, NetworkPacket np) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Injected entry = injected.get(np);
+            if (entry == null) {
+                return; //Not ours, e.g. sent by a plugin while loading
+            }
+            PluginStats stats = pluginStats.get(pluginKey);
+            if (stats == null) {
+                stats = new PluginStats();
+                pluginStats.put(pluginKey, stats);
+            }
+            stats.latency.record((now - entry.atNanos) / 1000);
+            stats.lastHandledNanos = now;
+            if (!entry.handled) {
+                entry.handled = true;
+                unhandled--;
+                notifyAll();
+            }
+            //The other plugins it went to still need the time it was sent at
+            if (--entry.remaining <= 0) {
+                injected.remove(np);
+            }
+        }
+    }
+
+    //Packets sent that some plugin they went to hasn't handled yet
+    synchronized int getPendingCount() {
+        return injected.size();
+    }
+
+    public synchronized long getLostCount() {
+        return lost;
+    }
+
+    /**
+     * Throughput and latency of each plugin that handled replayed packets, by plugin key.
+     * Throughput is over the time from the first replay to the last packet the plugin handled.
+     */
+    public synchronized List<PluginReport> getReport() {
+        List<PluginReport> report = new ArrayList<>();
+        for (Map.Entry<String, PluginStats> entry : pluginStats.entrySet()) {
+            PluginStats stats = entry.getValue();
+            long handled = stats.latency.getCount();
+            double seconds = (stats.lastHandledNanos - replayStartedNanos) / 1e9;
+            report.add(new PluginReport(entry.getKey(), handled, seconds > 0 ? handled / seconds : 0, stats.latency));
+        }
+        return Collections.unmodifiableList(report);
+    }
+
+    /**
+     * Forgets the measurements so far, to measure another replay on the same devices.
+     */
+    public synchronized void resetReport() {
+        injected.clear();
+        pluginStats.clear();
+        unhandled = 0;
+        lost = 0;
+        replayStartedNanos = 0;
+    }
+
+    /**
+     * Reads a trace with a packet per line, preceded by the milliseconds since the start
+     * of the trace: "1500 {"id":...,"type":"kdeconnect.mpris",...}". Blank lines and lines
+     * starting with # are ignored.
+     */
+    public static List<TracedPacket> readTrace(Reader reader) throws IOException {
+        List<TracedPacket> trace = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            try {
+                trace.add(new TracedPacket(Long.parseLong(line.substring(0, space)), NetworkPacket.unserialize(line.substring(space + 1))));
+            } catch (Exception e) {
+                Log.e("LoadGenerator", "Ignoring unreadable line " + lineNumber + " of the trace", e);
+            }
+        }
+        return trace;
+    }
+
+    //
+    // Traces shaped like what a desktop sends in a few common situations
+    //
+
+    /**
+     * A burst of notifications, like when the desktop syncs them after connecting.
+     */
+    public static List<TracedPacket> notificationTrace(int count, long intervalMs) {
+        List<TracedPacket> trace = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NetworkPacket np = new NetworkPacket("kdeconnect.notification");
+            np.set("id", "notification" + i);
+            np.set("appName", "Mail");
+            np.set("ticker", "New message from someone about something, number " + i);
+            np.set("title", "New message");
+            np.set("text", "About something, number " + i);
+            np.set("isClearable", true);
+            trace.add(new TracedPacket(i * intervalMs, np));
+        }
+        return trace;
+    }
+
+    /**
+     * Playback status updates of a player, as when seeking or skipping through a playlist.
+     */
+    public static List<TracedPacket> mprisTrace(int count, long intervalMs) {
+        List<TracedPacket> trace = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NetworkPacket np = new NetworkPacket("kdeconnect.mpris");
+            np.set("player", "VLC media player");
+            np.set("nowPlaying", "Artist - Song " + (i / 10));
+            np.set("title", "Song " + (i / 10));
+            np.set("artist", "Artist");
+            np.set("album", "Album");
+            np.set("isPlaying", true);
+            np.set("pos", i * 1000);
+            np.set("length", 240000);
+            np.set("volume", 100);
+            np.set("canPlay", true);
+            np.set("canPause", true);
+            np.set("canGoNext", true);
+            np.set("canGoPrevious", true);
+            np.set("canSeek", true);
+            trace.add(new TracedPacket(i * intervalMs, np));
+        }
+        return trace;
+    }
+
+    /**
+     * Keys typed on the desktop for the remote keyboard, the most frequent packets there are.
+     */
+    public static List<TracedPacket> mousePadTrace(int count, long intervalMs) {
+        String text = "the quick brown fox jumps over the lazy dog ";
+        List<TracedPacket> trace = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NetworkPacket np = new NetworkPacket("kdeconnect.mousepad.request");
+            np.set("key", String.valueOf(text.charAt(i % text.length())));
+            trace.add(new TracedPacket(i * intervalMs, np));
+        }
+        return trace;
+    }
+
+    private static class ZeroInputStream extends InputStream {
+        private long left;
+
+        ZeroInputStream(long size) {
+            left = Math.max(size, 0);
+        }
+
+        @Override
+        public int read() {
+            if (left <= 0) {
+                return -1;
+            }
+            left--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (left <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(length, left);
+            Arrays.fill(buffer, offset, offset + n, (byte) 0);
+            left -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(left, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.kde.kdeconnect;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.kde.kdeconnect.Helpers.Metrics;
+
+/**
+ * Answers a broadcast with the metrics as JSON, to pull them from a phone over adb:
+ *
+ * adb shell am broadcast -a org.kde.kdeconnect.action.DUMP_METRICS -n org.kde.kdeconnect_tp/org.kde.kdeconnect.MetricsDumpReceiver
+ *
+ * The JSON comes back as the result data of the broadcast. Add --ez reset true to start
+ * counting from zero afterwards. Only the shell and the system can send it (see the
+ * DUMP permission in the manifest).
+ */
+public class MetricsDumpReceiver extends BroadcastReceiver {
+
+    public static final String ACTION_DUMP_METRICS = "org.kde.kdeconnect.action.DUMP_METRICS";
+    public static final String EXTRA_RESET = "reset";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ACTION_DUMP_METRICS.equals(intent.getAction())) {
+            return;
+        }
+        try {
+            setResultData(Metrics.toJson().toString());
+            setResultCode(1);
+        } catch (JSONException e) {
+            Log.e("MetricsDumpReceiver", "Could not serialize the metrics", e);
+            setResultCode(0);
+            return;
+        }
+        if (intent.getBooleanExtra(EXTRA_RESET, false)) {
+            Metrics.reset();
+        }
+    }
+}
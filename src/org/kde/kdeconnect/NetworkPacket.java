@@ -26,12 +26,16 @@ import android.util.Log;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kde.kdeconnect.Backends.LanBackend.LanLink;
+import org.kde.kdeconnect.Helpers.CompressionHelper;
 import org.kde.kdeconnect.Helpers.DeviceHelper;
+import org.kde.kdeconnect.Helpers.StringsHelper;
 import org.kde.kdeconnect.Plugins.PluginFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -43,13 +47,20 @@ public class NetworkPacket {
     public final static String PACKET_TYPE_IDENTITY = "kdeconnect.identity";
     public final static String PACKET_TYPE_PAIR = "kdeconnect.pair";
     public final static String PACKET_TYPE_ENCRYPTED = "kdeconnect.encrypted";
+    public final static String PACKET_TYPE_COMPRESSED = "kdeconnect.compressed";
 
     public static Set<String> protocolPacketTypes = new HashSet<String>() {{
         add(PACKET_TYPE_IDENTITY);
         add(PACKET_TYPE_PAIR);
         add(PACKET_TYPE_ENCRYPTED);
+        add(PACKET_TYPE_COMPRESSED);
     }};
 
+    //Serialized identity packets by tcp port, see getIdentityPacketBytes
+    private static final HashMap<Integer, byte[]> identityPacketCache = new HashMap<>();
+    private static String identityPacketCacheDeviceName;
+    private static Set<String> identityPacketCacheCapabilities;
+
     private long mId;
     String mType;
     private JSONObject mBody;
@@ -57,6 +68,11 @@ public class NetworkPacket {
     private JSONObject mPayloadTransferInfo;
     private long mPayloadSize;
 
+    //Only used locally to decide what to send first, never sent
+    private Priority mPriority = Priority.Normal;
+    private long mDeadlineMs = 0;
+    private String mCollapseKey = null;
+
     private NetworkPacket() {
 
     }
@@ -78,6 +94,54 @@ public class NetworkPacket {
         return mId;
     }
 
+    /**
+     * How urgent sending this packet is. Packets waiting to be sent go out highest priority
+     * first, and in the order they were sent within the same priority.
+     */
+    public enum Priority {
+        Low,
+        Normal,
+        High
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Drops the packet instead of sending it if it's still waiting to be sent after this
+     * many milliseconds, for packets that are useless once they're late.
+     */
+    public void setExpiresIn(long timeoutMs) {
+        mDeadlineMs = System.currentTimeMillis() + timeoutMs;
+    }
+
+    //0 if it never expires
+    public long getDeadlineMs() {
+        return mDeadlineMs;
+    }
+
+    public boolean isExpired(long nowMs) {
+        return mDeadlineMs != 0 && nowMs >= mDeadlineMs;
+    }
+
+    /**
+     * Packets of the same type and collapse key replace each other: if one is still waiting
+     * to be sent when the next one is, only the newer is sent. For packets that carry a state,
+     * where only the latest one matters.
+     */
+    public void setCollapseKey(String collapseKey) {
+        mCollapseKey = collapseKey;
+    }
+
+    public String getCollapseKey() {
+        return mCollapseKey;
+    }
+
     //Most commons getters and setters defined for convenience
     public String getString(String key) {
         return mBody.optString(key, "");
@@ -236,6 +300,11 @@ public class NetworkPacket {
         return mBody.has(key);
     }
 
+    //Not a copy: for reading only
+    JSONObject getBody() {
+        return mBody;
+    }
+
     public String serialize() throws JSONException {
         JSONObject jo = new JSONObject();
         jo.put("id", mId);
@@ -251,6 +320,10 @@ public class NetworkPacket {
 
     static public NetworkPacket unserialize(String s) throws JSONException {
 
+        if (!s.isEmpty() && s.charAt(0) == CompactPacketCodec.MARKER) {
+            return CompactPacketCodec.decode(s);
+        }
+
         NetworkPacket np = new NetworkPacket();
         JSONObject jo = new JSONObject(s);
         np.mId = jo.getLong("id");
@@ -278,6 +351,9 @@ public class NetworkPacket {
             np.mBody.put("deviceType", DeviceHelper.getDeviceType(context).toString());
             np.mBody.put("incomingCapabilities", new JSONArray(PluginFactory.getIncomingCapabilities(context)));
             np.mBody.put("outgoingCapabilities", new JSONArray(PluginFactory.getOutgoingCapabilities(context)));
+            np.mBody.put(CompressionHelper.KEY_COMPRESSION, CompressionHelper.getSupportedCompressions());
+            np.mBody.put(CompactPacketCodec.KEY_COMPACT_ENCODING, CompactPacketCodec.VERSION);
+            np.mBody.put(LanLink.KEY_HEARTBEAT, LanLink.HEARTBEAT_VERSION);
         } catch (Exception e) {
             e.printStackTrace();
             Log.e("NetworkPacakge", "Exception on createIdentityPacket");
@@ -287,6 +363,33 @@ public class NetworkPacket {
 
     }
 
+    /**
+     * The serialized {@link #createIdentityPacket(Context)}, with "tcpPort" set if it's
+     * greater than 0. It's only rebuilt if the device name or our capabilities change,
+     * so the returned array is shared and must not be modified.
+     */
+    static public byte[] getIdentityPacketBytes(Context context, int tcpPort) throws JSONException {
+        String deviceName = DeviceHelper.getDeviceName(context);
+        Set<String> capabilities = PluginFactory.getIncomingCapabilities(context);
+        synchronized (identityPacketCache) {
+            if (!deviceName.equals(identityPacketCacheDeviceName) || capabilities != identityPacketCacheCapabilities) {
+                identityPacketCache.clear();
+                identityPacketCacheDeviceName = deviceName;
+                identityPacketCacheCapabilities = capabilities;
+            }
+            byte[] bytes = identityPacketCache.get(tcpPort);
+            if (bytes == null) {
+                NetworkPacket np = createIdentityPacket(context);
+                if (tcpPort > 0) {
+                    np.set("tcpPort", tcpPort);
+                }
+                bytes = np.serialize().getBytes(StringsHelper.UTF8);
+                identityPacketCache.put(tcpPort, bytes);
+            }
+            return bytes;
+        }
+    }
+
     public void setPayload(byte[] data) {
         setPayload(new ByteArrayInputStream(data), data.length);
     }
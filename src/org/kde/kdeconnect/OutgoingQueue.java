@@ -0,0 +1,197 @@
+package org.kde.kdeconnect;
+
+import android.util.Log;
+
+import org.kde.kdeconnect.Helpers.Metrics;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The packets a device has been asked to send and that haven't been sent yet. They are
+ * sent one at a time, highest priority first. A packet with a collapse key replaces the
+ * one of the same type and key that is still waiting, if any.
+ *
+ * Background packets may wait for the batching window of the TrafficScheduler. Every time
+ * the queue starts sending it sends everything that's waiting, background packets included,
+ * and that counts as a flush: roughly one radio wake-up.
+ */
+class OutgoingQueue implements TrafficScheduler.FlushListener {
+
+    interface Sender {
+        //Blocking
+        void send(NetworkPacket np, Device.SendPacketStatusCallback callback);
+    }
+
+    interface Timer {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    //Across the queues of all devices
+    private static final Metrics.Gauge queuedGauge = Metrics.gauge("send.queued");
+    private static final Metrics.Counter collapsedCounter = Metrics.counter("send.collapsed");
+    private static final Metrics.Counter flushCounter = Metrics.counter("send.flushes");
+
+    //How long to wait before trying again when there's no thread to send
+    static final long RETRY_DELAY_MS = 1000;
+
+    private final Sender sender;
+    private final Executor executor;
+    private final Timer timer;
+    private final TrafficScheduler trafficScheduler;
+    //By priority
+    private final ArrayDeque<Entry>[] queues;
+    private boolean scheduled = false;
+    private boolean flushTimerPending = false;
+    private long collapsed = 0;
+    private long flushes = 0;
+
+    OutgoingQueue(Sender sender) {
+        this(sender, ThreadHelper.io(), (task, delayMs) -> ThreadHelper.scheduler().schedule(task, delayMs, TimeUnit.MILLISECONDS),
+                TrafficScheduler.getInstance());
+    }
+
+    @SuppressWarnings("unchecked")
+    OutgoingQueue(Sender sender, Executor executor, Timer timer, TrafficScheduler trafficScheduler) {
+        this.sender = sender;
+        this.executor = executor;
+        this.timer = timer;
+        this.trafficScheduler = trafficScheduler;
+        trafficScheduler.addFlushListener(this);
+        queues = new ArrayDeque[NetworkPacket.Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    void offer(NetworkPacket np, Device.SendPacketStatusCallback callback) {
+        List<Entry> superseded = new ArrayList<>();
+        synchronized (this) {
+            if (np.getCollapseKey() != null) {
+                for (ArrayDeque<Entry> queue : queues) {
+                    Iterator<Entry> it = queue.iterator();
+                    while (it.hasNext()) {
+                        Entry entry = it.next();
+                        if (np.getType().equals(entry.np.getType()) && np.getCollapseKey().equals(entry.np.getCollapseKey())) {
+                            it.remove();
+                            superseded.add(entry);
+                        }
+                    }
+                }
+                collapsed += superseded.size();
+                collapsedCounter.add(superseded.size());
+                queuedGauge.add(-superseded.size());
+            }
+            queues[np.getPriority().ordinal()].add(new Entry(np, callback));
+            queuedGauge.add(1);
+            long windowMs = TrafficScheduler.canWait(np) ? trafficScheduler.getBatchingWindowMs() : 0;
+            if (windowMs == 0) {
+                startSending();
+            } else if (!flushTimerPending) {
+                //From the first packet that waits, so none waits longer than the window
+                flushTimerPending = true;
+                timer.schedule(this::flushTimerExpired, windowMs);
+            }
+        }
+        for (Entry entry : superseded) {
+            if (entry.callback != null && entry.np != np) {
+                entry.callback.onFailure(new CancellationException("Superseded by a newer " + np.getType()));
+            }
+        }
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (ArrayDeque<Entry> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    synchronized long getCollapsedCount() {
+        return collapsed;
+    }
+
+    synchronized long getFlushCount() {
+        return flushes;
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (size() > 0) {
+            startSending();
+        }
+    }
+
+    private synchronized void flushTimerExpired() {
+        flushTimerPending = false;
+        if (size() > 0) {
+            startSending();
+        }
+    }
+
+    //Must hold the lock
+    private void startSending() {
+        if (!scheduled) {
+            scheduled = true;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                //Everything stays queued, and goes with the next packet or the retry
+                scheduled = false;
+                Log.w("OutgoingQueue", "No thread to send " + size() + " packets, trying again in " + RETRY_DELAY_MS + "ms");
+                timer.schedule(this::flush, RETRY_DELAY_MS);
+                return;
+            }
+            flushes++;
+            flushCounter.inc();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = poll();
+                if (entry == null) {
+                    scheduled = false;
+                    return;
+                }
+                queuedGauge.add(-1);
+            }
+            try {
+                sender.send(entry.np, entry.callback);
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("OutgoingQueue", "Exception sending " + entry.np.getType());
+            }
+        }
+    }
+
+    private Entry poll() {
+        for (int i = queues.length - 1; i >= 0; i--) {
+            Entry entry = queues[i].poll();
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static class Entry {
+        final NetworkPacket np;
+        final Device.SendPacketStatusCallback callback;
+
+        Entry(NetworkPacket np, Device.SendPacketStatusCallback callback) {
+            this.np = np;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.kde.kdeconnect;
+
+import android.util.Log;
+
+import org.kde.kdeconnect.Helpers.LatencyHistogram;
+import org.kde.kdeconnect.Helpers.Metrics;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the packet handlers of every plugin on its own serial queue, so a slow plugin
+ * doesn't stop the link that received the packet, nor the other plugins of the device.
+ * The packets of a plugin are still handled one at a time and in the order they came.
+ *
+ * The queues share a thread pool, and every queue only gives up its thread after each
+ * packet, so a busy plugin can't starve the others.
+ */
+class PacketDispatcher {
+
+    //Past this many packets waiting for a plugin, new ones for it are dropped
+    static final int MAX_QUEUED_PACKETS = 256;
+    //Warn about packets that had to wait longer than this for their plugin
+    private static final long SLOW_QUEUE_LATENCY_MS = 1000;
+
+    //Across the queues of all devices
+    private static final Metrics.Gauge queuedGauge = Metrics.gauge("dispatch.queued");
+    private static final Metrics.Counter droppedCounter = Metrics.counter("dispatch.dropped");
+    private static final LatencyHistogram queueLatency = Metrics.histogram("dispatch.queue_latency");
+
+    private final Executor executor;
+    private final int maxQueuedPackets;
+    private final ConcurrentHashMap<String, PluginQueue> queues = new ConcurrentHashMap<>();
+
+    static class Stats {
+        final long handled;
+        final long dropped;
+        final long totalQueueLatencyMs;
+        final long maxQueueLatencyMs;
+
+        Stats(long handled, long dropped, long totalQueueLatencyMs, long maxQueueLatencyMs) {
+            this.handled = handled;
+            this.dropped = dropped;
+            this.totalQueueLatencyMs = totalQueueLatencyMs;
+            this.maxQueueLatencyMs = maxQueueLatencyMs;
+        }
+
+        long averageQueueLatencyMs() {
+            return handled > 0 ? totalQueueLatencyMs / handled : 0;
+        }
+    }
+
+    PacketDispatcher() {
+        this(ThreadHelper.io(), MAX_QUEUED_PACKETS);
+    }
+
+    PacketDispatcher(Executor executor, int maxQueuedPackets) {
+        this.executor = executor;
+        this.maxQueuedPackets = maxQueuedPackets;
+    }
+
+    /**
+     * Queues the handler of a packet for a plugin. Returns false if the packet was
+     * dropped because the plugin already has too many packets waiting.
+     */
+    boolean dispatch(String pluginKey, NetworkPacket np, Runnable handler) {
+        PluginQueue queue = queues.get(pluginKey);
+        if (queue == null) {
+            queue = new PluginQueue(pluginKey);
+            PluginQueue existing = queues.putIfAbsent(pluginKey, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        if (queue.offer(new Task(np, handler))) {
+            return true;
+        }
+        //Nobody is going to read the payload, close it so the transfer doesn't hang
+        InputStream payload = np.getPayload();
+        if (payload != null) {
+            try { payload.close(); } catch (Exception ignored) { }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the queue of a plugin, packets still waiting in it are not handled.
+     */
+    void remove(String pluginKey) {
+        PluginQueue queue = queues.remove(pluginKey);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    Stats getStats(String pluginKey) {
+        PluginQueue queue = queues.get(pluginKey);
+        if (queue == null) {
+            return new Stats(0, 0, 0, 0);
+        }
+        return queue.getStats();
+    }
+
+    private static class Task {
+        final NetworkPacket np;
+        final Runnable handler;
+        final long queuedAt = System.currentTimeMillis();
+
+        Task(NetworkPacket np, Runnable handler) {
+            this.np = np;
+            this.handler = handler;
+        }
+    }
+
+    private class PluginQueue implements Runnable {
+
+        private final String pluginKey;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        private long handled = 0;
+        private long dropped = 0;
+        private long totalQueueLatencyMs = 0;
+        private long maxQueueLatencyMs = 0;
+
+        PluginQueue(String pluginKey) {
+            this.pluginKey = pluginKey;
+        }
+
+        synchronized boolean offer(Task task) {
+            if (tasks.size() >= maxQueuedPackets) {
+                droppedCounter.inc();
+                if (dropped++ % 100 == 0) {
+                    Log.w("PacketDispatcher", pluginKey + " has " + tasks.size() + " packets waiting, dropping "
+                            + task.np.getType() + " (" + dropped + " dropped so far)");
+                }
+                return false;
+            }
+            tasks.add(task);
+            queuedGauge.add(1);
+            if (!scheduled) {
+                scheduled = true;
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    //Nothing would ever handle it, so it's dropped like when the queue is full
+                    scheduled = false;
+                    tasks.removeLast();
+                    queuedGauge.add(-1);
+                    droppedCounter.inc();
+                    dropped++;
+                    Log.w("PacketDispatcher", "No thread to handle " + task.np.getType() + " for " + pluginKey + ", dropping it");
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void clear() {
+            queuedGauge.add(-tasks.size());
+            tasks.clear();
+        }
+
+        synchronized Stats getStats() {
+            return new Stats(handled, dropped, totalQueueLatencyMs, maxQueueLatencyMs);
+        }
+
+        @Override
+        public void run() {
+            do {
+                handleNext();
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+            } while (!requeue());
+        }
+
+        //Go to the back of the line, to give the queues of other plugins a chance
+        private boolean requeue() {
+            try {
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                //No thread for another turn, keep going on this one
+                return false;
+            }
+        }
+
+        private void handleNext() {
+            Task task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    return;
+                }
+                queuedGauge.add(-1);
+                long latency = System.currentTimeMillis() - task.queuedAt;
+                queueLatency.record(latency * 1000);
+                handled++;
+                totalQueueLatencyMs += latency;
+                if (latency > maxQueueLatencyMs) {
+                    maxQueueLatencyMs = latency;
+                }
+                if (latency > SLOW_QUEUE_LATENCY_MS) {
+                    Log.w("PacketDispatcher", task.np.getType() + " waited " + latency + "ms for " + pluginKey
+                            + ", " + tasks.size() + " more packets waiting");
+                }
+            }
+
+            try {
+                task.handler.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+                Log.e("PacketDispatcher", "Exception in " + pluginKey + " handling " + task.np.getType());
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.kde.kdeconnect;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * Opt-in recording of the packets sent and received, to reproduce performance problems
+ * with the traffic of whoever hit them. Only metadata is written, never contents: the
+ * type, the size of the payload and, for every field of the body, its name and the kind
+ * and size of its value. PacketTraceReplayer turns that back into packets of the same
+ * shape.
+ *
+ * One record per line, tab separated:
+ * timestampMs  in|out  link  device  type  payloadSize  key:s12,key:n,key:b,key:a3,key:o
+ * where s is a string of that length, n a number, b a boolean, a an array of that length
+ * and o an object. Device ids are hashed.
+ *
+ * Records go to packet-trace.txt in the app's external files directory, which is rotated
+ * to packet-trace.1.txt and so on when it grows past MAX_FILE_BYTES.
+ */
+public final class PacketTraceRecorder {
+
+    public static final String KEY_RECORD_PACKET_TRACE = "record_packet_trace";
+
+    static final String HEADER = "# kdeconnect packet trace v1";
+    static final String FILE_NAME = "packet-trace";
+    static final long MAX_FILE_BYTES = 1024 * 1024;
+    static final int MAX_OLD_FILES = 3;
+
+    public static final String INCOMING = "in";
+    public static final String OUTGOING = "out";
+
+    private static volatile boolean enabled = false;
+
+    //Guarded by the class
+    private static File directory;
+    private static Writer writer;
+    private static long fileBytes;
+
+    private PacketTraceRecorder() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops recording. Stopping flushes what was recorded so far.
+     */
+    public static synchronized void setEnabled(Context context, boolean enable) {
+        if (enable == enabled) {
+            return;
+        }
+        if (enable) {
+            File dir = context.getExternalFilesDir(null);
+            directory = (dir != null) ? dir : context.getFilesDir();
+        } else {
+            closeFile();
+        }
+        enabled = enable;
+    }
+
+    /**
+     * Writes out what's buffered, so the file can be read.
+     */
+    public static synchronized void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                Log.e("PacketTraceRecorder", "Could not write the trace", e);
+            }
+        }
+    }
+
+    public static synchronized File getTraceFile() {
+        return (directory != null) ? new File(directory, FILE_NAME + ".txt") : null;
+    }
+
+    /**
+     * Records a packet if recording is enabled. Cheap to call when it isn't.
+     */
+    public static void record(String direction, String linkName, String deviceId, NetworkPacket np) {
+        if (!enabled) {
+            return;
+        }
+        String line = System.currentTimeMillis() + "\t" + direction + "\t" + linkName + "\t"
+                + Integer.toHexString(deviceId != null ? deviceId.hashCode() : 0) + "\t"
+                + np.getType() + "\t" + (np.hasPayload() ? Math.max(np.getPayloadSize(), 0) : 0) + "\t"
+                + describeBody(np.getBody()) + "\n";
+        write(line);
+    }
+
+    static String describeBody(JSONObject body) {
+        StringBuilder description = new StringBuilder();
+        Iterator<?> keys = body.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            if (!isPlainKey(key)) {
+                continue;
+            }
+            Object value = body.opt(key);
+            String kind;
+            if (value instanceof String) {
+                kind = "s" + ((String) value).length();
+            } else if (value instanceof Boolean) {
+                kind = "b";
+            } else if (value instanceof Number) {
+                kind = "n";
+            } else if (value instanceof JSONArray) {
+                kind = "a" + ((JSONArray) value).length();
+            } else if (value instanceof JSONObject) {
+                kind = "o";
+            } else {
+                continue; //null
+            }
+            if (description.length() > 0) {
+                description.append(',');
+            }
+            description.append(key).append(':').append(kind);
+        }
+        return description.toString();
+    }
+
+    //Field names are protocol constants, anything else we wouldn't be able to write back
+    private static boolean isPlainKey(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == ',' || c == ':' || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return !key.isEmpty();
+    }
+
+    private static synchronized void write(String line) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (writer == null || fileBytes >= MAX_FILE_BYTES) {
+                rotate();
+            }
+            writer.write(line);
+            fileBytes += line.length();
+        } catch (IOException e) {
+            Log.e("PacketTraceRecorder", "Could not write the trace, stopping", e);
+            closeFile();
+            enabled = false;
+        }
+    }
+
+    private static void rotate() throws IOException {
+        File current = new File(directory, FILE_NAME + ".txt");
+        if (writer != null || current.length() >= MAX_FILE_BYTES) {
+            closeFile();
+            new File(directory, FILE_NAME + "." + MAX_OLD_FILES + ".txt").delete();
+            for (int i = MAX_OLD_FILES - 1; i >= 1; i--) {
+                File old = new File(directory, FILE_NAME + "." + i + ".txt");
+                if (old.exists()) {
+                    old.renameTo(new File(directory, FILE_NAME + "." + (i + 1) + ".txt"));
+                }
+            }
+            current.renameTo(new File(directory, FILE_NAME + ".1.txt"));
+        }
+        boolean append = current.exists();
+        fileBytes = append ? current.length() : 0;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current, append), "UTF-8"), 8192);
+        if (!append) {
+            writer.write(HEADER + "\n");
+        }
+    }
+
+    private static void closeFile() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e("PacketTraceRecorder", "Could not close the trace", e);
+            }
+            writer = null;
+        }
+    }
+}
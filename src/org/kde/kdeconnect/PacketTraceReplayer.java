@@ -0,0 +1,173 @@
+package org.kde.kdeconnect;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.kde.kdeconnect.Backends.LoopbackBackend.LoopbackLinkProvider;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays a trace written by PacketTraceRecorder back into a Device on a loopback link, so
+ * the cost of handling some real traffic can be profiled the same way every time.
+ *
+ * Traces have no contents, so every packet is rebuilt from its shape: strings of 'x' of
+ * the recorded length, zeros, false, arrays of that many "x" and empty objects. Plugins
+ * that look into the values may take different paths than with the original packets.
+ */
+public class PacketTraceReplayer {
+
+    public static class Record {
+        public final long timestampMs;
+        public final boolean incoming;
+        public final String linkName;
+        public final String device;
+        public final String type;
+        public final long payloadSize;
+        public final String body;
+
+        Record(long timestampMs, boolean incoming, String linkName, String device, String type, long payloadSize, String body) {
+            this.timestampMs = timestampMs;
+            this.incoming = incoming;
+            this.linkName = linkName;
+            this.device = device;
+            this.type = type;
+            this.payloadSize = payloadSize;
+            this.body = body;
+        }
+    }
+
+    private final List<LoadGenerator.TracedPacket> trace;
+
+    /**
+     * @param records the trace; only the packets we received are replayed
+     */
+    public PacketTraceReplayer(List<Record> records) {
+        trace = toTrace(records);
+    }
+
+    public List<LoadGenerator.TracedPacket> getTrace() {
+        return trace;
+    }
+
+    /**
+     * Pairs a Device with a single loopback peer and sends it the whole trace, at the
+     * recorded pace if realTime is set or as fast as it's handled otherwise.
+     *
+     * @return how long each plugin took to handle the packets
+     */
+    public List<LoadGenerator.PluginReport> replay(Context context, boolean realTime, long timeoutMs) throws InterruptedException, JSONException {
+        LoadGenerator generator = new LoadGenerator(context, new LoopbackLinkProvider.LoadProfile(1, 0, 0, 0, 0));
+        generator.start();
+        try {
+            generator.replay(trace, realTime);
+            generator.awaitIdle(timeoutMs);
+            return generator.getReport();
+        } finally {
+            generator.stop();
+        }
+    }
+
+    /**
+     * Reads a trace file. Comments and lines that aren't records are skipped, so a file
+     * cut short while it was written can still be read.
+     */
+    public static List<Record> read(Reader reader) throws IOException {
+        List<Record> records = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 7) {
+                continue;
+            }
+            try {
+                records.add(new Record(Long.parseLong(fields[0]), PacketTraceRecorder.INCOMING.equals(fields[1]),
+                        fields[2], fields[3], fields[4], Long.parseLong(fields[5]), fields[6]));
+            } catch (NumberFormatException e) {
+                //Not a record
+            }
+        }
+        return records;
+    }
+
+    static List<LoadGenerator.TracedPacket> toTrace(List<Record> records) {
+        List<LoadGenerator.TracedPacket> trace = new ArrayList<>();
+        long first = -1;
+        for (Record record : records) {
+            if (!record.incoming) {
+                continue;
+            }
+            if (first < 0) {
+                first = record.timestampMs;
+            }
+            trace.add(new LoadGenerator.TracedPacket(Math.max(record.timestampMs - first, 0), synthesize(record)));
+        }
+        return trace;
+    }
+
+    static NetworkPacket synthesize(Record record) {
+        NetworkPacket np = new NetworkPacket(record.type);
+        if (!record.body.isEmpty()) {
+            for (String field : record.body.split(",")) {
+                int colon = field.lastIndexOf(':');
+                if (colon <= 0 || colon == field.length() - 1) {
+                    continue;
+                }
+                String key = field.substring(0, colon);
+                String kind = field.substring(colon + 1);
+                switch (kind.charAt(0)) {
+                    case 's':
+                        np.set(key, repeat('x', parseLength(kind)));
+                        break;
+                    case 'n':
+                        np.set(key, 0);
+                        break;
+                    case 'b':
+                        np.set(key, false);
+                        break;
+                    case 'a':
+                        JSONArray array = new JSONArray();
+                        for (int i = parseLength(kind); i > 0; i--) {
+                            array.put("x");
+                        }
+                        np.set(key, array);
+                        break;
+                    case 'o':
+                        np.set(key, new JSONObject());
+                        break;
+                }
+            }
+        }
+        if (record.payloadSize > 0) {
+            //Only the size matters: LoadGenerator sends fresh zeros with every copy
+            np.setPayload(new ByteArrayInputStream(new byte[0]), record.payloadSize);
+        }
+        return np;
+    }
+
+    private static int parseLength(String kind) {
+        try {
+            return Integer.parseInt(kind.substring(1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
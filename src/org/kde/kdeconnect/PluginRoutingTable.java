@@ -0,0 +1,117 @@
+package org.kde.kdeconnect;
+
+import org.kde.kdeconnect.Plugins.Plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which plugins of a device handle each incoming packet type: the loaded ones, and the
+ * enabled ones that haven't been created yet because they load on demand.
+ *
+ * Never modified once built: Device builds a new one every time its plugins change
+ * and publishes it through a volatile field, so the threads receiving packets can
+ * read it without taking any lock.
+ */
+final class PluginRoutingTable {
+
+    static final PluginRoutingTable EMPTY = new Builder().build();
+
+    private final Map<String, List<Plugin>> pluginsByIncomingType;
+    private final Map<String, List<String>> deferredPluginsByIncomingType;
+    private final Set<String> deferredPlugins;
+
+    private PluginRoutingTable(HashMap<String, List<Plugin>> pluginsByIncomingType,
+                               HashMap<String, List<String>> deferredPluginsByIncomingType) {
+        this.pluginsByIncomingType = freeze(pluginsByIncomingType);
+        this.deferredPluginsByIncomingType = freeze(deferredPluginsByIncomingType);
+        HashSet<String> deferred = new HashSet<>();
+        for (List<String> keys : deferredPluginsByIncomingType.values()) {
+            deferred.addAll(keys);
+        }
+        this.deferredPlugins = Collections.unmodifiableSet(deferred);
+    }
+
+    /**
+     * The loaded plugins that handle the type, in the order they were added. Never null.
+     */
+    List<Plugin> get(String packetType) {
+        List<Plugin> plugins = pluginsByIncomingType.get(packetType);
+        return plugins != null ? plugins : Collections.emptyList();
+    }
+
+    /**
+     * The keys of the plugins not created yet that handle the type. Never null.
+     */
+    List<String> getDeferred(String packetType) {
+        List<String> keys = deferredPluginsByIncomingType.get(packetType);
+        return keys != null ? keys : Collections.emptyList();
+    }
+
+    boolean isDeferred(String pluginKey) {
+        return deferredPlugins.contains(pluginKey);
+    }
+
+    /**
+     * A copy where a deferred plugin has been loaded, or dropped if plugin is null
+     * because it failed to load.
+     */
+    PluginRoutingTable withLoaded(String pluginKey, Plugin plugin) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, List<Plugin>> entry : pluginsByIncomingType.entrySet()) {
+            for (Plugin p : entry.getValue()) {
+                builder.add(entry.getKey(), p);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : deferredPluginsByIncomingType.entrySet()) {
+            for (String key : entry.getValue()) {
+                if (!key.equals(pluginKey)) {
+                    builder.addDeferred(entry.getKey(), key);
+                } else if (plugin != null) {
+                    builder.add(entry.getKey(), plugin);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static <T> Map<String, List<T>> freeze(HashMap<String, List<T>> map) {
+        for (Map.Entry<String, List<T>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    static class Builder {
+        private final HashMap<String, List<Plugin>> pluginsByIncomingType = new HashMap<>();
+        private final HashMap<String, List<String>> deferredPluginsByIncomingType = new HashMap<>();
+
+        Builder add(String packetType, Plugin plugin) {
+            addTo(pluginsByIncomingType, packetType, plugin);
+            return this;
+        }
+
+        Builder addDeferred(String packetType, String pluginKey) {
+            addTo(deferredPluginsByIncomingType, packetType, pluginKey);
+            return this;
+        }
+
+        private static <T> void addTo(HashMap<String, List<T>> map, String packetType, T value) {
+            List<T> values = map.get(packetType);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                map.put(packetType, values);
+            }
+            values.add(value);
+        }
+
+        PluginRoutingTable build() {
+            return new PluginRoutingTable(pluginsByIncomingType, deferredPluginsByIncomingType);
+        }
+    }
+}
@@ -40,7 +40,8 @@ public class BatteryPlugin extends Plugin {
     private static final int THRESHOLD_EVENT_NONE = 0;
     private static final int THRESHOLD_EVENT_BATTERY_LOW = 1;
 
-    private NetworkPacket batteryInfo = new NetworkPacket(PACKET_TYPE_BATTERY);
+    //The last state sent, never sent itself: queued packets must not change after the fact
+    private final NetworkPacket batteryInfo = new NetworkPacket(PACKET_TYPE_BATTERY);
 
     @Override
     public String getDisplayName() {
@@ -77,13 +78,31 @@ public class BatteryPlugin extends Plugin {
                 batteryInfo.set("currentCharge", currentCharge);
                 batteryInfo.set("isCharging", isCharging);
                 batteryInfo.set("thresholdEvent", thresholdEvent);
-                device.sendPacket(batteryInfo);
+                sendBatteryInfo(thresholdEvent == THRESHOLD_EVENT_NONE);
 
             }
 
         }
     };
 
+    /**
+     * @param canWait true for a plain level change, which can wait for the batching window
+     *                and be replaced by a newer one. Threshold events and replies are
+     *                sent right away and are never replaced.
+     */
+    private void sendBatteryInfo(boolean canWait) {
+        NetworkPacket np = new NetworkPacket(PACKET_TYPE_BATTERY);
+        np.set("currentCharge", batteryInfo.getInt("currentCharge"));
+        np.set("isCharging", batteryInfo.getBoolean("isCharging"));
+        np.set("thresholdEvent", batteryInfo.getInt("thresholdEvent"));
+        if (canWait) {
+            //Only the latest state matters
+            np.setCollapseKey(PACKET_TYPE_BATTERY);
+            np.setPriority(NetworkPacket.Priority.Low);
+        }
+        device.sendPacket(np);
+    }
+
     @Override
     public boolean onCreate() {
         IntentFilter intentFilter = new IntentFilter();
@@ -103,7 +122,7 @@ public class BatteryPlugin extends Plugin {
     public boolean onPacketReceived(NetworkPacket np) {
 
         if (np.getBoolean("request")) {
-            device.sendPacket(batteryInfo);
+            sendBatteryInfo(false);
         }
 
         return true;
@@ -89,6 +89,11 @@ public class ContactsPlugin extends Plugin {
         return context.getResources().getString(R.string.pref_plugin_contacts_desc);
     }
 
+    @Override
+    public boolean loadsOnDemand() {
+        return true;
+    }
+
     @Override
     public String[] getSupportedPacketTypes() {
         return new String[]{
@@ -61,6 +61,11 @@ public class FindMyPhonePlugin extends Plugin {
 
     }
 
+    @Override
+    public boolean loadsOnDemand() {
+        return true;
+    }
+
     @Override
     public String[] getSupportedPacketTypes() {
         return new String[]{PACKET_TYPE_FINDMYPHONE_REQUEST};
@@ -34,6 +34,9 @@ public class MousePadPlugin extends Plugin {
     //public final static String PACKET_TYPE_MOUSEPAD = "kdeconnect.mousepad";
     public final static String PACKET_TYPE_MOUSEPAD_REQUEST = "kdeconnect.mousepad.request";
 
+    //Movements that couldn't be sent in this time would only make the pointer jump
+    private final static long MOVEMENT_EXPIRY_MS = 500;
+
     @Override
     public String getDisplayName() {
         return context.getString(R.string.pref_plugin_mousepad);
@@ -90,38 +93,39 @@ public class MousePadPlugin extends Plugin {
 
         np.set("dx", dx * sensitivity);
         np.set("dy", dy * sensitivity);
+        np.setExpiresIn(MOVEMENT_EXPIRY_MS);
 
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendSingleClick() {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST);
         np.set("singleclick", true);
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendDoubleClick() {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST);
         np.set("doubleclick", true);
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendMiddleClick() {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST);
         np.set("middleclick", true);
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendRightClick() {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST);
         np.set("rightclick", true);
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendSingleHold() {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST);
         np.set("singlehold", true);
-        device.sendPacket(np);
+        sendInput(np);
     }
 
     public void sendScroll(float dx, float dy) {
@@ -129,10 +133,17 @@ public class MousePadPlugin extends Plugin {
         np.set("scroll", true);
         np.set("dx", dx);
         np.set("dy", dy);
-        device.sendPacket(np);
+        np.setExpiresIn(MOVEMENT_EXPIRY_MS);
+        sendInput(np);
     }
 
     public void sendKeyboardPacket(NetworkPacket np) {
+        sendInput(np);
+    }
+
+    //All at the same priority, so clicks and keys don't overtake the movements before them
+    private void sendInput(NetworkPacket np) {
+        np.setPriority(NetworkPacket.Priority.High);
         device.sendPacket(np);
     }
 
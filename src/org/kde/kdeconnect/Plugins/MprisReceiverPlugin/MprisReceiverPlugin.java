@@ -113,7 +113,8 @@ public class MprisReceiverPlugin extends Plugin implements MediaSessionManager.O
         }
 
         if (np.getBoolean("requestNowPlaying", false)) {
-            sendMetadata(player);
+            //The desktop is waiting for this one
+            sendMetadata(player, NetworkPacket.Priority.Normal);
             return true;
         }
 
@@ -176,6 +177,7 @@ public class MprisReceiverPlugin extends Plugin implements MediaSessionManager.O
         NetworkPacket np = new NetworkPacket(MprisReceiverPlugin.PACKET_TYPE_MPRIS);
         np.set("player", player.getName());
         np.set("isPlaying", player.isPlaying());
+        np.setCollapseKey("playing " + player.getName());
         device.sendPacket(np);
     }
 
@@ -184,7 +186,12 @@ public class MprisReceiverPlugin extends Plugin implements MediaSessionManager.O
         return Build.VERSION_CODES.LOLLIPOP_MR1;
     }
 
+    //Track changes and position updates can wait while the phone isn't being used
     public void sendMetadata(MprisReceiverPlayer player) {
+        sendMetadata(player, NetworkPacket.Priority.Low);
+    }
+
+    private void sendMetadata(MprisReceiverPlayer player, NetworkPacket.Priority priority) {
         NetworkPacket np = new NetworkPacket(MprisReceiverPlugin.PACKET_TYPE_MPRIS);
         np.set("player", player.getName());
         if (player.getArtist().isEmpty()) {
@@ -197,6 +204,8 @@ public class MprisReceiverPlugin extends Plugin implements MediaSessionManager.O
         np.set("album", player.getAlbum());
         np.set("isPlaying", player.isPlaying());
         np.set("pos", player.getPosition());
+        np.setCollapseKey("metadata " + player.getName());
+        np.setPriority(priority);
         device.sendPacket(np);
     }
 
@@ -204,6 +213,7 @@ public class MprisReceiverPlugin extends Plugin implements MediaSessionManager.O
         NetworkPacket np = new NetworkPacket(MprisReceiverPlugin.PACKET_TYPE_MPRIS);
         np.set("player", player.getName());
         np.set("volume", player.getVolume());
+        np.setCollapseKey("volume " + player.getName());
         device.sendPacket(np);
     }
 
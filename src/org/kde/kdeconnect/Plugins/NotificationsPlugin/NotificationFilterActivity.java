@@ -28,6 +28,7 @@ import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v7.app.AppCompatActivity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -39,15 +40,21 @@ import android.widget.ListView;
 
 import org.kde.kdeconnect.BackgroundService;
 import org.kde.kdeconnect.Helpers.StringsHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.UserInterface.ThemeUtil;
 import org.kde.kdeconnect_tp.R;
 
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class NotificationFilterActivity extends AppCompatActivity {
 
+    //When the cpu pool is full, how long until we try again
+    private static final long RETRY_DELAY_MS = 500;
+
     private AppDatabase appDatabase;
 
     static class AppListInfo {
@@ -98,27 +105,39 @@ public class NotificationFilterActivity extends AppCompatActivity {
         setContentView(R.layout.activity_notification_filter);
         appDatabase = new AppDatabase(NotificationFilterActivity.this, false);
 
-        new Thread(() -> {
-
-            PackageManager packageManager = getPackageManager();
-            List<ApplicationInfo> appList = packageManager.getInstalledApplications(0);
-            int count = appList.size();
+        loadAppList();
+    }
 
-            apps = new AppListInfo[count];
-            for (int i = 0; i < count; i++) {
-                ApplicationInfo appInfo = appList.get(i);
-                apps[i] = new AppListInfo();
-                apps[i].pkg = appInfo.packageName;
-                apps[i].name = appInfo.loadLabel(packageManager).toString();
-                apps[i].icon = resizeIcon(appInfo.loadIcon(packageManager), 48);
-                apps[i].isEnabled = appDatabase.isEnabled(appInfo.packageName);
-            }
+    private void loadAppList() {
+        if (isFinishing()) {
+            return;
+        }
+        try {
+            ThreadHelper.cpu().execute(this::readAppList);
+        } catch (RejectedExecutionException e) {
+            Log.w("NotificationFilterActivity", "No thread to load the app list, trying again in " + RETRY_DELAY_MS + "ms");
+            ThreadHelper.scheduler().schedule(this::loadAppList, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-            Arrays.sort(apps, (lhs, rhs) -> StringsHelper.compare(lhs.name, rhs.name));
+    private void readAppList() {
+        PackageManager packageManager = getPackageManager();
+        List<ApplicationInfo> appList = packageManager.getInstalledApplications(0);
+        int count = appList.size();
+
+        apps = new AppListInfo[count];
+        for (int i = 0; i < count; i++) {
+            ApplicationInfo appInfo = appList.get(i);
+            apps[i] = new AppListInfo();
+            apps[i].pkg = appInfo.packageName;
+            apps[i].name = appInfo.loadLabel(packageManager).toString();
+            apps[i].icon = resizeIcon(appInfo.loadIcon(packageManager), 48);
+            apps[i].isEnabled = appDatabase.isEnabled(appInfo.packageName);
+        }
 
-            runOnUiThread(this::displayAppList);
-        }).start();
+        Arrays.sort(apps, (lhs, rhs) -> StringsHelper.compare(lhs.name, rhs.name));
 
+        runOnUiThread(this::displayAppList);
     }
 
     private void displayAppList() {
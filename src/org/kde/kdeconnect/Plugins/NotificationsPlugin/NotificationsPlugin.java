@@ -144,6 +144,9 @@ public class NotificationsPlugin extends Plugin implements NotificationReceiver.
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_NOTIFICATION);
         np.set("id", id);
         np.set("isCancel", true);
+        np.setPriority(NetworkPacket.Priority.Low);
+        //If it was never sent, no need to send it at all
+        np.setCollapseKey(id);
         device.sendPacket(np);
     }
 
@@ -246,6 +249,7 @@ public class NotificationsPlugin extends Plugin implements NotificationReceiver.
         np.set("text", getNotificationText(notification));
         np.set("time", Long.toString(statusBarNotification.getPostTime()));
 
+        np.setCollapseKey(key);
         device.sendPacket(np);
     }
 
@@ -68,6 +68,16 @@ public abstract class Plugin {
         return false;
     }
 
+    /**
+     * Returns whether this plugin can wait to be created until it receives its first
+     * package or the user interface asks for it, when lazy plugin loading is enabled.
+     * Only for plugins that don't do anything on their own, nor show a button in the
+     * device screen. By default, returns false.
+     */
+    public boolean loadsOnDemand() {
+        return false;
+    }
+
     /**
      * Return the internal plugin name, that will be used as a
      * unique key to distinguish it. Use the class name as key.
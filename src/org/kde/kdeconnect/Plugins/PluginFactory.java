@@ -21,10 +21,14 @@
 package org.kde.kdeconnect.Plugins;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
+import android.preference.PreferenceManager;
+import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.Metrics;
 import org.kde.kdeconnect.Plugins.BatteryPlugin.BatteryPlugin;
 import org.kde.kdeconnect.Plugins.ClibpoardPlugin.ClipboardPlugin;
 import org.kde.kdeconnect.Plugins.ContactsPlugin.ContactsPlugin;
@@ -47,6 +51,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PluginFactory {
 
@@ -54,19 +59,23 @@ public class PluginFactory {
 
         public PluginInfo(String displayName, String description, Drawable icon,
                           boolean enabledByDefault, boolean hasSettings, boolean listenToUnpaired,
-                          String[] supportedPacketTypes, String[] outgoingPacketTypes) {
+                          boolean loadsOnDemand, String[] supportedPacketTypes, String[] outgoingPacketTypes,
+                          int minSdk, String[] requiredPermissions) {
             this.displayName = displayName;
             this.description = description;
             this.icon = icon;
             this.enabledByDefault = enabledByDefault;
             this.hasSettings = hasSettings;
             this.listenToUnpaired = listenToUnpaired;
+            this.loadsOnDemand = loadsOnDemand;
             HashSet<String> incoming = new HashSet<>();
             if (supportedPacketTypes != null) Collections.addAll(incoming, supportedPacketTypes);
             this.supportedPacketTypes = Collections.unmodifiableSet(incoming);
             HashSet<String> outgoing = new HashSet<>();
             if (outgoingPacketTypes != null) Collections.addAll(outgoing, outgoingPacketTypes);
             this.outgoingPacketTypes = Collections.unmodifiableSet(outgoing);
+            this.minSdk = minSdk;
+            this.requiredPermissions = requiredPermissions != null ? requiredPermissions : new String[0];
         }
 
         public String getDisplayName() {
@@ -93,6 +102,10 @@ public class PluginFactory {
             return listenToUnpaired;
         }
 
+        public boolean loadsOnDemand() {
+            return loadsOnDemand;
+        }
+
         public Set<String> getOutgoingPacketTypes() {
             return outgoingPacketTypes;
         }
@@ -101,19 +114,42 @@ public class PluginFactory {
             return supportedPacketTypes;
         }
 
+        public int getMinSdk() {
+            return minSdk;
+        }
+
+        public boolean arePermissionsGranted(Context context) {
+            for (String permission : requiredPermissions) {
+                if (ContextCompat.checkSelfPermission(context, permission) != PackageManager.PERMISSION_GRANTED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         private final String displayName;
         private final String description;
         private final Drawable icon;
         private final boolean enabledByDefault;
         private final boolean hasSettings;
         private final boolean listenToUnpaired;
+        private final boolean loadsOnDemand;
         private final Set<String> supportedPacketTypes;
         private final Set<String> outgoingPacketTypes;
+        private final int minSdk;
+        private final String[] requiredPermissions;
 
     }
 
+    //Opt-in: create the plugins that support it on their first package instead of when the device connects
+    public static final String KEY_LAZY_LOADING = "lazy_plugin_loading";
+
     private static final Map<String, Class> availablePlugins = new TreeMap<>();
-    private static final Map<String, PluginInfo> pluginInfoCache = new TreeMap<>();
+    private static final Map<String, PluginInfo> pluginInfoCache = new ConcurrentHashMap<>();
+
+    //Computed once, they are sent in every identity packet and only change if a plugin is registered
+    private static volatile Set<String> incomingCapabilities;
+    private static volatile Set<String> outgoingCapabilities;
 
     static {
         PluginFactory.registerPlugin(TelephonyPlugin.class);
@@ -146,7 +182,8 @@ public class PluginFactory {
             p.setContext(context, null);
             info = new PluginInfo(p.getDisplayName(), p.getDescription(), p.getIcon(),
                     p.isEnabledByDefault(), p.hasSettings(), p.listensToUnpairedDevices(),
-                    p.getSupportedPacketTypes(), p.getOutgoingPacketTypes());
+                    p.loadsOnDemand(), p.getSupportedPacketTypes(), p.getOutgoingPacketTypes(),
+                    p.getMinSdk(), p.getRequiredPermissions());
             pluginInfoCache.put(pluginKey, info); //Cache it
             return info;
         } catch (Exception e) {
@@ -157,6 +194,10 @@ public class PluginFactory {
 
     }
 
+    public static boolean isLazyLoadingEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_LAZY_LOADING, false);
+    }
+
     public static Set<String> getAvailablePlugins() {
         return availablePlugins.keySet();
     }
@@ -184,6 +225,10 @@ public class PluginFactory {
         try {
             String pluginKey = Plugin.getPluginKey(pluginClass);
             availablePlugins.put(pluginKey, pluginClass);
+            synchronized (PluginFactory.class) {
+                incomingCapabilities = null;
+                outgoingCapabilities = null;
+            }
         } catch (Exception e) {
             Log.e("PluginFactory", "addPlugin exception");
             e.printStackTrace();
@@ -192,22 +237,38 @@ public class PluginFactory {
 
 
     public static Set<String> getIncomingCapabilities(Context context) {
-        HashSet<String> capabilities = new HashSet<>();
-        for (String pluginId : availablePlugins.keySet()) {
-            PluginInfo plugin = getPluginInfo(context, pluginId);
-            capabilities.addAll(plugin.getSupportedPacketTypes());
+        Set<String> capabilities = incomingCapabilities;
+        if (capabilities == null) {
+            computeCapabilities(context);
+            capabilities = incomingCapabilities;
         }
-
         return capabilities;
     }
 
     public static Set<String> getOutgoingCapabilities(Context context) {
-        HashSet<String> capabilities = new HashSet<>();
+        Set<String> capabilities = outgoingCapabilities;
+        if (capabilities == null) {
+            computeCapabilities(context);
+            capabilities = outgoingCapabilities;
+        }
+        return capabilities;
+    }
+
+    private static synchronized void computeCapabilities(Context context) {
+        if (incomingCapabilities != null && outgoingCapabilities != null) {
+            return;
+        }
+        HashSet<String> incoming = new HashSet<>();
+        HashSet<String> outgoing = new HashSet<>();
         for (String pluginId : availablePlugins.keySet()) {
             PluginInfo plugin = getPluginInfo(context, pluginId);
-            capabilities.addAll(plugin.getOutgoingPacketTypes());
+            incoming.addAll(plugin.getSupportedPacketTypes());
+            outgoing.addAll(plugin.getOutgoingPacketTypes());
         }
-        return capabilities;
+        incomingCapabilities = Collections.unmodifiableSet(incoming);
+        outgoingCapabilities = Collections.unmodifiableSet(outgoing);
+        Metrics.addKnownPacketTypes(incoming);
+        Metrics.addKnownPacketTypes(outgoing);
     }
 
     public static Set<String> pluginsForCapabilities(Context context, Set<String> incoming, Set<String> outgoing) {
@@ -0,0 +1,233 @@
+package org.kde.kdeconnect.Plugins.SftpPlugin;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of file attributes and directory listings, so sshfs can stat
+ * every entry of a big folder over and over without hitting the filesystem.
+ *
+ * Entries are grouped by parent directory and every cached directory is watched
+ * with a {@link FileObserver}, which drops the affected entries when something
+ * changes on disk. Directories are evicted in LRU order.
+ */
+class SftpFileCache {
+
+    private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MODIFY
+            | FileObserver.ATTRIB | FileObserver.CLOSE_WRITE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    static final int MAX_DIRECTORIES = 32;
+    static final int MAX_ENTRIES = 50000;
+
+    static class Attributes {
+        final boolean exists;
+        final boolean isDirectory;
+        final boolean isFile;
+        final boolean readable;
+        final boolean writable;
+        final boolean executable;
+        final long size;
+        final long lastModified;
+
+        Attributes(boolean exists, boolean isDirectory, boolean isFile, boolean readable, boolean writable,
+                   boolean executable, long size, long lastModified) {
+            this.exists = exists;
+            this.isDirectory = isDirectory;
+            this.isFile = isFile;
+            this.readable = readable;
+            this.writable = writable;
+            this.executable = executable;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private class Directory extends FileObserver {
+        final String path;
+        final HashMap<String, Attributes> children = new HashMap<>();
+        List<String> listing;
+
+        Directory(String path) {
+            super(path, OBSERVED_EVENTS);
+            this.path = path;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            onDirectoryEvent(this, event & FileObserver.ALL_EVENTS, name);
+        }
+    }
+
+    private final int maxDirectories;
+    private final int maxEntries;
+    //Access-ordered, so iteration starts at the least recently used directory
+    private final LinkedHashMap<String, Directory> directories = new LinkedHashMap<>(16, 0.75f, true);
+    private int entryCount = 0;
+
+    SftpFileCache() {
+        this(MAX_DIRECTORIES, MAX_ENTRIES);
+    }
+
+    SftpFileCache(int maxDirectories, int maxEntries) {
+        this.maxDirectories = maxDirectories;
+        this.maxEntries = maxEntries;
+    }
+
+    synchronized Attributes getAttributes(String path) {
+        Directory dir = directories.get(parentOf(path));
+        if (dir == null) {
+            return null;
+        }
+        return dir.children.get(nameOf(path));
+    }
+
+    synchronized void putAttributes(String path, Attributes attributes) {
+        Directory dir = getOrCreateDirectory(parentOf(path));
+        if (dir.children.put(nameOf(path), attributes) == null) {
+            entryCount++;
+        }
+        trim();
+    }
+
+    synchronized List<String> getListing(String path) {
+        Directory dir = directories.get(path);
+        if (dir == null) {
+            return null;
+        }
+        return dir.listing;
+    }
+
+    synchronized void putListing(String path, List<String> names) {
+        Directory dir = getOrCreateDirectory(path);
+        if (dir.listing != null) {
+            entryCount -= dir.listing.size();
+        }
+        dir.listing = names;
+        entryCount += names.size();
+        trim();
+    }
+
+    /**
+     * Drops everything we know about a path, for changes made through the server
+     * itself, which we don't want to wait for the FileObserver to report.
+     */
+    synchronized void invalidate(String path) {
+        String parent = parentOf(path);
+        Directory dir = directories.get(parent);
+        if (dir != null) {
+            forgetChild(dir, nameOf(path), true);
+        }
+        Directory self = directories.get(path);
+        if (self != null) {
+            removeDirectory(self);
+        }
+    }
+
+    synchronized int getEntryCount() {
+        return entryCount;
+    }
+
+    synchronized void clear() {
+        for (Directory dir : directories.values()) {
+            dir.stopWatching();
+        }
+        directories.clear();
+        entryCount = 0;
+    }
+
+    private synchronized void onDirectoryEvent(Directory dir, int event, String name) {
+        if (directories.get(dir.path) != dir) {
+            return; //Already evicted
+        }
+        if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0 || name == null) {
+            invalidate(dir.path);
+            return;
+        }
+        boolean namesChanged = (event & (FileObserver.CREATE | FileObserver.DELETE
+                | FileObserver.MOVED_FROM | FileObserver.MOVED_TO)) != 0;
+        forgetChild(dir, name, namesChanged);
+        Directory child = directories.get(childOf(dir.path, name));
+        if (child != null && namesChanged) {
+            removeDirectory(child);
+        }
+    }
+
+    private void forgetChild(Directory dir, String name, boolean namesChanged) {
+        if (dir.children.remove(name) != null) {
+            entryCount--;
+        }
+        if (namesChanged && dir.listing != null) {
+            entryCount -= dir.listing.size();
+            dir.listing = null;
+        }
+        //The modification time of the directory itself changes too
+        Directory parent = directories.get(parentOf(dir.path));
+        if (parent != null && parent.children.remove(nameOf(dir.path)) != null) {
+            entryCount--;
+        }
+    }
+
+    private Directory getOrCreateDirectory(String path) {
+        Directory dir = directories.get(path);
+        if (dir == null) {
+            dir = new Directory(path);
+            dir.startWatching();
+            directories.put(path, dir);
+        }
+        return dir;
+    }
+
+    private void removeDirectory(Directory dir) {
+        dir.stopWatching();
+        directories.remove(dir.path);
+        entryCount -= dir.children.size();
+        if (dir.listing != null) {
+            entryCount -= dir.listing.size();
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Directory>> it = directories.entrySet().iterator();
+        //Never evict the directory we've just touched, which is the last one
+        while ((directories.size() > maxDirectories || entryCount > maxEntries) && directories.size() > 1) {
+            Directory eldest = it.next().getValue();
+            eldest.stopWatching();
+            it.remove();
+            entryCount -= eldest.children.size();
+            if (eldest.listing != null) {
+                entryCount -= eldest.listing.size();
+            }
+        }
+    }
+
+    static List<String> sortedNames(File[] files) {
+        ArrayList<String> names = new ArrayList<>(files.length);
+        for (File f : files) {
+            names.add(f.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : "/";
+    }
+
+    private static String childOf(String path, String name) {
+        return path.equals("/") ? "/" + name : path + "/" + name;
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
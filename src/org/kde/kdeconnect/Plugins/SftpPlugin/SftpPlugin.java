@@ -61,6 +61,11 @@ public class SftpPlugin extends Plugin {
         server.stop();
     }
 
+    @Override
+    public boolean hasSettings() {
+        return true;
+    }
+
     @Override
     public boolean onPacketReceived(NetworkPacket np) {
 
@@ -113,6 +118,16 @@ public class SftpPlugin extends Plugin {
                             pathNames.add(context.getString(R.string.sftp_camera));
                         }
                     }
+
+                    //Same tree, but with small thumbnails instead of the full images
+                    if (server.hasThumbnails()) {
+                        paths.add(SftpThumbnailTree.ROOT + storage.path);
+                        if (storageList.size() > 1) {
+                            pathNames.add(context.getString(R.string.sftp_thumbnails) + "(" + pathName + ")");
+                        } else {
+                            pathNames.add(context.getString(R.string.sftp_thumbnails));
+                        }
+                    }
                 }
 
                 if (paths.size() > 0) {
@@ -134,6 +149,11 @@ public class SftpPlugin extends Plugin {
         return new String[]{Manifest.permission.READ_EXTERNAL_STORAGE};
     }
 
+    @Override
+    public boolean loadsOnDemand() {
+        return true;
+    }
+
     @Override
     public String[] getSupportedPacketTypes() {
         return new String[]{PACKET_TYPE_SFTP_REQUEST};
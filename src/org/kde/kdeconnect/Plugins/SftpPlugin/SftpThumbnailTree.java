@@ -0,0 +1,370 @@
+package org.kde.kdeconnect.Plugins.SftpPlugin;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import org.apache.sshd.server.SshFile;
+import org.apache.sshd.server.filesystem.NativeSshFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only virtual tree that mirrors the real filesystem under {@link #ROOT}, but
+ * only contains folders and images, and serves the MediaStore thumbnail of each
+ * image instead of the image itself. Thumbnails are generated the first time they
+ * are opened and kept in the cache directory, as long as the image doesn't change.
+ * Images MediaStore hasn't indexed yet are served as they are. The cache is kept under
+ * {@link #MAX_CACHE_BYTES} by deleting the thumbnails that were used least recently.
+ *
+ * Eg: /kdeconnect_thumbnails/storage/emulated/0/DCIM/Camera/IMG_1.jpg is the
+ * thumbnail of /storage/emulated/0/DCIM/Camera/IMG_1.jpg
+ */
+class SftpThumbnailTree {
+
+    static final String ROOT = "/kdeconnect_thumbnails";
+
+    //Mini thumbnails are ~20KB, so this is a few thousand of them
+    static final long MAX_CACHE_BYTES = 64 * 1024 * 1024;
+
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".gif", ".bmp"};
+
+    private final Context context;
+    private final File cacheRoot;
+    private final long maxCacheBytes;
+    //One per image being generated, so generating a thumbnail doesn't hold up the others
+    final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    //Size of the cache directory, -1 until it has been measured. Guarded by cacheRoot
+    private long cacheBytes = -1;
+
+    SftpThumbnailTree(Context context) {
+        this(context, MAX_CACHE_BYTES);
+    }
+
+    SftpThumbnailTree(Context context, long maxCacheBytes) {
+        this.context = context;
+        this.cacheRoot = new File(context.getCacheDir(), "sftp_thumbnails");
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    static boolean contains(String path) {
+        return path.equals(ROOT) || path.startsWith(ROOT + "/");
+    }
+
+    SshFile getFile(String virtualPath, String userName) {
+        String realPath = virtualPath.substring(ROOT.length());
+        if (realPath.isEmpty()) {
+            realPath = "/";
+        }
+        return new ThumbnailSshFile(virtualPath, new File(realPath), userName);
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    File thumbnailPathFor(File image) {
+        return new File(cacheRoot, image.getAbsolutePath() + ".jpg");
+    }
+
+    private File cachedThumbnailFor(File image) {
+        File thumbnail = thumbnailPathFor(image);
+        return thumbnail.exists() && thumbnail.lastModified() >= image.lastModified() ? thumbnail : null;
+    }
+
+    private File thumbnailFor(File image) {
+        File cached = cachedThumbnailFor(image);
+        if (cached != null) {
+            cached.setLastModified(System.currentTimeMillis()); //Recently used, see trimCache
+            return cached;
+        }
+        String path = image.getAbsolutePath();
+        Object lock = new Object();
+        Object existingLock = locks.putIfAbsent(path, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
+        try {
+            //sshfs asks for the same one several times in a row, only generate it once
+            synchronized (lock) {
+                if (cachedThumbnailFor(image) != null) {
+                    return thumbnailPathFor(image);
+                }
+                return generateThumbnail(image);
+            }
+        } finally {
+            locks.remove(path, lock);
+        }
+    }
+
+    private File generateThumbnail(File image) {
+        Bitmap bitmap = loadThumbnail(image);
+        if (bitmap == null) {
+            return null;
+        }
+        File thumbnail = thumbnailPathFor(image);
+        thumbnail.getParentFile().mkdirs();
+        //Written aside and then renamed, so getSize never sees half of it
+        File partial = new File(thumbnail.getPath() + ".part");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(partial);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+        } catch (IOException e) {
+            Log.e("SftpThumbnailTree", "Could not store thumbnail for " + image, e);
+            partial.delete();
+            return null;
+        } finally {
+            bitmap.recycle();
+            try { out.close(); } catch (Exception ignored) { }
+        }
+        if (!partial.renameTo(thumbnail)) {
+            partial.delete();
+            return null;
+        }
+        thumbnailStored(thumbnail.length());
+        return thumbnail;
+    }
+
+    private void thumbnailStored(long bytes) {
+        synchronized (cacheRoot) {
+            if (cacheBytes < 0) {
+                cacheBytes = trimCache(); //Measures what previous runs left
+            } else {
+                cacheBytes += bytes;
+                if (cacheBytes > maxCacheBytes) {
+                    cacheBytes = trimCache();
+                }
+            }
+        }
+    }
+
+    /**
+     * If the cache is over its limit, deletes the thumbnails used least recently until
+     * it's down to three quarters of it. Returns the size of what's left.
+     */
+    long trimCache() {
+        synchronized (cacheRoot) {
+            ArrayList<File> files = new ArrayList<>();
+            listFiles(cacheRoot, files);
+            long total = 0;
+            //Taken once, the sort must not see them change
+            final HashMap<File, Long> lastUsed = new HashMap<>();
+            for (File file : files) {
+                total += file.length();
+                lastUsed.put(file, file.lastModified());
+            }
+            if (total <= maxCacheBytes) {
+                return total;
+            }
+            Collections.sort(files, (lhs, rhs) -> lastUsed.get(lhs).compareTo(lastUsed.get(rhs)));
+            for (File file : files) {
+                if (total <= maxCacheBytes / 4 * 3) {
+                    break;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+            Log.i("SftpThumbnailTree", "Trimmed the thumbnail cache to " + total + " bytes");
+            return total;
+        }
+    }
+
+    private static void listFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    private Bitmap loadThumbnail(File image) {
+        ContentResolver resolver = context.getContentResolver();
+        Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Images.Media._ID},
+                MediaStore.Images.Media.DATA + " = ?",
+                new String[]{image.getAbsolutePath()}, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null; //Not indexed (yet)
+            }
+            long id = cursor.getLong(0);
+            return MediaStore.Images.Thumbnails.getThumbnail(resolver, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    class ThumbnailSshFile extends NativeSshFile {
+
+        final private String virtualPath;
+        final private File realFile;
+        final private String userName;
+
+        ThumbnailSshFile(String virtualPath, File realFile, String userName) {
+            super(virtualPath, realFile, userName);
+            this.virtualPath = virtualPath;
+            this.realFile = realFile;
+            this.userName = userName;
+        }
+
+        @Override
+        public boolean doesExist() {
+            return realFile.exists() && (realFile.isDirectory() || isImage(realFile));
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return realFile.isDirectory();
+        }
+
+        @Override
+        public boolean isFile() {
+            return realFile.isFile() && isImage(realFile);
+        }
+
+        @Override
+        public boolean isReadable() {
+            return doesExist();
+        }
+
+        @Override
+        public boolean isWritable() {
+            return false;
+        }
+
+        @Override
+        public boolean isExecutable() {
+            return isDirectory();
+        }
+
+        @Override
+        public boolean isRemovable() {
+            return false;
+        }
+
+        @Override
+        public long getSize() {
+            if (!isFile()) {
+                return 0;
+            }
+            //Generating thumbnails while listing a big folder would take ages, until one is
+            //opened the size of the image is an upper bound: reads just end earlier
+            File thumbnail = cachedThumbnailFor(realFile);
+            return thumbnail != null ? thumbnail.length() : realFile.length();
+        }
+
+        @Override
+        public long getLastModified() {
+            return realFile.lastModified();
+        }
+
+        @Override
+        public List<SshFile> listSshFiles() {
+            File[] files = realFile.listFiles();
+            if (files == null) {
+                return null;
+            }
+            String prefix = virtualPath.endsWith("/") ? virtualPath : virtualPath + "/";
+            ArrayList<String> names = new ArrayList<>();
+            for (File f : files) {
+                if (f.isDirectory() ? !f.isHidden() : isImage(f)) {
+                    names.add(f.getName());
+                }
+            }
+            Collections.sort(names);
+            ArrayList<SshFile> children = new ArrayList<>(names.size());
+            for (String name : names) {
+                children.add(new ThumbnailSshFile(prefix + name, new File(realFile, name), userName));
+            }
+            return Collections.unmodifiableList(children);
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            if (!isFile()) {
+                throw new IOException(realFile.getName() + " is not an image");
+            }
+            File thumbnail = thumbnailFor(realFile);
+            FileInputStream in = new FileInputStream(thumbnail != null ? thumbnail : realFile);
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        break; //Past the end, reads will return nothing
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            return in;
+        }
+
+        @Override
+        public OutputStream createOutputStream(long offset) throws IOException {
+            throw new IOException("Thumbnails are read only");
+        }
+
+        @Override
+        public boolean setLastModified(long time) {
+            return false;
+        }
+
+        @Override
+        public boolean delete() {
+            return false;
+        }
+
+        @Override
+        public boolean create() {
+            return false;
+        }
+
+        @Override
+        public boolean mkdir() {
+            return false;
+        }
+
+        @Override
+        public boolean move(SshFile destination) {
+            return false;
+        }
+
+        @Override
+        public void truncate() throws IOException {
+            throw new IOException("Thumbnails are read only");
+        }
+    }
+}
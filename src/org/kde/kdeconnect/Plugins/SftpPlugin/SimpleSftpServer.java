@@ -21,10 +21,13 @@
 package org.kde.kdeconnect.Plugins.SftpPlugin;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.apache.sshd.SshServer;
+import org.apache.sshd.common.FactoryManager;
 import org.apache.sshd.common.NamedFactory;
 import org.apache.sshd.common.Session;
 import org.apache.sshd.common.util.SecurityUtils;
@@ -33,6 +36,7 @@ import org.apache.sshd.server.FileSystemFactory;
 import org.apache.sshd.server.FileSystemView;
 import org.apache.sshd.server.PasswordAuthenticator;
 import org.apache.sshd.server.PublickeyAuthenticator;
+import org.apache.sshd.server.ServerFactoryManager;
 import org.apache.sshd.server.SshFile;
 import org.apache.sshd.server.command.ScpCommandFactory;
 import org.apache.sshd.server.filesystem.NativeFileSystemView;
@@ -58,9 +62,12 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.security.PublicKey;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 
 class SimpleSftpServer {
     private static final int STARTPORT = 1739;
@@ -68,12 +75,23 @@ class SimpleSftpServer {
 
     static final String USER = "kdeconnect";
 
+    //Tunables, stored in the default shared preferences so they can be changed without a new build
+    static final String KEY_NIO_WORKERS = "sftp_nio_workers";
+    static final String KEY_WINDOW_SIZE = "sftp_window_size";
+    static final String KEY_MAX_PACKET_SIZE = "sftp_max_packet_size";
+    static final String KEY_MAX_SESSIONS = "sftp_max_sessions";
+    static final String KEY_IDLE_TIMEOUT = "sftp_idle_timeout";
+    static final String KEY_THUMBNAILS = "sftp_thumbnails";
+
     private int port = -1;
     private boolean started = false;
 
     private final SimplePasswordAuthenticator passwordAuth = new SimplePasswordAuthenticator();
     private final SimplePublicKeyAuthenticator keyAuth = new SimplePublicKeyAuthenticator();
 
+    private final SftpFileCache fileCache = new SftpFileCache();
+    private SftpThumbnailTree thumbnailTree = null;
+
     static {
         Security.insertProviderAt(SslHelper.BC, 1);
         SecurityUtils.setRegisterBouncyCastle(false);
@@ -81,7 +99,35 @@ class SimpleSftpServer {
 
     private final SshServer sshd = SshServer.setUpDefaultServer();
 
+    static class Config {
+        //MINA I/O processors, the default (cores + 1) is a lot of threads for a phone
+        int nioWorkers = 2;
+        //sshd defaults to a 2MB window with 32KB packets, sshfs reads in chunks of up to 64KB
+        int windowSize = 4 * 1024 * 1024;
+        int maxPacketSize = 64 * 1024;
+        //Every desktop mounts with the same user, so this caps the number of mounting desktops
+        int maxSessions = 4;
+        int idleTimeout = 10 * 60 * 1000;
+        //Expose the virtual tree of MediaStore thumbnails, see SftpThumbnailTree. Set in the plugin settings
+        boolean thumbnails = true;
+
+        static Config fromPreferences(SharedPreferences prefs) {
+            Config config = new Config();
+            config.nioWorkers = prefs.getInt(KEY_NIO_WORKERS, config.nioWorkers);
+            config.windowSize = prefs.getInt(KEY_WINDOW_SIZE, config.windowSize);
+            config.maxPacketSize = prefs.getInt(KEY_MAX_PACKET_SIZE, config.maxPacketSize);
+            config.maxSessions = prefs.getInt(KEY_MAX_SESSIONS, config.maxSessions);
+            config.idleTimeout = prefs.getInt(KEY_IDLE_TIMEOUT, config.idleTimeout);
+            config.thumbnails = prefs.getBoolean(KEY_THUMBNAILS, config.thumbnails);
+            return config;
+        }
+    }
+
     public void init(Context context, Device device) {
+        init(context, device.publicKey, Config.fromPreferences(PreferenceManager.getDefaultSharedPreferences(context)));
+    }
+
+    void init(Context context, PublicKey deviceKey, Config config) {
 
         sshd.setKeyExchangeFactories(Arrays.asList(
                 new DHG14.Factory(),
@@ -89,15 +135,29 @@ class SimpleSftpServer {
 
         sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(context.getFilesDir() + "/sftpd.ser"));
 
-        sshd.setFileSystemFactory(new AndroidFileSystemFactory(context));
+        thumbnailTree = config.thumbnails ? new SftpThumbnailTree(context) : null;
+        sshd.setFileSystemFactory(new AndroidFileSystemFactory(context, fileCache, thumbnailTree));
         sshd.setCommandFactory(new ScpCommandFactory());
         sshd.setSubsystemFactories(Collections.singletonList((NamedFactory<Command>) new SftpSubsystem.Factory()));
 
-        if (device.publicKey != null) {
-            keyAuth.deviceKey = device.publicKey;
+        if (deviceKey != null) {
+            keyAuth.deviceKey = deviceKey;
             sshd.setPublickeyAuthenticator(keyAuth);
         }
         sshd.setPasswordAuthenticator(passwordAuth);
+
+        configure(config);
+    }
+
+    private void configure(Config config) {
+        //The number of workers is only read when the acceptor is created, so it takes effect on the next start()
+        sshd.setNioWorkers(Math.max(1, config.nioWorkers));
+
+        Map<String, String> properties = sshd.getProperties();
+        properties.put(FactoryManager.WINDOW_SIZE, Integer.toString(config.windowSize));
+        properties.put(FactoryManager.MAX_PACKET_SIZE, Integer.toString(config.maxPacketSize));
+        properties.put(ServerFactoryManager.MAX_CONCURRENT_SESSIONS, Integer.toString(config.maxSessions));
+        properties.put(ServerFactoryManager.IDLE_TIMEOUT, Integer.toString(config.idleTimeout));
     }
 
     public boolean start() {
@@ -130,6 +190,7 @@ class SimpleSftpServer {
         try {
             started = false;
             sshd.stop(true);
+            fileCache.clear();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -143,6 +204,10 @@ class SimpleSftpServer {
         return port;
     }
 
+    public boolean hasThumbnails() {
+        return thumbnailTree != null;
+    }
+
     public String getLocalIpAddress() {
         String ip6 = null;
         try {
@@ -179,14 +244,18 @@ class SimpleSftpServer {
     static class AndroidFileSystemFactory implements FileSystemFactory {
 
         final private Context context;
+        final private SftpFileCache cache;
+        final private SftpThumbnailTree thumbnails;
 
-        public AndroidFileSystemFactory(Context context) {
+        public AndroidFileSystemFactory(Context context, SftpFileCache cache, SftpThumbnailTree thumbnails) {
             this.context = context;
+            this.cache = cache;
+            this.thumbnails = thumbnails;
         }
 
         @Override
         public FileSystemView createFileSystemView(final Session username) {
-            return new AndroidFileSystemView(username.getUsername(), context);
+            return new AndroidFileSystemView(username.getUsername(), context, cache, thumbnails);
         }
     }
 
@@ -194,17 +263,24 @@ class SimpleSftpServer {
 
         final private String userName;
         final private Context context;
+        final private SftpFileCache cache;
+        final private SftpThumbnailTree thumbnails;
 
-        public AndroidFileSystemView(final String userName, Context context) {
+        public AndroidFileSystemView(final String userName, Context context, SftpFileCache cache, SftpThumbnailTree thumbnails) {
             super(userName, true);
             this.userName = userName;
             this.context = context;
+            this.cache = cache;
+            this.thumbnails = thumbnails;
         }
 
         @Override
         protected SshFile getFile(final String dir, final String file) {
             File fileObj = new File(dir, file);
-            return new AndroidSshFile(fileObj, userName, context);
+            if (thumbnails != null && SftpThumbnailTree.contains(fileObj.getAbsolutePath())) {
+                return thumbnails.getFile(fileObj.getAbsolutePath(), userName);
+            }
+            return new AndroidSshFile(fileObj, userName, context, cache);
         }
     }
 
@@ -212,11 +288,122 @@ class SimpleSftpServer {
 
         final private Context context;
         final private File file;
+        final private String userName;
+        final private SftpFileCache cache;
 
-        public AndroidSshFile(final File file, final String userName, Context context) {
+        public AndroidSshFile(final File file, final String userName, Context context, SftpFileCache cache) {
             super(file.getAbsolutePath(), file, userName);
             this.context = context;
             this.file = file;
+            this.userName = userName;
+            this.cache = cache;
+        }
+
+        //Every getter of NativeSshFile is a stat() call, read them all at once and keep them
+        private SftpFileCache.Attributes attributes() {
+            String path = file.getAbsolutePath();
+            SftpFileCache.Attributes attributes = cache.getAttributes(path);
+            if (attributes == null) {
+                attributes = new SftpFileCache.Attributes(super.doesExist(), super.isDirectory(), super.isFile(),
+                        super.isReadable(), super.isWritable(), super.isExecutable(),
+                        super.getSize(), super.getLastModified());
+                cache.putAttributes(path, attributes);
+            }
+            return attributes;
+        }
+
+        @Override
+        public boolean doesExist() {
+            return attributes().exists;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return attributes().isDirectory;
+        }
+
+        @Override
+        public boolean isFile() {
+            return attributes().isFile;
+        }
+
+        @Override
+        public boolean isReadable() {
+            return attributes().readable;
+        }
+
+        @Override
+        public boolean isWritable() {
+            return attributes().writable;
+        }
+
+        @Override
+        public boolean isExecutable() {
+            return attributes().executable;
+        }
+
+        @Override
+        public long getSize() {
+            return attributes().size;
+        }
+
+        @Override
+        public long getLastModified() {
+            return attributes().lastModified;
+        }
+
+        @Override
+        public List<SshFile> listSshFiles() {
+            if (!isDirectory()) {
+                return null;
+            }
+            String path = file.getAbsolutePath();
+            List<String> names = cache.getListing(path);
+            if (names == null) {
+                File[] files = file.listFiles();
+                if (files == null) {
+                    return null;
+                }
+                names = SftpFileCache.sortedNames(files);
+                cache.putListing(path, names);
+            }
+            ArrayList<SshFile> children = new ArrayList<>(names.size());
+            for (String name : names) {
+                children.add(new AndroidSshFile(new File(file, name), userName, context, cache));
+            }
+            return Collections.unmodifiableList(children);
+        }
+
+        @Override
+        public boolean setLastModified(long time) {
+            cache.invalidate(file.getAbsolutePath());
+            return super.setLastModified(time);
+        }
+
+        @Override
+        public boolean mkdir() {
+            cache.invalidate(file.getAbsolutePath());
+            return super.mkdir();
+        }
+
+        @Override
+        public boolean move(SshFile destination) {
+            cache.invalidate(file.getAbsolutePath());
+            cache.invalidate(destination.getAbsolutePath());
+            return super.move(destination);
+        }
+
+        @Override
+        public void truncate() throws IOException {
+            cache.invalidate(file.getAbsolutePath());
+            super.truncate();
+        }
+
+        @Override
+        public void handleClose() {
+            //Writes through an open handle don't go through us, drop what we know when it's closed
+            cache.invalidate(file.getAbsolutePath());
+            super.handleClose();
         }
 
         @Override
@@ -225,6 +412,8 @@ class SimpleSftpServer {
                 throw new IOException("No write permission : " + file.getName());
             }
 
+            cache.invalidate(file.getAbsolutePath());
+
             final RandomAccessFile raf = new RandomAccessFile(file, "rw");
             try {
                 if (offset < raf.length()) {
@@ -248,6 +437,7 @@ class SimpleSftpServer {
         @Override
         public boolean delete() {
             //Log.e("Sshd", "deleting file");
+            cache.invalidate(file.getAbsolutePath());
             boolean ret = super.delete();
             if (ret) {
                 MediaStoreHelper.indexFile(context, Uri.fromFile(file));
@@ -259,6 +449,7 @@ class SimpleSftpServer {
         @Override
         public boolean create() throws IOException {
             //Log.e("Sshd", "creating file");
+            cache.invalidate(file.getAbsolutePath());
             boolean ret = super.create();
             if (ret) {
                 MediaStoreHelper.indexFile(context, Uri.fromFile(file));
@@ -35,6 +35,7 @@ import android.widget.ListView;
 
 import org.kde.kdeconnect.BackgroundService;
 import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.UserInterface.List.EntryItem;
 import org.kde.kdeconnect.UserInterface.List.ListAdapter;
 import org.kde.kdeconnect.UserInterface.List.SectionItem;
@@ -43,6 +44,7 @@ import org.kde.kdeconnect_tp.R;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 
 public class ShareActivity extends AppCompatActivity {
@@ -73,13 +75,8 @@ public class ShareActivity extends AppCompatActivity {
         BackgroundService.RunCommand(ShareActivity.this, BackgroundService::onNetworkChange);
 
         mSwipeRefreshLayout.setRefreshing(true);
-        new Thread(() -> {
-            try {
-                Thread.sleep(1500);
-            } catch (InterruptedException ignored) {
-            }
-            runOnUiThread(() -> mSwipeRefreshLayout.setRefreshing(false));
-        }).start();
+        ThreadHelper.scheduler().schedule(() -> runOnUiThread(() -> mSwipeRefreshLayout.setRefreshing(false)),
+                1500, TimeUnit.MILLISECONDS);
     }
 
     private void updateComputerList() {
@@ -48,6 +48,7 @@ import org.kde.kdeconnect.Device;
 import org.kde.kdeconnect.Helpers.FilesHelper;
 import org.kde.kdeconnect.Helpers.MediaStoreHelper;
 import org.kde.kdeconnect.Helpers.NotificationHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 import org.kde.kdeconnect.Plugins.Plugin;
 import org.kde.kdeconnect.UserInterface.SettingsActivity;
@@ -221,7 +222,7 @@ public class SharePlugin extends Plugin {
         final ShareNotification notification = new ShareNotification(device, filename);
         notification.show();
 
-        new Thread(() -> {
+        ThreadHelper.io().execute(() -> {
             try {
                 byte data[] = new byte[4096];
                 long progress = 0, prevProgressPercentage = -1;
@@ -278,7 +279,7 @@ public class SharePlugin extends Plugin {
                 } catch (Exception e) {
                 }
             }
-        }).start();
+        });
     }
 
     @Override
@@ -301,7 +302,7 @@ public class SharePlugin extends Plugin {
         final NotificationUpdateCallback notificationUpdateCallback = new NotificationUpdateCallback(context, device, toSend);
 
         //Do the sending in background
-        new Thread(() -> {
+        ThreadHelper.io().execute(() -> {
             //Actually send the files
             try {
                 for (NetworkPacket np : toSend) {
@@ -314,7 +315,7 @@ public class SharePlugin extends Plugin {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }).start();
+        });
 
     }
 
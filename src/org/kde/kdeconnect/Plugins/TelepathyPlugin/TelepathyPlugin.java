@@ -82,6 +82,11 @@ public class TelepathyPlugin extends Plugin {
         return true;
     }
 
+    @Override
+    public boolean loadsOnDemand() {
+        return true;
+    }
+
     @Override
     public String[] getSupportedPacketTypes() {
         return new String[]{PACKET_TYPE_SMS_REQUEST, TelephonyPlugin.PACKET_TYPE_TELEPHONY_REQUEST};
@@ -45,6 +45,7 @@ import org.kde.kdeconnect.Helpers.ContactsHelper;
 import org.kde.kdeconnect.Helpers.SMSHelper;
 import org.kde.kdeconnect.Helpers.SMSHelper.ThreadID;
 import org.kde.kdeconnect.Helpers.SMSHelper.Message;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
 import org.kde.kdeconnect.Plugins.Plugin;
 import org.kde.kdeconnect_tp.BuildConfig;
@@ -53,8 +54,7 @@ import org.kde.kdeconnect_tp.R;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 public class TelephonyPlugin extends Plugin {
 
@@ -242,21 +242,17 @@ public class TelephonyPlugin extends Plugin {
                     device.sendPacket(lastPacket);
 
                     if (isMuted) {
-                        Timer timer = new Timer();
-                        timer.schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                if (isMuted) {
-                                    AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                                        am.setStreamVolume(AudioManager.STREAM_RING, AudioManager.ADJUST_UNMUTE, 0);
-                                    } else {
-                                        am.setStreamMute(AudioManager.STREAM_RING, false);
-                                    }
-                                    isMuted = false;
+                        ThreadHelper.scheduler().schedule(() -> {
+                            if (isMuted) {
+                                AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                                    am.setStreamVolume(AudioManager.STREAM_RING, AudioManager.ADJUST_UNMUTE, 0);
+                                } else {
+                                    am.setStreamMute(AudioManager.STREAM_RING, false);
                                 }
+                                isMuted = false;
                             }
-                        }, 500);
+                        }, 500, TimeUnit.MILLISECONDS);
                     }
 
                     //Emit a missed call notification if needed
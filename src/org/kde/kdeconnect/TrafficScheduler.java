@@ -0,0 +1,87 @@
+package org.kde.kdeconnect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Decides how long background traffic can wait, so it's sent in fewer radio wake-ups while
+ * nobody is using the phone. When the screen is off or the battery is low, packets of
+ * Priority.Low wait up to the batching window and then go out together, or earlier with
+ * any other packet to the same device. Other packets are always sent right away.
+ */
+public class TrafficScheduler {
+
+    //Set from the diagnostics screen, 0 never batches
+    public static final String KEY_BATCHING_WINDOW_SECONDS = "traffic_batching_window_seconds";
+    public static final int DEFAULT_BATCHING_WINDOW_SECONDS = 30;
+
+    interface FlushListener {
+        //Called when background traffic doesn't have to wait anymore
+        void flush();
+    }
+
+    private static final TrafficScheduler instance = new TrafficScheduler();
+
+    public static TrafficScheduler getInstance() {
+        return instance;
+    }
+
+    private boolean screenOn = true;
+    private boolean batteryLow = false;
+    private long batchingWindowMs = DEFAULT_BATCHING_WINDOW_SECONDS * 1000L;
+    //Weak, so queues of forgotten devices don't stay around
+    private final Set<FlushListener> listeners = Collections.newSetFromMap(new WeakHashMap<FlushListener, Boolean>());
+
+    TrafficScheduler() {
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        update(() -> this.screenOn = screenOn);
+    }
+
+    public void setBatteryLow(boolean batteryLow) {
+        update(() -> this.batteryLow = batteryLow);
+    }
+
+    public void setBatchingWindowMs(long windowMs) {
+        update(() -> this.batchingWindowMs = Math.max(windowMs, 0));
+    }
+
+    /**
+     * How long background packets can wait now, 0 if they should be sent right away.
+     */
+    public synchronized long getBatchingWindowMs() {
+        return (!screenOn || batteryLow) ? batchingWindowMs : 0;
+    }
+
+    public static boolean canWait(NetworkPacket np) {
+        return np.getPriority() == NetworkPacket.Priority.Low;
+    }
+
+    synchronized void addFlushListener(FlushListener listener) {
+        listeners.add(listener);
+    }
+
+    synchronized void removeFlushListener(FlushListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void update(Runnable change) {
+        List<FlushListener> toFlush;
+        synchronized (this) {
+            long before = getBatchingWindowMs();
+            change.run();
+            if (before == 0 || getBatchingWindowMs() != 0) {
+                return;
+            }
+            toFlush = new ArrayList<>(listeners);
+        }
+        //What was waiting doesn't have to anymore
+        for (FlushListener listener : toFlush) {
+            listener.flush();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.kde.kdeconnect.UserInterface;
+
+import android.app.AlertDialog;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import org.json.JSONException;
+import org.kde.kdeconnect.BackgroundService;
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.BaseLinkProvider;
+import org.kde.kdeconnect.Backends.LanBackend.LanLinkProvider;
+import org.kde.kdeconnect.Backends.LinkMetrics;
+import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.Metrics;
+import org.kde.kdeconnect.PacketTraceRecorder;
+import org.kde.kdeconnect.TrafficScheduler;
+import org.kde.kdeconnect_tp.R;
+
+import java.util.Locale;
+
+/**
+ * Shows the transport metrics and the state of the links of every device, refreshed
+ * every second, so problems can be looked into on the phone where they happen.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    //In the order of R.array.diagnostics_batching_window_entries
+    private static final int[] BATCHING_WINDOW_SECONDS = {0, 10, 30, 60, 120};
+
+    private final Handler handler = new Handler();
+    private TextView text;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        ThemeUtil.setUserPreferredTheme(this);
+        setContentView(R.layout.activity_diagnostics);
+        text = (TextView) findViewById(R.id.diagnostics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refresh);
+        super.onPause();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.diagnostics, menu);
+        menu.findItem(R.id.menu_diagnostics_record_trace).setChecked(PacketTraceRecorder.isEnabled());
+        menu.findItem(R.id.menu_diagnostics_mdns_discovery).setChecked(LanLinkProvider.isMdnsDiscoveryEnabled(this));
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_diagnostics_share:
+                try {
+                    Intent share = new Intent(Intent.ACTION_SEND);
+                    share.setType("application/json");
+                    share.putExtra(Intent.EXTRA_TEXT, Metrics.toJson().toString(2));
+                    startActivity(Intent.createChooser(share, getString(R.string.diagnostics_share)));
+                } catch (JSONException e) {
+                    Log.e("DiagnosticsActivity", "Could not serialize the metrics", e);
+                }
+                return true;
+            case R.id.menu_diagnostics_reset:
+                Metrics.reset();
+                update();
+                return true;
+            case R.id.menu_diagnostics_record_trace:
+                boolean record = !item.isChecked();
+                item.setChecked(record);
+                PreferenceManager.getDefaultSharedPreferences(this).edit()
+                        .putBoolean(PacketTraceRecorder.KEY_RECORD_PACKET_TRACE, record).apply();
+                PacketTraceRecorder.setEnabled(this, record);
+                return true;
+            case R.id.menu_diagnostics_batching_window:
+                showBatchingWindowDialog();
+                return true;
+            case R.id.menu_diagnostics_mdns_discovery:
+                boolean mdns = !item.isChecked();
+                item.setChecked(mdns);
+                PreferenceManager.getDefaultSharedPreferences(this).edit()
+                        .putBoolean(LanLinkProvider.KEY_MDNS_DISCOVERY, mdns).apply();
+                BackgroundService.RunCommand(this, service -> {
+                    for (BaseLinkProvider linkProvider : service.getLinkProviders()) {
+                        if (linkProvider instanceof LanLinkProvider) {
+                            ((LanLinkProvider) linkProvider).updateMdnsDiscovery();
+                        }
+                    }
+                });
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void showBatchingWindowDialog() {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        int current = preferences.getInt(TrafficScheduler.KEY_BATCHING_WINDOW_SECONDS, TrafficScheduler.DEFAULT_BATCHING_WINDOW_SECONDS);
+        int checked = -1;
+        for (int i = 0; i < BATCHING_WINDOW_SECONDS.length; i++) {
+            if (BATCHING_WINDOW_SECONDS[i] == current) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.diagnostics_batching_window)
+                .setSingleChoiceItems(R.array.diagnostics_batching_window_entries, checked, (dialog, which) -> {
+                    int seconds = BATCHING_WINDOW_SECONDS[which];
+                    preferences.edit().putInt(TrafficScheduler.KEY_BATCHING_WINDOW_SECONDS, seconds).apply();
+                    TrafficScheduler.getInstance().setBatchingWindowMs(seconds * 1000L);
+                    dialog.dismiss();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void update() {
+        BackgroundService.RunCommand(this, service -> {
+            StringBuilder links = new StringBuilder();
+            for (Device device : service.getDevices().values()) {
+                if (!device.isReachable()) {
+                    continue;
+                }
+                links.append(device.getName()).append('\n');
+                for (BaseLink link : device.getLinks()) {
+                    LinkMetrics metrics = link.getMetrics();
+                    links.append(String.format(Locale.US, "  %s rtt=%dms send=%.1fms errors=%.0f%% sent=%d\n",
+                            link.getName(), link.getRttMs(), metrics.getSendTimeMs(), metrics.getErrorRate() * 100,
+                            metrics.getPacketsSent()));
+                }
+            }
+            String trace = "";
+            if (PacketTraceRecorder.isEnabled()) {
+                PacketTraceRecorder.flush();
+                trace = getString(R.string.diagnostics_recording_trace, PacketTraceRecorder.getTraceFile()) + "\n\n";
+            }
+            final String report = trace + links.toString() + "\n" + Metrics.toText();
+            runOnUiThread(() -> text.setText(report));
+        });
+    }
+}
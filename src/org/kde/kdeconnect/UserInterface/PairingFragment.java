@@ -39,6 +39,7 @@ import android.widget.TextView;
 import org.kde.kdeconnect.BackgroundService;
 import org.kde.kdeconnect.Device;
 import org.kde.kdeconnect.Helpers.NetworkHelper;
+import org.kde.kdeconnect.Helpers.ThreadHelper;
 import org.kde.kdeconnect.UserInterface.List.ListAdapter;
 import org.kde.kdeconnect.UserInterface.List.PairingDeviceItem;
 import org.kde.kdeconnect.UserInterface.List.SectionItem;
@@ -46,6 +47,7 @@ import org.kde.kdeconnect_tp.R;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -99,13 +101,8 @@ public class PairingFragment extends Fragment implements PairingDeviceItem.Callb
         updateComputerList();
         BackgroundService.RunCommand(mActivity, BackgroundService::onNetworkChange);
         mSwipeRefreshLayout.setRefreshing(true);
-        new Thread(() -> {
-            try {
-                Thread.sleep(1500);
-            } catch (InterruptedException ignored) {
-            }
-            mActivity.runOnUiThread(() -> mSwipeRefreshLayout.setRefreshing(false));
-        }).start();
+        ThreadHelper.scheduler().schedule(() -> mActivity.runOnUiThread(() -> mSwipeRefreshLayout.setRefreshing(false)),
+                1500, TimeUnit.MILLISECONDS);
     }
 
     private void updateComputerList() {
@@ -243,6 +240,9 @@ public class PairingFragment extends Fragment implements PairingDeviceItem.Callb
             case R.id.menu_custom_device_list:
                 startActivity(new Intent(mActivity, CustomDevicesActivity.class));
                 break;
+            case R.id.menu_diagnostics:
+                startActivity(new Intent(mActivity, DiagnosticsActivity.class));
+                break;
             default:
                 break;
         }
@@ -27,12 +27,12 @@ public class PluginPreference extends CheckBoxPreference {
         setSummary(info.getDescription());
         setChecked(device.isPluginEnabled(pluginKey));
 
-        Plugin plugin = device.getPlugin(pluginKey, true);
-        if (info.hasSettings() && plugin != null) {
+        //Only look at what is already there: plugins left to load on demand stay unloaded
+        if (info.hasSettings() && findPlugin(activity) != null) {
             this.listener = v -> {
-                Plugin plugin1 = device.getPlugin(pluginKey, true);
-                if (plugin1 != null) {
-                    plugin1.startPreferencesActivity(activity);
+                Plugin plugin = findPlugin(activity);
+                if (plugin != null) {
+                    plugin.startPreferencesActivity(activity);
                 } else { //Could happen if the device is not connected anymore
                     activity.finish(); //End this activity so we go to the "device not reachable" screen
                 }
@@ -43,6 +43,18 @@ public class PluginPreference extends CheckBoxPreference {
 
     }
 
+    private Plugin findPlugin(SettingsActivity activity) {
+        Plugin plugin = device.getLoadedPlugins().get(pluginKey);
+        if (plugin == null) {
+            plugin = device.getFailedPlugins().get(pluginKey);
+        }
+        if (plugin == null && device.isPluginDeferred(pluginKey)) {
+            //Enough to open its settings, without creating it
+            plugin = PluginFactory.instantiatePluginForDevice(activity, pluginKey, device);
+        }
+        return plugin;
+    }
+
     @Override
     protected void onBindView(View root) {
         super.onBindView(root);
@@ -0,0 +1,244 @@
+package org.kde.kdeconnect.Backends.BluetoothBackend;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.kde.kdeconnect.Device;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link FramedChannel} over a pair of loopback TCP sockets, standing in for
+ * an RFCOMM socket, to compare chunk sizes and check that small packets still get
+ * through while a big payload is being sent.
+ */
+public class FramedChannelBenchmark extends AndroidTestCase {
+
+    private static final int PAYLOAD_SIZE = 8 * 1024 * 1024;
+
+    private Socket sendingSocket;
+    private Socket receivingSocket;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        sendingSocket = new Socket(server.getInetAddress(), server.getLocalPort());
+        receivingSocket = server.accept();
+        server.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        sendingSocket.close();
+        receivingSocket.close();
+        super.tearDown();
+    }
+
+    public void testPayloadThroughput() throws Exception {
+        byte[] data = new byte[PAYLOAD_SIZE];
+        new Random(0).nextBytes(data);
+
+        //0 is what we get on Android < M, 990 and 1008 are typical RFCOMM MTUs
+        int[] transmitPacketSizes = {0, 990, 1008};
+        for (int transmitPacketSize : transmitPacketSizes) {
+            final FramedChannel sender = new FramedChannel(sendingSocket.getInputStream(), sendingSocket.getOutputStream(), transmitPacketSize);
+            final FramedChannel receiver = new FramedChannel(receivingSocket.getInputStream(), receivingSocket.getOutputStream(), transmitPacketSize);
+
+            final int transferId = sender.nextTransferId();
+            final InputStream incoming = receiver.openIncomingPayload(transferId);
+            final byte[] received = new byte[PAYLOAD_SIZE];
+            final CountDownLatch done = new CountDownLatch(1);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    receiver.readLoop(message -> { });
+                } catch (Exception ignored) {
+                }
+            });
+            reader.start();
+            Thread creditReader = startReading(sender);
+            Thread consumer = new Thread(() -> {
+                try {
+                    int offset = 0;
+                    int n;
+                    while ((n = incoming.read(received, offset, received.length - offset)) > 0) {
+                        offset += n;
+                    }
+                    done.countDown();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            consumer.start();
+
+            long start = System.nanoTime();
+            sender.writePayload(transferId, new ByteArrayInputStream(data), data.length, new NoopCallback());
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - start;
+
+            assertTrue(Arrays.equals(data, received));
+            Log.i("FramedChannelBenchmark", "transmit packet size " + transmitPacketSize
+                    + ", chunk " + sender.getChunkSize() + ": " + (PAYLOAD_SIZE * 1000L / Math.max(1, elapsed / 1000)) + "KB/s");
+
+            //Start from fresh sockets for the next size, this also stops the reader thread
+            tearDown();
+            setUp();
+            reader.join(1000);
+            creditReader.join(1000);
+        }
+    }
+
+    public void testPacketsInterleaveWithPayload() throws Exception {
+        final FramedChannel sender = new FramedChannel(sendingSocket.getInputStream(), sendingSocket.getOutputStream(), 990);
+        final FramedChannel receiver = new FramedChannel(receivingSocket.getInputStream(), receivingSocket.getOutputStream(), 990);
+
+        final int packets = 100;
+        final CountDownLatch packetsReceived = new CountDownLatch(packets);
+        final AtomicLong worstLatency = new AtomicLong(0);
+        final int transferId = sender.nextTransferId();
+        final InputStream incoming = receiver.openIncomingPayload(transferId);
+
+        new Thread(() -> {
+            try {
+                receiver.readLoop(message -> {
+                    long latency = System.nanoTime() - Long.parseLong(message.trim());
+                    if (latency > worstLatency.get()) {
+                        worstLatency.set(latency);
+                    }
+                    packetsReceived.countDown();
+                });
+            } catch (Exception ignored) {
+            }
+        }).start();
+        startReading(sender);
+        new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            try {
+                while (incoming.read(buffer) != -1) {
+                    //Drain
+                }
+            } catch (Exception ignored) {
+            }
+        }).start();
+        Thread payloadSender = new Thread(() -> {
+            try {
+                sender.writePayload(transferId, new ByteArrayInputStream(new byte[PAYLOAD_SIZE]), PAYLOAD_SIZE, new NoopCallback());
+            } catch (Exception ignored) {
+            }
+        });
+        payloadSender.start();
+
+        for (int i = 0; i < packets; i++) {
+            sender.writePacket((System.nanoTime() + "\n").getBytes("UTF-8"));
+            Thread.sleep(5);
+        }
+
+        assertTrue(packetsReceived.await(60, TimeUnit.SECONDS));
+        payloadSender.join(60000);
+        Log.i("FramedChannelBenchmark", "worst packet latency during payload: " + (worstLatency.get() / 1000000) + "ms");
+    }
+
+    public void testSlowConsumerGetsTheWholePayload() throws Exception {
+        final FramedChannel sender = new FramedChannel(sendingSocket.getInputStream(), sendingSocket.getOutputStream(), 990);
+        final FramedChannel receiver = new FramedChannel(receivingSocket.getInputStream(), receivingSocket.getOutputStream(), 990);
+        startReading(receiver);
+        startReading(sender);
+
+        final int size = 3 * FramedChannel.INCOMING_WINDOW_BYTES;
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        final int transferId = sender.nextTransferId();
+        InputStream incoming = receiver.openIncomingPayload(transferId);
+        Thread payloadSender = new Thread(() -> {
+            try {
+                sender.writePayload(transferId, new ByteArrayInputStream(data), size, new NoopCallback());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        payloadSender.start();
+
+        //Far behind the sender: it has to wait for us instead of the payload being dropped
+        Thread.sleep(500);
+        byte[] received = new byte[size];
+        int offset = 0;
+        int n;
+        while ((n = incoming.read(received, offset, Math.min(64 * 1024, size - offset))) > 0) {
+            offset += n;
+            Thread.sleep(1);
+        }
+        payloadSender.join(10000);
+
+        assertEquals(size, offset);
+        assertTrue(Arrays.equals(data, received));
+    }
+
+    public void testUnreadPayloadOnlyHoldsUpItself() throws Exception {
+        final FramedChannel sender = new FramedChannel(sendingSocket.getInputStream(), sendingSocket.getOutputStream(), 990);
+        final FramedChannel receiver = new FramedChannel(receivingSocket.getInputStream(), receivingSocket.getOutputStream(), 990);
+
+        final CountDownLatch packetReceived = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                receiver.readLoop(message -> packetReceived.countDown());
+            } catch (Exception ignored) {
+            }
+        }).start();
+        startReading(sender);
+
+        final int transferId = sender.nextTransferId();
+        //Nobody reads this one
+        InputStream incoming = receiver.openIncomingPayload(transferId);
+        final int size = 2 * FramedChannel.INCOMING_WINDOW_BYTES;
+        final CountDownLatch payloadFailed = new CountDownLatch(1);
+        Thread payloadSender = new Thread(() -> {
+            try {
+                sender.writePayload(transferId, new ByteArrayInputStream(new byte[size]), size, new NoopCallback());
+            } catch (IOException e) {
+                payloadFailed.countDown();
+            }
+        });
+        payloadSender.start();
+
+        //The sender is stuck waiting for credit, but other packets still get through
+        sender.writePacket("after\n".getBytes("UTF-8"));
+        assertTrue(packetReceived.await(10, TimeUnit.SECONDS));
+        assertTrue(payloadSender.isAlive());
+
+        //Giving up on the payload stops the sender
+        incoming.close();
+        assertTrue(payloadFailed.await(10, TimeUnit.SECONDS));
+    }
+
+    private static Thread startReading(final FramedChannel channel) {
+        Thread reader = new Thread(() -> {
+            try {
+                channel.readLoop(message -> { });
+            } catch (Exception ignored) {
+            }
+        });
+        reader.start();
+        return reader;
+    }
+
+    private static class NoopCallback extends Device.SendPacketStatusCallback {
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+        }
+    }
+}
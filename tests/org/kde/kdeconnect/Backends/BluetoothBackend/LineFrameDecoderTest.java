@@ -0,0 +1,128 @@
+package org.kde.kdeconnect.Backends.BluetoothBackend;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class LineFrameDecoderTest extends AndroidTestCase {
+
+    //Includes characters that take 2, 3 and 4 bytes in UTF-8
+    private static final String ALPHABET = "abcXYZ0123{}\":, \u00f1\u00e7\u00e9\u20ac\u0436\u4e2d\u6587\ud83d\ude00";
+
+    public void testRandomChunkBoundaries() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> messages = new ArrayList<>();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            int count = 1 + random.nextInt(20);
+            for (int i = 0; i < count; i++) {
+                String message = randomText(random, random.nextInt(3) == 0 ? random.nextInt(20000) : random.nextInt(200)) + "\n";
+                messages.add(message);
+                stream.write(message.getBytes("UTF-8"));
+            }
+
+            //Start small so the buffer has to be compacted and grown
+            List<String> received = feedInRandomChunks(new LineFrameDecoder(16), stream.toByteArray(), random);
+            assertEquals(messages, received);
+        }
+    }
+
+    public void testPartialPacketIsKept() throws Exception {
+        LineFrameDecoder decoder = new LineFrameDecoder();
+        List<String> received = new ArrayList<>();
+        byte[] data = "{\"id\":1}\n{\"id\"".getBytes("UTF-8");
+        decoder.feed(data, 0, data.length, received::add);
+        assertEquals(1, received.size());
+        assertEquals("{\"id\":1}\n", received.get(0));
+        assertEquals(5, decoder.pending());
+
+        data = ":2}\n".getBytes("UTF-8");
+        decoder.feed(data, 0, data.length, received::add);
+        assertEquals(2, received.size());
+        assertEquals("{\"id\":2}\n", received.get(1));
+        assertEquals(0, decoder.pending());
+    }
+
+    public void testBufferIsReused() throws Exception {
+        LineFrameDecoder decoder = new LineFrameDecoder(1024);
+        byte[] data = (randomText(new Random(1), 300) + "\n").getBytes("UTF-8");
+        for (int i = 0; i < 10000; i++) {
+            decoder.feed(data, 0, data.length, message -> { });
+        }
+        assertEquals(1024, decoder.capacity());
+    }
+
+    public void testOversizedPacketFails() throws Exception {
+        LineFrameDecoder decoder = new LineFrameDecoder();
+        byte[] chunk = new byte[1024 * 1024];
+        try {
+            for (int i = 0; i <= LineFrameDecoder.MAX_FRAME_SIZE / chunk.length; i++) {
+                decoder.feed(chunk, 0, chunk.length, message -> fail());
+            }
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * A big packet arriving in many small reads used to be quadratic, make sure
+     * the time grows linearly with the size.
+     */
+    public void testLargePacketInSmallReads() throws Exception {
+        long smallTime = timeLargePacket(1024 * 1024);
+        long bigTime = timeLargePacket(8 * 1024 * 1024);
+        Log.i("LineFrameDecoderTest", "1MB packet: " + (smallTime / 1000000) + "ms, 8MB packet: " + (bigTime / 1000000) + "ms");
+        //Linear would be 8x, quadratic 64x. Leave plenty of margin for noise.
+        assertTrue(bigTime < smallTime * 32 + 100000000L);
+    }
+
+    private long timeLargePacket(int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size - 1; i++) {
+            data[i] = 'a';
+        }
+        data[size - 1] = '\n';
+
+        LineFrameDecoder decoder = new LineFrameDecoder();
+        final int[] received = {0};
+        long start = System.nanoTime();
+        for (int offset = 0; offset < size; offset += 512) {
+            decoder.feed(data, offset, Math.min(512, size - offset), message -> received[0] += message.length());
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(size, received[0]);
+        return elapsed;
+    }
+
+    private static List<String> feedInRandomChunks(LineFrameDecoder decoder, byte[] data, Random random) throws IOException {
+        List<String> received = new ArrayList<>();
+        int offset = 0;
+        while (offset < data.length) {
+            //Mostly tiny reads, sometimes big ones
+            int length = random.nextInt(4) == 0 ? random.nextInt(8192) : random.nextInt(8);
+            length = Math.min(Math.max(1, length), data.length - offset);
+            decoder.feed(data, offset, length, received::add);
+            offset += length;
+        }
+        assertEquals(0, decoder.pending());
+        return received;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int i = random.nextInt(ALPHABET.length());
+            if (Character.isHighSurrogate(ALPHABET.charAt(i))) {
+                sb.append(ALPHABET, i, i + 2);
+            } else if (!Character.isLowSurrogate(ALPHABET.charAt(i))) {
+                sb.append(ALPHABET.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LanDiscoverySchedulerTest extends AndroidTestCase {
+
+    private final List<Boolean> broadcasts = Collections.synchronizedList(new ArrayList<>());
+    private LanDiscoveryScheduler scheduler;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testBurstOfNetworkChangesSendsOneBroadcast() throws Exception {
+        scheduler = new LanDiscoveryScheduler(broadcasts::add, 200, 60000, 60000);
+        scheduler.start();
+        for (int i = 0; i < 50; i++) {
+            scheduler.onNetworkChange();
+        }
+        Thread.sleep(600);
+
+        assertEquals(1, scheduler.getBroadcastCount());
+        assertTrue(broadcasts.get(0));
+    }
+
+    public void testRepeatsBackOff() throws Exception {
+        scheduler = new LanDiscoveryScheduler(broadcasts::add, 0, 50, 200);
+        scheduler.start();
+        //Broadcasts at 0, 50, 150, 350, 550, 750... ms
+        Thread.sleep(800);
+
+        int count = scheduler.getBroadcastCount();
+        assertTrue("Got " + count + " broadcasts", count >= 4 && count <= 7);
+        assertTrue(broadcasts.get(0));
+        assertFalse(broadcasts.get(1));
+    }
+
+    public void testNetworkChangeBringsRepeatsBack() throws Exception {
+        scheduler = new LanDiscoveryScheduler(broadcasts::add, 0, 60000, 60000);
+        scheduler.start();
+        Thread.sleep(200);
+        assertEquals(1, scheduler.getBroadcastCount());
+
+        //The next repeat was a minute away, a network change must not wait for it
+        scheduler.onNetworkChange();
+        Thread.sleep(200);
+        assertEquals(2, scheduler.getBroadcastCount());
+        assertTrue(broadcasts.get(1));
+    }
+
+    public void testNothingIsSentOnceStopped() throws Exception {
+        scheduler = new LanDiscoveryScheduler(broadcasts::add, 100, 100, 100);
+        scheduler.start();
+        scheduler.stop();
+        scheduler.onNetworkChange();
+        Thread.sleep(300);
+
+        assertEquals(0, scheduler.getBroadcastCount());
+    }
+}
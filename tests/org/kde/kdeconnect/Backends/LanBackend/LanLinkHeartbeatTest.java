@@ -0,0 +1,120 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.NetworkPacket;
+import org.mockito.Mockito;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+public class LanLinkHeartbeatTest extends AndroidTestCase {
+
+    private LanLinkProvider linkProvider;
+    private ServerSocket server;
+    private Socket peer;
+    private BufferedReader peerReader;
+    private LanLink link;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+
+        linkProvider = Mockito.mock(LanLinkProvider.class);
+        Mockito.when(linkProvider.getName()).thenReturn("LanLinkProvider");
+
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        peer = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        peerReader = new BufferedReader(new InputStreamReader(peer.getInputStream(), "UTF-8"));
+        link = new LanLink(getContext(), "testDevice", linkProvider, server.accept(), LanLink.ConnectionStarted.Remotely);
+        link.setHeartbeatSupported(true);
+        link.setHeartbeat(100, 500);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        peer.close();
+        server.close();
+        link.disconnect();
+        super.tearDown();
+    }
+
+    public void testRoundTripTimeIsMeasured() throws Exception {
+        assertEquals(-1, link.getRttMs());
+
+        NetworkPacket heartbeat = readHeartbeat();
+        heartbeat.set("reply", true);
+        send(heartbeat);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (link.getRttMs() < 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(link.getRttMs() >= 0);
+    }
+
+    public void testHeartbeatsFromThePeerAreAnswered() throws Exception {
+        NetworkPacket heartbeat = new NetworkPacket(LanLink.PACKET_TYPE_HEARTBEAT);
+        heartbeat.set("sent", 12345);
+        send(heartbeat);
+
+        NetworkPacket reply;
+        do {
+            reply = readHeartbeat();
+        } while (!reply.getBoolean("reply"));
+        assertEquals(12345, reply.getLong("sent"));
+    }
+
+    public void testSilentPeerIsDisconnected() throws Exception {
+        //It answers once, so we know it would keep answering if it were alive
+        NetworkPacket heartbeat = readHeartbeat();
+        heartbeat.set("reply", true);
+        send(heartbeat);
+
+        Mockito.verify(linkProvider, Mockito.timeout(3000)).linkDisconnected(link);
+    }
+
+    public void testPeersThatDontAdvertiseHeartbeatsOnlyGetEmptyLines() throws Exception {
+        link.setHeartbeatSupported(false);
+        //One heartbeat may have been on its way already
+        for (int i = 0; i < 5; i++) {
+            String line = peerReader.readLine();
+            assertNotNull(line);
+            if (i > 0) {
+                assertTrue(line.isEmpty());
+            }
+        }
+        //And they are never considered gone for not answering
+        Mockito.verify(linkProvider, Mockito.after(1000).never()).linkDisconnected(link);
+    }
+
+    public void testHeartbeatSupportIsReadFromTheIdentity() throws Exception {
+        NetworkPacket identity = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        assertFalse(LanLink.isHeartbeatSupportedBy(identity));
+        identity.set(LanLink.KEY_HEARTBEAT, LanLink.HEARTBEAT_VERSION);
+        assertTrue(LanLink.isHeartbeatSupportedBy(identity));
+    }
+
+    private NetworkPacket readHeartbeat() throws Exception {
+        String line;
+        do {
+            line = peerReader.readLine();
+        } while (line != null && line.isEmpty());
+        assertNotNull(line);
+        NetworkPacket np = NetworkPacket.unserialize(line);
+        assertEquals(LanLink.PACKET_TYPE_HEARTBEAT, np.getType());
+        return np;
+    }
+
+    private void send(NetworkPacket np) throws Exception {
+        OutputStream out = peer.getOutputStream();
+        out.write(np.serialize().getBytes("UTF-8"));
+        out.flush();
+    }
+}
@@ -0,0 +1,153 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.Helpers.DeviceHelper;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two devices hearing each other's broadcast at the same time, over loopback: only one
+ * of them should open a connection.
+ */
+public class LanLinkProviderTieBreakTest extends AndroidTestCase {
+
+    private LanLinkProvider linkProvider;
+    private ServerSocket peerServer;
+    private final AtomicInteger peerAccepted = new AtomicInteger(0);
+    private final CountDownLatch peerConnected = new CountDownLatch(1);
+    private volatile String identityReceivedByPeer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        linkProvider = new LanLinkProvider(getContext());
+        linkProvider.tcpServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        //The other device, only counting the connections it gets
+        peerServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(() -> {
+            while (!peerServer.isClosed()) {
+                try {
+                    Socket socket = peerServer.accept();
+                    peerAccepted.incrementAndGet();
+                    identityReceivedByPeer = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                    peerConnected.countDown();
+                } catch (Exception ignored) {
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        peerServer.close();
+        linkProvider.tcpServer.close();
+        super.tearDown();
+    }
+
+    public void testDeviceWithLargerIdDoesNotConnect() throws Exception {
+        String myId = DeviceHelper.getDeviceId(getContext());
+        String peerId = myId.substring(0, myId.length() - 1); //A prefix sorts first
+        NetworkPacket peerIdentity = createPeerIdentity(peerId);
+
+        //Both broadcasts cross: we get theirs while they are connecting to us
+        final Socket[] incoming = new Socket[1];
+        Thread accept = new Thread(() -> {
+            try {
+                incoming[0] = linkProvider.tcpServer.accept();
+                linkProvider.tcpPacketReceived(incoming[0]);
+            } catch (Exception ignored) {
+            }
+        });
+        accept.start();
+        Socket peerSocket = new Socket(InetAddress.getByName("127.0.0.1"), linkProvider.tcpServer.getLocalPort());
+        peerSocket.getOutputStream().write(peerIdentity.serialize().getBytes("UTF-8"));
+        linkProvider.udpPacketReceived(createDatagram(peerIdentity));
+        accept.join(5000);
+
+        assertFalse(peerConnected.await(1, TimeUnit.SECONDS));
+        assertEquals(0, peerAccepted.get());
+        assertNotNull(incoming[0]);
+        peerSocket.close();
+    }
+
+    public void testDeviceWithSmallerIdConnects() throws Exception {
+        String myId = DeviceHelper.getDeviceId(getContext());
+        String peerId = myId + "_";
+        NetworkPacket peerIdentity = createPeerIdentity(peerId);
+
+        linkProvider.udpPacketReceived(createDatagram(peerIdentity));
+
+        assertTrue(peerConnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, peerAccepted.get());
+        NetworkPacket ourIdentity = NetworkPacket.unserialize(identityReceivedByPeer);
+        assertEquals(myId, ourIdentity.getString("deviceId"));
+    }
+
+    public void testDeviceWithLargerIdConnectsIfThePeerDoesNot() throws Exception {
+        String myId = DeviceHelper.getDeviceId(getContext());
+        String peerId = myId.substring(0, myId.length() - 1);
+        NetworkPacket peerIdentity = createPeerIdentity(peerId);
+
+        //The peer should connect to us, but never does (e.g. a firewall blocks our port)
+        linkProvider.listening = true;
+        linkProvider.incomingConnectionTimeoutMs = 200;
+        linkProvider.udpPacketReceived(createDatagram(peerIdentity));
+
+        assertTrue(peerConnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, peerAccepted.get());
+        NetworkPacket ourIdentity = NetworkPacket.unserialize(identityReceivedByPeer);
+        assertEquals(myId, ourIdentity.getString("deviceId"));
+        linkProvider.listening = false;
+    }
+
+    public void testBothEndsKeepTheSameConnection() throws Exception {
+        String myId = DeviceHelper.getDeviceId(getContext());
+        String peerId = myId.substring(0, myId.length() - 1);
+        Method startHandshake = LanLinkProvider.class.getDeclaredMethod("startHandshake", String.class, Socket.class, LanLink.ConnectionStarted.class);
+        startHandshake.setAccessible(true);
+
+        //Whichever arrives first, the connection the peer (smallest id) started wins
+        Socket outgoing = new Socket();
+        Socket incoming = new Socket();
+        assertTrue((Boolean) startHandshake.invoke(linkProvider, peerId, outgoing, LanLink.ConnectionStarted.Remotely));
+        assertTrue((Boolean) startHandshake.invoke(linkProvider, peerId, incoming, LanLink.ConnectionStarted.Locally));
+        assertTrue(outgoing.isClosed());
+        assertFalse(incoming.isClosed());
+
+        String otherPeerId = myId.substring(0, myId.length() - 2);
+        incoming = new Socket();
+        outgoing = new Socket();
+        assertTrue((Boolean) startHandshake.invoke(linkProvider, otherPeerId, incoming, LanLink.ConnectionStarted.Locally));
+        assertFalse((Boolean) startHandshake.invoke(linkProvider, otherPeerId, outgoing, LanLink.ConnectionStarted.Remotely));
+        assertFalse(incoming.isClosed());
+    }
+
+    private NetworkPacket createPeerIdentity(String peerId) {
+        NetworkPacket identity = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        identity.set("deviceId", peerId);
+        identity.set("deviceName", "Tie Break Test Device");
+        identity.set("protocolVersion", 5); //No TLS, so the connection can be checked without certificates
+        identity.set("deviceType", Device.DeviceType.Computer.toString());
+        identity.set("tcpPort", peerServer.getLocalPort());
+        return identity;
+    }
+
+    private DatagramPacket createDatagram(NetworkPacket identity) throws Exception {
+        byte[] bytes = identity.serialize().getBytes("UTF-8");
+        return new DatagramPacket(bytes, bytes.length, InetAddress.getByName("127.0.0.1"), LanLinkProvider.MIN_PORT);
+    }
+}
@@ -0,0 +1,71 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Device;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.util.List;
+
+public class LanPeerAddressCacheTest extends AndroidTestCase {
+
+    private LanPeerAddressCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().getSharedPreferences("lan_peer_addresses", Context.MODE_PRIVATE).edit().clear().commit();
+        cache = new LanPeerAddressCache(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().getSharedPreferences("lan_peer_addresses", Context.MODE_PRIVATE).edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testPeerIsRemembered() throws Exception {
+        NetworkPacket identity = createIdentity("laptop");
+        identity.set("certificate", "not worth keeping");
+        cache.remember("laptop", "192.168.1.20", 1716, identity, 1000);
+
+        //A new instance, as after a restart
+        List<LanPeerAddressCache.Peer> peers = new LanPeerAddressCache(getContext()).getAll();
+        assertEquals(1, peers.size());
+        LanPeerAddressCache.Peer peer = peers.get(0);
+        assertEquals("laptop", peer.deviceId);
+        assertEquals("192.168.1.20", peer.address);
+        assertEquals(1716, peer.port);
+        assertEquals(1000, peer.lastSeenMs);
+        assertEquals("laptop", peer.identityPacket.getString("deviceId"));
+        assertEquals("Laptop", peer.identityPacket.getString("deviceName"));
+        assertEquals(NetworkPacket.ProtocolVersion, peer.identityPacket.getInt("protocolVersion"));
+        assertFalse(peer.identityPacket.has("certificate"));
+
+        cache.forget("laptop");
+        assertTrue(cache.getAll().isEmpty());
+    }
+
+    public void testOldestPeerIsEvicted() throws Exception {
+        for (int i = 0; i < LanPeerAddressCache.MAX_PEERS; i++) {
+            cache.remember("device" + i, "192.168.1." + i, 1716, createIdentity("device" + i), 1000 + i);
+        }
+        cache.remember("newcomer", "192.168.1.200", 1716, createIdentity("newcomer"), 5000);
+
+        List<LanPeerAddressCache.Peer> peers = cache.getAll();
+        assertEquals(LanPeerAddressCache.MAX_PEERS, peers.size());
+        for (LanPeerAddressCache.Peer peer : peers) {
+            assertFalse(peer.deviceId.equals("device0"));
+        }
+    }
+
+    private NetworkPacket createIdentity(String deviceId) {
+        NetworkPacket identity = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        identity.set("deviceId", deviceId);
+        identity.set("deviceName", "Laptop");
+        identity.set("protocolVersion", NetworkPacket.ProtocolVersion);
+        identity.set("deviceType", Device.DeviceType.Computer.toString());
+        return identity;
+    }
+}
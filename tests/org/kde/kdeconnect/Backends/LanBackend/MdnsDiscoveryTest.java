@@ -0,0 +1,113 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.test.AndroidTestCase;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MdnsDiscoveryTest extends AndroidTestCase {
+
+    //Not the real mDNS port, so the test doesn't talk to whatever else runs on the device
+    private static final int TEST_PORT = 45353;
+
+    private MdnsDiscovery responder;
+    private MdnsDiscovery resolver;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (responder != null) {
+            responder.stop();
+        }
+        if (resolver != null) {
+            resolver.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testAnnouncementRoundTrip() throws Exception {
+        InetAddress address = InetAddress.getByName("192.168.1.20");
+        MdnsPeer peer = new MdnsPeer("a1b2c3d4", "My Laptop", "desktop", 7, address, 1716, 120);
+
+        byte[] message = MdnsMessage.buildAnnouncement(peer, 120);
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+        List<MdnsPeer> peers = MdnsMessage.parseResponse(message, 0, message.length, source);
+
+        assertEquals(1, peers.size());
+        MdnsPeer parsed = peers.get(0);
+        assertEquals("a1b2c3d4", parsed.deviceId);
+        assertEquals("My Laptop", parsed.deviceName);
+        assertEquals("desktop", parsed.deviceType);
+        assertEquals(7, parsed.protocolVersion);
+        assertEquals(source, parsed.address); //No A record, where it came from is what works
+        assertEquals(1716, parsed.port);
+        assertEquals(120, parsed.ttlSeconds);
+
+        assertFalse(MdnsMessage.isQuery(message, 0, message.length));
+        byte[] query = MdnsMessage.buildQuery();
+        assertTrue(MdnsMessage.isQuery(query, 0, query.length));
+        assertTrue(MdnsMessage.parseResponse(query, 0, query.length, address).isEmpty());
+    }
+
+    public void testPeerWithoutAddressRecordUsesTheSender() throws Exception {
+        MdnsPeer peer = new MdnsPeer("a1b2c3d4", "Phone", "phone", 7, null, 1716, 120);
+        byte[] message = MdnsMessage.buildAnnouncement(peer, 120);
+
+        InetAddress source = InetAddress.getByName("192.168.1.30");
+        assertEquals(source, MdnsMessage.parseResponse(message, 0, message.length, source).get(0).address);
+    }
+
+    public void testTruncatedMessagesAreIgnored() throws Exception {
+        MdnsPeer peer = new MdnsPeer("a1b2c3d4", "Phone", "phone", 7, null, 1716, 120);
+        byte[] message = MdnsMessage.buildAnnouncement(peer, 120);
+        for (int length = 0; length < message.length; length++) {
+            MdnsMessage.parseResponse(message, 0, length, null);
+            MdnsMessage.isQuery(message, 0, length);
+        }
+    }
+
+    public void testCacheHonorsTtl() throws Exception {
+        MdnsPeerCache cache = new MdnsPeerCache();
+        cache.put(new MdnsPeer("a", "A", "phone", 7, null, 1716, 10), 1000);
+        cache.put(new MdnsPeer("b", "B", "phone", 7, null, 1716, 100), 1000);
+
+        assertNotNull(cache.get("a", 10999));
+        assertNull(cache.get("a", 11000));
+        assertEquals(1, cache.getAll(11000).size());
+
+        //Goodbye
+        cache.put(new MdnsPeer("b", "B", "phone", 7, null, 1716, 0), 12000);
+        assertNull(cache.get("b", 12000));
+    }
+
+    public void testResolveAgainstInProcessResponder() throws Exception {
+        MdnsPeer laptop = new MdnsPeer("laptopId", "Laptop", "desktop", 7, null, 1716, MdnsDiscovery.TTL_SECONDS);
+        responder = new MdnsDiscovery(MdnsDiscovery.MDNS_GROUP, TEST_PORT, peer -> {
+        });
+        responder.start(laptop);
+
+        final CountDownLatch resolved = new CountDownLatch(1);
+        resolver = new MdnsDiscovery(MdnsDiscovery.MDNS_GROUP, TEST_PORT, peer -> {
+            if (peer.deviceId.equals("laptopId")) {
+                resolved.countDown();
+            }
+        });
+        resolver.start(new MdnsPeer("phoneId", "Phone", "phone", 7, null, 1716, MdnsDiscovery.TTL_SECONDS));
+
+        assertTrue(resolved.await(5, TimeUnit.SECONDS));
+        MdnsPeer peer = resolver.getPeer("laptopId");
+        assertNotNull(peer);
+        assertEquals(1716, peer.port);
+        assertNull(resolver.getPeer("phoneId")); //Not ourselves
+
+        //Once it leaves, it's forgotten without waiting for the ttl
+        responder.stop();
+        responder = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (resolver.getPeer("laptopId") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNull(resolver.getPeer("laptopId"));
+    }
+}
@@ -0,0 +1,60 @@
+package org.kde.kdeconnect.Backends.LanBackend;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Helpers.Metrics;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+
+public class UdpDiscoveryFilterTest extends AndroidTestCase {
+
+    private static final byte[] IDENTITY = "{\"type\":\"kdeconnect.identity\",\"body\":{\"deviceId\":\"a\"}}\n".getBytes(Charset.forName("UTF-8"));
+
+    public void testRepeatsWithinTheWindowAreDropped() throws Exception {
+        UdpDiscoveryFilter filter = new UdpDiscoveryFilter(1000);
+        InetAddress source = InetAddress.getByName("192.168.1.2");
+        long accepted = Metrics.counter("discovery.udp.accepted").get();
+        long dropped = Metrics.counter("discovery.udp.dropped").get();
+
+        assertTrue(filter.accept(source, IDENTITY, 0, IDENTITY.length, 10000));
+        assertFalse(filter.accept(source, IDENTITY, 0, IDENTITY.length, 10100));
+        assertFalse(filter.accept(source, IDENTITY, 0, IDENTITY.length, 10900));
+        assertTrue(filter.accept(source, IDENTITY, 0, IDENTITY.length, 11000));
+
+        UdpDiscoveryFilter.SourceStats stats = filter.getStats(source);
+        assertEquals(4, stats.received);
+        assertEquals(2, stats.dropped);
+        assertEquals(4 * 60.0, stats.getRatePerMinute(), 0.001);
+        assertEquals(accepted + 2, Metrics.counter("discovery.udp.accepted").get());
+        assertEquals(dropped + 2, Metrics.counter("discovery.udp.dropped").get());
+    }
+
+    public void testOnlyTheDatagramBytesAreCompared() throws Exception {
+        UdpDiscoveryFilter filter = new UdpDiscoveryFilter(1000);
+        InetAddress source = InetAddress.getByName("192.168.1.2");
+
+        //Same datagram in a reused buffer with leftovers from a longer one after it
+        byte[] buffer = new byte[IDENTITY.length + 100];
+        System.arraycopy(IDENTITY, 0, buffer, 0, IDENTITY.length);
+        assertTrue(filter.accept(source, IDENTITY, 0, IDENTITY.length, 10000));
+        buffer[IDENTITY.length + 50] = 'x';
+        assertFalse(filter.accept(source, buffer, 0, IDENTITY.length, 10010));
+
+        //A different identity from the same address goes through
+        byte[] other = "{\"type\":\"kdeconnect.identity\",\"body\":{\"deviceId\":\"b\"}}\n".getBytes(Charset.forName("UTF-8"));
+        assertTrue(filter.accept(source, other, 0, other.length, 10020));
+    }
+
+    public void testSourcesAreCountedSeparately() throws Exception {
+        UdpDiscoveryFilter filter = new UdpDiscoveryFilter(1000);
+        InetAddress first = InetAddress.getByName("192.168.1.2");
+        InetAddress second = InetAddress.getByName("192.168.1.3");
+
+        assertTrue(filter.accept(first, IDENTITY, 0, IDENTITY.length, 10000));
+        assertTrue(filter.accept(second, IDENTITY, 0, IDENTITY.length, 10000));
+        assertEquals(1, filter.getStats(first).received);
+        assertEquals(1, filter.getStats(second).received);
+        assertNull(filter.getStats(InetAddress.getByName("192.168.1.4")));
+    }
+}
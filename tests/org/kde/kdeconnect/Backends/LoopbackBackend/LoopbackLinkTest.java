@@ -0,0 +1,110 @@
+package org.kde.kdeconnect.Backends.LoopbackBackend;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.BaseLinkProvider;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LoopbackLinkTest extends AndroidTestCase {
+
+    private LoopbackLinkProvider provider;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (provider != null) {
+            provider.onStop();
+        }
+        super.tearDown();
+    }
+
+    private List<BaseLink> start(LoopbackLinkProvider.LoadProfile profile) {
+        final List<BaseLink> connected = new ArrayList<>();
+        provider = new LoopbackLinkProvider(getContext(), profile);
+        provider.addConnectionReceiver(new BaseLinkProvider.ConnectionReceiver() {
+            @Override
+            public void onConnectionReceived(NetworkPacket identityPacket, BaseLink link) {
+                assertEquals(link.getDeviceId(), identityPacket.getString("deviceId"));
+                connected.add(link);
+            }
+
+            @Override
+            public void onConnectionLost(BaseLink link) {
+                connected.remove(link);
+            }
+        });
+        provider.onStart();
+        return connected;
+    }
+
+    public void testOneLinkPerVirtualPeer() throws Exception {
+        List<BaseLink> connected = start(new LoopbackLinkProvider.LoadProfile(3, 0, 0, 0, 1));
+        assertEquals(3, connected.size());
+        assertEquals(connected, new ArrayList<BaseLink>(provider.getLinks()));
+        assertEquals("loopback_2", connected.get(2).getDeviceId());
+
+        //Not again on network changes
+        provider.onNetworkChange();
+        assertEquals(3, connected.size());
+
+        provider.onStop();
+        assertTrue(connected.isEmpty());
+    }
+
+    public void testLatencyIsEmulated() throws Exception {
+        start(new LoopbackLinkProvider.LoadProfile(1, 200, 0, 0, 1));
+        LoopbackLink link = provider.getLinks().get(0);
+
+        final CountDownLatch received = new CountDownLatch(1);
+        link.addPacketReceiver(np -> received.countDown());
+
+        long start = System.currentTimeMillis();
+        assertTrue(link.inject(new NetworkPacket("kdeconnect.ping")));
+        assertEquals(1, received.getCount());
+        assertTrue(received.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    public void testBandwidthQueuesPacketsInOrder() throws Exception {
+        //About 10 packets per second
+        NetworkPacket template = new NetworkPacket("kdeconnect.ping");
+        template.set("n", 0);
+        long bytesPerSecond = template.serialize().length() * 10;
+        start(new LoopbackLinkProvider.LoadProfile(1, 0, bytesPerSecond, 0, 1));
+        LoopbackLink link = provider.getLinks().get(0);
+
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch received = new CountDownLatch(5);
+        link.addPacketReceiver(np -> {
+            order.add(np.getInt("n"));
+            received.countDown();
+        });
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            NetworkPacket np = new NetworkPacket("kdeconnect.ping");
+            np.set("n", i);
+            link.inject(np);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    public void testLossRate() throws Exception {
+        start(new LoopbackLinkProvider.LoadProfile(1, 0, 0, 0.5, 42));
+        LoopbackLink link = provider.getLinks().get(0);
+
+        for (int i = 0; i < 1000; i++) {
+            link.inject(new NetworkPacket("kdeconnect.ping"));
+        }
+        assertEquals(1000, link.getDeliveredCount() + link.getLostCount());
+        assertTrue(link.getLostCount() > 400 && link.getLostCount() < 600);
+    }
+}
@@ -0,0 +1,87 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+public class CompactPacketCodecTest extends AndroidTestCase {
+
+    public void testRoundTripThroughTheGetters() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.mpris");
+        np.set("player", "VLC média player");
+        np.set("pos", 123456);
+        np.set("isPlaying", true);
+        np.set("length", 4000000000.0); //Longs are stored as doubles
+
+        String encoded = CompactPacketCodec.encode(np);
+        assertNotNull(encoded);
+        assertEquals(CompactPacketCodec.MARKER, encoded.charAt(0));
+        assertEquals(encoded.length() - 1, encoded.indexOf('\n'));
+        assertTrue(encoded.length() < np.serialize().length() / 2);
+
+        NetworkPacket decoded = NetworkPacket.unserialize(encoded);
+        assertEquals("kdeconnect.mpris", decoded.getType());
+        assertEquals("VLC média player", decoded.getString("player"));
+        assertEquals(123456, decoded.getInt("pos"));
+        assertTrue(decoded.getBoolean("isPlaying"));
+        assertEquals(4000000000L, decoded.getLong("length"));
+        assertFalse(decoded.has("volume"));
+    }
+
+    public void testDoublesAndNegativeNumbers() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.mousepad.request");
+        np.set("dx", -3.75);
+        np.set("dy", 0.5);
+        NetworkPacket decoded = NetworkPacket.unserialize(CompactPacketCodec.encode(np));
+        assertEquals(-3.75, decoded.getDouble("dx"));
+        assertEquals(0.5, decoded.getDouble("dy"));
+
+        NetworkPacket seek = new NetworkPacket("kdeconnect.mpris.request");
+        seek.set("player", "spotify");
+        seek.set("Seek", -10000000);
+        assertEquals(-10000000, NetworkPacket.unserialize(CompactPacketCodec.encode(seek)).getInt("Seek"));
+    }
+
+    public void testPacketsOutsideTheSchemaStayJson() throws Exception {
+        assertNull(CompactPacketCodec.encode(new NetworkPacket("kdeconnect.ping")));
+
+        NetworkPacket unknownField = new NetworkPacket("kdeconnect.mpris");
+        unknownField.set("player", "VLC");
+        unknownField.set("title", "Some song");
+        assertNull(CompactPacketCodec.encode(unknownField));
+
+        NetworkPacket wrongKind = new NetworkPacket("kdeconnect.battery");
+        wrongKind.set("currentCharge", "50");
+        assertNull(CompactPacketCodec.encode(wrongKind));
+
+        NetworkPacket fraction = new NetworkPacket("kdeconnect.battery");
+        fraction.set("currentCharge", 50.5);
+        assertNull(CompactPacketCodec.encode(fraction));
+
+        NetworkPacket withPayload = new NetworkPacket("kdeconnect.mpris");
+        withPayload.setPayload(new byte[10]);
+        assertNull(CompactPacketCodec.encode(withPayload));
+    }
+
+    public void testTruncatedPacketsAreRejected() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.mpris");
+        np.set("player", "VLC");
+        np.set("pos", 1000);
+        String encoded = CompactPacketCodec.encode(np).trim();
+        //Whole base64 quanta, so only the decoding of the packet itself can fail
+        for (int length = 1; length < encoded.length(); length += 4) {
+            try {
+                NetworkPacket.unserialize(encoded.substring(0, length));
+                fail("Decoded a truncated packet of length " + length);
+            } catch (org.json.JSONException expected) {
+            }
+        }
+    }
+
+    public void testOnlyUsedWithPeersThatSupportIt() throws Exception {
+        NetworkPacket oldPeer = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        assertFalse(CompactPacketCodec.isSupportedBy(oldPeer));
+
+        NetworkPacket newPeer = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        newPeer.set(CompactPacketCodec.KEY_COMPACT_ENCODING, CompactPacketCodec.VERSION);
+        assertTrue(CompactPacketCodec.isSupportedBy(newPeer));
+    }
+}
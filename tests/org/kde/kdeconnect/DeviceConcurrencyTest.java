@@ -0,0 +1,152 @@
+package org.kde.kdeconnect;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.kde.kdeconnect.Backends.BasePairingHandler;
+import org.kde.kdeconnect.Backends.LanBackend.LanLink;
+import org.kde.kdeconnect.Backends.LanBackend.LanLinkProvider;
+import org.kde.kdeconnect.Backends.LanBackend.LanPairingHandler;
+import org.kde.kdeconnect.Plugins.BatteryPlugin.BatteryPlugin;
+import org.kde.kdeconnect.Plugins.Plugin;
+import org.mockito.Mockito;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Receives packets from several threads while others keep loading and unloading
+ * plugins, to check that receiving never waits for plugin lifecycle changes.
+ */
+public class DeviceConcurrencyTest extends AndroidTestCase {
+
+    private static final String DEVICE_ID = "concurrencyTestDevice";
+    private static final long TEST_DURATION_MS = 3000;
+
+    private Device device;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Dexmaker has problems guessing cache directory, setting manually
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+
+        SharedPreferences preferences = getContext().getSharedPreferences("trusted_devices", Context.MODE_PRIVATE);
+        preferences.edit().putBoolean(DEVICE_ID, true).apply();
+
+        NetworkPacket identityPacket = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        identityPacket.set("deviceId", DEVICE_ID);
+        identityPacket.set("deviceName", "Concurrency Test Device");
+        identityPacket.set("protocolVersion", NetworkPacket.ProtocolVersion);
+        identityPacket.set("deviceType", Device.DeviceType.Computer.toString());
+
+        LanLinkProvider linkProvider = Mockito.mock(LanLinkProvider.class);
+        Mockito.when(linkProvider.getName()).thenReturn("LanLinkProvider");
+        LanLink link = Mockito.mock(LanLink.class);
+        Mockito.when(link.getLinkProvider()).thenReturn(linkProvider);
+        Mockito.when(link.getPairingHandler(Mockito.any(Device.class), Mockito.any(BasePairingHandler.PairingHandlerCallback.class))).thenReturn(Mockito.mock(LanPairingHandler.class));
+
+        device = new Device(getContext(), DEVICE_ID);
+        device.addLink(identityPacket, link);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().getSharedPreferences("trusted_devices", Context.MODE_PRIVATE).edit().remove(DEVICE_ID).apply();
+        getContext().getSharedPreferences(DEVICE_ID, Context.MODE_PRIVATE).edit().clear().apply();
+        super.tearDown();
+    }
+
+    public void testReceivingDoesNotWaitForPluginChanges() throws Exception {
+        final String batteryKey = Plugin.getPluginKey(BatteryPlugin.class);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong worstReceiveNanos = new AtomicLong(0);
+        final AtomicLong received = new AtomicLong(0);
+        List<Thread> threads = new ArrayList<>();
+
+        //Receivers, like the reading threads of several links
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        NetworkPacket np = new NetworkPacket(BatteryPlugin.PACKET_TYPE_BATTERY_REQUEST);
+                        long start = System.nanoTime();
+                        device.onPacketReceived(np);
+                        long elapsed = System.nanoTime() - start;
+                        if (elapsed > worstReceiveNanos.get()) {
+                            worstReceiveNanos.set(elapsed);
+                        }
+                        received.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }));
+        }
+
+        //Plugin lifecycle changes, like the user toggling a plugin in the settings
+        for (int i = 0; i < 2; i++) {
+            final boolean enable = (i == 0);
+            threads.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        device.setPluginEnabled(batteryKey, enable);
+                        device.reloadPluginsFromSettings();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }));
+        }
+
+        //A plugin that takes long to load: hold the lifecycle lock for a while
+        final Object lifecycleLock = getLifecycleLock();
+        final CountDownLatch lockHeld = new CountDownLatch(1);
+        final AtomicLong receivedWhileLocked = new AtomicLong(0);
+        threads.add(new Thread(() -> {
+            synchronized (lifecycleLock) {
+                lockHeld.countDown();
+                long before = received.get();
+                try {
+                    Thread.sleep(TEST_DURATION_MS / 3);
+                } catch (InterruptedException ignored) {
+                }
+                receivedWhileLocked.set(received.get() - before);
+            }
+        }));
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        assertTrue(lockHeld.await(5, TimeUnit.SECONDS));
+        Thread.sleep(TEST_DURATION_MS);
+        running.set(false);
+        for (Thread t : threads) {
+            t.join(10000);
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Log.i("DeviceConcurrencyTest", received.get() + " packets received, " + receivedWhileLocked.get()
+                + " while plugins were locked, worst onPacketReceived: " + (worstReceiveNanos.get() / 1000000) + "ms");
+        assertTrue(receivedWhileLocked.get() > 0);
+        assertTrue(worstReceiveNanos.get() < TimeUnit.MILLISECONDS.toNanos(TEST_DURATION_MS / 3));
+    }
+
+    private Object getLifecycleLock() throws Exception {
+        Field field = Device.class.getDeclaredField("pluginLifecycleLock");
+        field.setAccessible(true);
+        return field.get(device);
+    }
+}
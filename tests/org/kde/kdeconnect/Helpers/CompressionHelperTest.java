@@ -0,0 +1,62 @@
+package org.kde.kdeconnect.Helpers;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONArray;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.io.ByteArrayInputStream;
+
+public class CompressionHelperTest extends AndroidTestCase {
+
+    private static NetworkPacket bigPacket() {
+        NetworkPacket np = new NetworkPacket("kdeconnect.sms.messages");
+        JSONArray messages = new JSONArray();
+        for (int i = 0; i < 100; i++) {
+            messages.put("Message number " + i + ", see you at the usual place tomorrow");
+        }
+        np.set("messages", messages);
+        return np;
+    }
+
+    public void testRoundTrip() throws Exception {
+        NetworkPacket np = bigPacket();
+        np.setPayload(new ByteArrayInputStream(new byte[10]), 10);
+
+        NetworkPacket compressed = CompressionHelper.compress(np);
+        assertEquals(NetworkPacket.PACKET_TYPE_COMPRESSED, compressed.getType());
+        String serialized = compressed.serialize();
+        assertTrue(serialized.length() < np.serialize().length() / 2);
+        assertEquals(serialized.length() - 1, serialized.indexOf('\n')); //Still a single line
+        assertSame(np.getPayload(), compressed.getPayload());
+
+        NetworkPacket received = NetworkPacket.unserialize(serialized);
+        received.setPayload(np.getPayload(), received.getPayloadSize());
+        NetworkPacket decompressed = CompressionHelper.decompress(received);
+        assertEquals("kdeconnect.sms.messages", decompressed.getType());
+        assertEquals(100, decompressed.getJSONArray("messages").length());
+        assertEquals(np.getJSONArray("messages").getString(42), decompressed.getJSONArray("messages").getString(42));
+        assertEquals(10, decompressed.getPayloadSize());
+        assertSame(np.getPayload(), decompressed.getPayload());
+    }
+
+    public void testSmallPacketsAreSentAsTheyAre() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.ping");
+        np.set("message", "hello");
+        assertSame(np, CompressionHelper.compress(np));
+    }
+
+    public void testOnlyUsedWithPeersThatSupportIt() throws Exception {
+        NetworkPacket oldPeer = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        oldPeer.set("protocolVersion", 7);
+        assertFalse(CompressionHelper.isSupportedBy(oldPeer));
+
+        NetworkPacket otherCompression = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        otherCompression.set(CompressionHelper.KEY_COMPRESSION, new JSONArray().put("zstd"));
+        assertFalse(CompressionHelper.isSupportedBy(otherCompression));
+
+        NetworkPacket newPeer = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+        newPeer.set(CompressionHelper.KEY_COMPRESSION, CompressionHelper.getSupportedCompressions());
+        assertTrue(CompressionHelper.isSupportedBy(newPeer));
+    }
+}
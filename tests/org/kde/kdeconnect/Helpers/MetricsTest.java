@@ -0,0 +1,90 @@
+package org.kde.kdeconnect.Helpers;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONObject;
+import org.kde.kdeconnect.NetworkPacket;
+
+import java.util.Arrays;
+
+public class MetricsTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Metrics.reset();
+        Metrics.addKnownPacketTypes(Arrays.asList("kdeconnect.ping", "kdeconnect.battery"));
+    }
+
+    public void testPacketCounters() throws Exception {
+        Metrics.packetReceived("kdeconnect.ping", 100);
+        Metrics.packetReceived("kdeconnect.ping", 50);
+        Metrics.packetSent("kdeconnect.battery", 80);
+
+        Metrics.PacketTypeMetrics ping = Metrics.packetType("kdeconnect.ping");
+        assertEquals(2, ping.packetsIn.get());
+        assertEquals(150, ping.bytesIn.get());
+        assertEquals(0, ping.packetsOut.get());
+        assertEquals(80, Metrics.counter("bytes.out.kdeconnect.battery").get());
+    }
+
+    public void testUnknownPacketTypesShareOneCounter() throws Exception {
+        Metrics.packetReceived("kdeconnect.made.up.1", 10);
+        Metrics.packetReceived("kdeconnect.made.up.2", 20);
+        Metrics.packetReceived(null, 5);
+
+        assertSame(Metrics.packetType("kdeconnect.made.up.3"), Metrics.packetType(Metrics.OTHER_PACKET_TYPE));
+        assertEquals(3, Metrics.counter("packets.in.other").get());
+        assertEquals(35, Metrics.counter("bytes.in.other").get());
+        assertFalse(Metrics.toJson().getJSONObject("counters").has("packets.in.kdeconnect.made.up.1"));
+        assertNotSame(Metrics.packetType(Metrics.OTHER_PACKET_TYPE), Metrics.packetType(NetworkPacket.PACKET_TYPE_IDENTITY));
+    }
+
+    public void testHistogramPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(10900, histogram.getMeanMicros());
+        //Bucket upper bounds: never below the real value, and less than twice it
+        long p50 = histogram.getPercentileMicros(50);
+        assertTrue(p50 >= 1000 && p50 < 2000);
+        long p99 = histogram.getPercentileMicros(99);
+        assertTrue(p99 >= 100000 && p99 < 200000);
+        assertEquals(100000, histogram.getPercentileMicros(100));
+    }
+
+    public void testResetKeepsReferences() throws Exception {
+        Metrics.Counter counter = Metrics.counter("test.counter");
+        LatencyHistogram histogram = Metrics.histogram("test.histogram");
+        counter.add(5);
+        histogram.record(10);
+
+        Metrics.reset();
+        assertSame(counter, Metrics.counter("test.counter"));
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+
+        counter.inc();
+        assertEquals(1, Metrics.counter("test.counter").get());
+    }
+
+    public void testJsonDump() throws Exception {
+        Metrics.counter("test.counter").add(3);
+        Metrics.gauge("test.gauge").set(7);
+        Metrics.sendLatency("TestLink").record(1500);
+
+        JSONObject json = Metrics.toJson();
+        assertTrue(json.getLong("uptimeMs") >= 0);
+        assertEquals(3, json.getJSONObject("counters").getLong("test.counter"));
+        assertEquals(7, json.getJSONObject("gauges").getLong("test.gauge"));
+        JSONObject latency = json.getJSONObject("histograms").getJSONObject("send.latency.TestLink");
+        assertEquals(1, latency.getLong("count"));
+        assertEquals(1500, latency.getLong("maxUs"));
+    }
+}
@@ -0,0 +1,106 @@
+package org.kde.kdeconnect.Helpers;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ThreadHelperTest extends AndroidTestCase {
+
+    public void testThreadsAreNamedAfterTheirPool() throws Exception {
+        final AtomicReference<String> ioName = new AtomicReference<>();
+        final AtomicReference<String> delayedName = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(2);
+        ThreadHelper.io().execute(() -> {
+            ioName.set(Thread.currentThread().getName());
+            done.countDown();
+        });
+        //Delayed io work is only timed by the scheduler, it runs in the io pool
+        ThreadHelper.scheduleIo(() -> {
+            delayedName.set(Thread.currentThread().getName());
+            done.countDown();
+        }, 10);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(ioName.get().startsWith("kdeconnect-io-"));
+        assertTrue(delayedName.get().startsWith("kdeconnect-io-"));
+    }
+
+    public void testLoopsGetTheirOwnThread() throws Exception {
+        final AtomicReference<String> name = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        long before = Metrics.gauge("threads.loop.active").get();
+        Thread thread = ThreadHelper.startLoop("test-loop", () -> {
+            name.set(Thread.currentThread().getName());
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(name.get().startsWith("kdeconnect-test-loop-"));
+        assertTrue(thread.isDaemon());
+        assertEquals(before + 1, Metrics.gauge("threads.loop.active").get());
+
+        release.countDown();
+        thread.join(5000);
+        assertEquals(before, Metrics.gauge("threads.loop.active").get());
+    }
+
+    public void testActiveThreadsAreCounted() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        long before = Metrics.gauge("threads.io.active").get();
+        ThreadHelper.io().execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(Metrics.gauge("threads.io.active").get() > before);
+        assertTrue(Metrics.gauge("threads.io.size").get() >= 1);
+        release.countDown();
+    }
+
+    public void testFullCpuPoolRejects() throws Exception {
+        int cores = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        final CountDownLatch started = new CountDownLatch(cores);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        };
+        try {
+            for (int i = 0; i < cores; i++) {
+                ThreadHelper.cpu().execute(blocker);
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < ThreadHelper.MAX_CPU_QUEUE; i++) {
+                ThreadHelper.cpu().execute(() -> {
+                });
+            }
+
+            long rejected = Metrics.counter("threads.cpu.rejected").get();
+            try {
+                ThreadHelper.cpu().execute(() -> {
+                });
+                fail("The queue is full");
+            } catch (RejectedExecutionException expected) {
+            }
+            assertEquals(rejected + 1, Metrics.counter("threads.cpu.rejected").get());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Backends.BaseLink;
+import org.kde.kdeconnect.Backends.BasePairingHandler;
+
+import java.io.ByteArrayInputStream;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LinkSelectorTest extends AndroidTestCase {
+
+    private static class TestLink extends BaseLink {
+        private final String name;
+        long rttMs = -1;
+        double expectedThroughput = 50;
+
+        TestLink(String name) {
+            super(null, "testDevice", null);
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public BasePairingHandler getPairingHandler(Device device, BasePairingHandler.PairingHandlerCallback callback) {
+            return null;
+        }
+
+        @Override
+        public long getRttMs() {
+            return rttMs;
+        }
+
+        @Override
+        public double getExpectedThroughput() {
+            return expectedThroughput;
+        }
+
+        @Override
+        public boolean sendPacket(NetworkPacket np, Device.SendPacketStatusCallback callback) {
+            return true;
+        }
+
+        @Override
+        public boolean sendPacketEncrypted(NetworkPacket np, Device.SendPacketStatusCallback callback, PublicKey key) {
+            return true;
+        }
+    }
+
+    private final TestLink bluetooth = new TestLink("BluetoothLink");
+    private final TestLink lan = new TestLink("LanLink");
+    private List<BaseLink> links;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        links = new ArrayList<>();
+        links.add(bluetooth);
+        links.add(lan);
+    }
+
+    public void testLinksWithoutMeasurementsKeepTheirOrder() {
+        List<BaseLink> ordered = LinkSelector.order(links, new NetworkPacket("kdeconnect.ping"), false);
+        assertSame(bluetooth, ordered.get(0));
+        assertSame(lan, ordered.get(1));
+    }
+
+    public void testLowestLatencyFirst() {
+        bluetooth.rttMs = 80;
+        lan.rttMs = 5;
+        assertSame(lan, LinkSelector.order(links, new NetworkPacket("kdeconnect.ping"), false).get(0));
+
+        //A link that keeps failing is not worth its low latency
+        for (int i = 0; i < 20; i++) {
+            lan.getMetrics().sendStarted(0);
+            lan.getMetrics().sendFinished(0, false, 1);
+        }
+        assertSame(bluetooth, LinkSelector.order(links, new NetworkPacket("kdeconnect.ping"), false).get(0));
+    }
+
+    public void testHighestThroughputFirstForPayloads() {
+        long size = 1024 * 1024;
+        bluetooth.getMetrics().sendStarted(size);
+        bluetooth.getMetrics().sendFinished(size, true, 5000); //~200KB/s
+        lan.getMetrics().sendStarted(size);
+        lan.getMetrics().sendFinished(size, true, 200); //~5MB/s
+
+        assertSame(lan, LinkSelector.order(links, createPayloadPacket(size), false).get(0));
+    }
+
+    public void testUnmeasuredLinksAreRankedByTheirPrior() {
+        long size = 1024 * 1024;
+        bluetooth.expectedThroughput = 50;
+        lan.getMetrics().sendStarted(size);
+        lan.getMetrics().sendFinished(size, true, 200); //~5MB/s
+
+        //Nothing is known about the bluetooth link, but it's not worth trying it with a payload
+        assertSame(lan, LinkSelector.order(links, createPayloadPacket(size), false).get(0));
+
+        bluetooth.expectedThroughput = 50 * 1000;
+        assertSame(bluetooth, LinkSelector.order(links, createPayloadPacket(size), false).get(0));
+    }
+
+    public void testStripingSpreadsConcurrentPayloads() {
+        long size = 1024 * 1024;
+        bluetooth.getMetrics().sendStarted(size);
+        bluetooth.getMetrics().sendFinished(size, true, 1000);
+        lan.getMetrics().sendStarted(size);
+        lan.getMetrics().sendFinished(size, true, 250);
+
+        //The LAN link is 4 times faster, but already busy with 8 payloads
+        lan.getMetrics().sendStarted(8 * size);
+
+        assertSame(lan, LinkSelector.order(links, createPayloadPacket(size), false).get(0));
+        assertSame(bluetooth, LinkSelector.order(links, createPayloadPacket(size), true).get(0));
+    }
+
+    private NetworkPacket createPayloadPacket(long size) {
+        NetworkPacket np = new NetworkPacket("kdeconnect.share.request");
+        np.setPayload(new ByteArrayInputStream(new byte[0]), size);
+        return np;
+    }
+}
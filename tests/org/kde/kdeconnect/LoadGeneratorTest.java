@@ -0,0 +1,61 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Backends.LoopbackBackend.LoopbackLinkProvider;
+
+import java.io.StringReader;
+import java.util.List;
+
+public class LoadGeneratorTest extends AndroidTestCase {
+
+    private LoadGenerator generator;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (generator != null) {
+            generator.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testReplayThroughDevices() throws Exception {
+        generator = new LoadGenerator(getContext(), new LoopbackLinkProvider.LoadProfile(3, 20, 0, 0, 1));
+        generator.start();
+
+        List<Device> devices = generator.getDevices();
+        assertEquals(3, devices.size());
+        for (Device device : devices) {
+            assertTrue(device.isPaired());
+        }
+
+        generator.replay(LoadGenerator.mprisTrace(20, 5));
+        assertTrue(generator.awaitIdle(10000));
+
+        LoadGenerator.PluginReport mpris = null;
+        for (LoadGenerator.PluginReport report : generator.getReport()) {
+            if (report.pluginKey.equals("MprisPlugin")) {
+                mpris = report;
+            }
+        }
+        assertNotNull(mpris);
+        assertEquals(60, mpris.handled);
+        assertTrue(mpris.packetsPerSecond > 0);
+        assertTrue(mpris.latency.getPercentileMicros(50) >= 20000);
+        assertEquals(0, generator.getLostCount());
+        //Nothing is kept about packets every plugin is done with
+        assertEquals(0, generator.getPendingCount());
+    }
+
+    public void testReadTrace() throws Exception {
+        String trace = "# A comment\n"
+                + "0 " + LoadGenerator.mousePadTrace(1, 0).get(0).packet.serialize()
+                + "\n250 {\"id\":1,\"type\":\"kdeconnect.ping\",\"body\":{}}\n"
+                + "not a packet\n";
+        List<LoadGenerator.TracedPacket> packets = LoadGenerator.readTrace(new StringReader(trace));
+        assertEquals(2, packets.size());
+        assertEquals("kdeconnect.mousepad.request", packets.get(0).packet.getType());
+        assertEquals(250, packets.get(1).offsetMs);
+        assertEquals("kdeconnect.ping", packets.get(1).packet.getType());
+    }
+}
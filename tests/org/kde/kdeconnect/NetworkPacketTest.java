@@ -24,7 +24,9 @@ import android.test.AndroidTestCase;
 import android.util.Log;
 
 import org.json.JSONException;
+import org.kde.kdeconnect.Helpers.DeviceHelper;
 import org.kde.kdeconnect.Helpers.SecurityHelpers.RsaHelper;
+import org.kde.kdeconnect.Helpers.StringsHelper;
 import org.skyscreamer.jsonassert.JSONAssert;
 
 import java.security.KeyPair;
@@ -82,6 +84,31 @@ public class NetworkPacketTest extends AndroidTestCase {
 
     }
 
+    public void testIdentityBytes() throws JSONException {
+
+        byte[] bytes = NetworkPacket.getIdentityPacketBytes(getContext(), 1716);
+        assertSame(bytes, NetworkPacket.getIdentityPacketBytes(getContext(), 1716));
+
+        NetworkPacket np = NetworkPacket.unserialize(new String(bytes, StringsHelper.UTF8));
+        assertEquals(np.getType(), NetworkPacket.PACKET_TYPE_IDENTITY);
+        assertEquals(np.getInt("tcpPort"), 1716);
+        assertEquals(np.getString("deviceName"), DeviceHelper.getDeviceName(getContext()));
+
+        NetworkPacket withoutPort = NetworkPacket.unserialize(new String(NetworkPacket.getIdentityPacketBytes(getContext(), 0), StringsHelper.UTF8));
+        assertFalse(withoutPort.has("tcpPort"));
+
+        //Changing the name rebuilds it
+        String name = DeviceHelper.getDeviceName(getContext());
+        try {
+            DeviceHelper.setDeviceName(getContext(), name + " renamed");
+            np = NetworkPacket.unserialize(new String(NetworkPacket.getIdentityPacketBytes(getContext(), 1716), StringsHelper.UTF8));
+            assertEquals(np.getString("deviceName"), name + " renamed");
+        } finally {
+            DeviceHelper.setDeviceName(getContext(), name);
+        }
+
+    }
+
     public void testEncryption() throws JSONException {
         NetworkPacket original = new NetworkPacket("com.test");
         original.set("hello", "hola");
@@ -0,0 +1,220 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+public class OutgoingQueueTest extends AndroidTestCase {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<NetworkPacket> sent = new ArrayList<>();
+    private OutgoingQueue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        //Nothing is sent until the test runs what was scheduled
+        queue = new OutgoingQueue((np, callback) -> sent.add(np), scheduled::add, (task, delayMs) -> {
+            throw new AssertionError("Nothing should wait");
+        }, new TrafficScheduler());
+    }
+
+    private void runScheduled() {
+        while (!scheduled.isEmpty()) {
+            scheduled.remove(0).run();
+        }
+    }
+
+    private static NetworkPacket packet(String type, NetworkPacket.Priority priority, int n) {
+        NetworkPacket np = new NetworkPacket(type);
+        np.set("n", n);
+        np.setPriority(priority);
+        return np;
+    }
+
+    public void testHigherPrioritiesGoFirst() throws Exception {
+        queue.offer(packet("kdeconnect.a", NetworkPacket.Priority.Low, 1), null);
+        queue.offer(packet("kdeconnect.a", NetworkPacket.Priority.Normal, 2), null);
+        queue.offer(packet("kdeconnect.a", NetworkPacket.Priority.High, 3), null);
+        queue.offer(packet("kdeconnect.a", NetworkPacket.Priority.Normal, 4), null);
+        queue.offer(packet("kdeconnect.a", NetworkPacket.Priority.High, 5), null);
+        assertEquals(5, queue.size());
+        assertEquals(1, scheduled.size());
+
+        runScheduled();
+
+        int[] expected = {3, 5, 2, 4, 1};
+        assertEquals(expected.length, sent.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], sent.get(i).getInt("n"));
+        }
+        assertEquals(0, queue.size());
+    }
+
+    public void testNewerStateReplacesTheWaitingOne() throws Exception {
+        final List<Throwable> failures = new ArrayList<>();
+        Device.SendPacketStatusCallback callback = new Device.SendPacketStatusCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                failures.add(e);
+            }
+        };
+
+        for (int i = 1; i <= 3; i++) {
+            NetworkPacket battery = packet("kdeconnect.battery", NetworkPacket.Priority.Normal, i);
+            battery.setCollapseKey("battery");
+            queue.offer(battery, callback);
+        }
+        NetworkPacket otherPlayer = packet("kdeconnect.mpris", NetworkPacket.Priority.Normal, 10);
+        otherPlayer.setCollapseKey("battery"); //Same key, other type
+        queue.offer(otherPlayer, callback);
+        queue.offer(packet("kdeconnect.battery", NetworkPacket.Priority.Normal, 20), callback); //No key
+
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getCollapsedCount());
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0) instanceof CancellationException);
+
+        runScheduled();
+        assertEquals(3, sent.size());
+        assertEquals(3, sent.get(0).getInt("n"));
+        assertEquals(10, sent.get(1).getInt("n"));
+        assertEquals(20, sent.get(2).getInt("n"));
+    }
+
+    //Background packets every 5s for 10 minutes, and someone using the mousepad once
+    private long runSyntheticWorkload(TrafficScheduler trafficScheduler, long windowMs) {
+        final long[] now = {0};
+        final List<long[]> timers = new ArrayList<>(); //Due time, index in timerTasks
+        final List<Runnable> timerTasks = new ArrayList<>();
+        final List<Long> waits = new ArrayList<>();
+        OutgoingQueue queue = new OutgoingQueue((np, callback) -> waits.add(now[0] - np.getLong("queuedAt")),
+                scheduled::add, (task, delayMs) -> {
+                    timers.add(new long[]{now[0] + delayMs, timerTasks.size()});
+                    timerTasks.add(task);
+                }, trafficScheduler);
+
+        int offered = 0;
+        for (now[0] = 0; now[0] <= 10 * 60 * 1000; now[0] += 1000) {
+            for (long[] timer : new ArrayList<>(timers)) {
+                if (timer[0] <= now[0]) {
+                    timers.remove(timer);
+                    timerTasks.get((int) timer[1]).run();
+                }
+            }
+            if (now[0] % 5000 == 0) {
+                String type = (offered % 3 == 0) ? "kdeconnect.battery" : (offered % 3 == 1) ? "kdeconnect.mpris" : "kdeconnect.notification";
+                NetworkPacket np = packet(type, NetworkPacket.Priority.Low, offered);
+                np.set("queuedAt", now[0]);
+                queue.offer(np, null);
+                offered++;
+            }
+            if (now[0] == 5 * 60 * 1000 + 2000) {
+                NetworkPacket interactive = packet("kdeconnect.mousepad.request", NetworkPacket.Priority.High, -1);
+                interactive.set("queuedAt", now[0]);
+                queue.offer(interactive, null);
+                offered++;
+            }
+            //Sending takes no time
+            runScheduled();
+        }
+
+        assertEquals(offered, waits.size());
+        for (long wait : waits) {
+            assertTrue("Waited " + wait + "ms", wait <= windowMs);
+        }
+        trafficScheduler.removeFlushListener(queue);
+        return queue.getFlushCount();
+    }
+
+    public void testBackgroundTrafficIsBatchedWhileTheScreenIsOff() throws Exception {
+        TrafficScheduler trafficScheduler = new TrafficScheduler();
+        trafficScheduler.setBatchingWindowMs(60 * 1000);
+
+        //In use: every packet wakes the radio up
+        assertEquals(122, runSyntheticWorkload(trafficScheduler, 0));
+
+        //Screen off: one flush a minute, and one for the interactive packet that takes what's waiting with it
+        trafficScheduler.setScreenOn(false);
+        long screenOffFlushes = runSyntheticWorkload(trafficScheduler, 60 * 1000);
+        assertTrue("Flushed " + screenOffFlushes + " times", screenOffFlushes <= 12);
+
+        //Low battery, even with the screen on
+        trafficScheduler.setScreenOn(true);
+        trafficScheduler.setBatteryLow(true);
+        assertEquals(screenOffFlushes, runSyntheticWorkload(trafficScheduler, 60 * 1000));
+    }
+
+    public void testWaitingPacketsAreSentWhenTheScreenTurnsOn() throws Exception {
+        TrafficScheduler trafficScheduler = new TrafficScheduler();
+        trafficScheduler.setScreenOn(false);
+        final List<Runnable> timerTasks = new ArrayList<>();
+        OutgoingQueue queue = new OutgoingQueue((np, callback) -> sent.add(np), scheduled::add,
+                (task, delayMs) -> timerTasks.add(task), trafficScheduler);
+
+        queue.offer(packet("kdeconnect.battery", NetworkPacket.Priority.Low, 1), null);
+        queue.offer(packet("kdeconnect.battery", NetworkPacket.Priority.Low, 2), null);
+        runScheduled();
+        assertTrue(sent.isEmpty());
+        assertEquals(1, timerTasks.size());
+
+        trafficScheduler.setScreenOn(true);
+        runScheduled();
+        assertEquals(2, sent.size());
+        assertEquals(1, queue.getFlushCount());
+
+        //The window ending later doesn't count as another flush
+        timerTasks.get(0).run();
+        runScheduled();
+        assertEquals(1, queue.getFlushCount());
+    }
+
+    public void testSendingIsRetriedWhenThereIsNoThread() throws Exception {
+        final boolean[] reject = {true};
+        final List<Runnable> timerTasks = new ArrayList<>();
+        OutgoingQueue queue = new OutgoingQueue((np, callback) -> sent.add(np), command -> {
+            if (reject[0]) {
+                throw new RejectedExecutionException("Full");
+            }
+            scheduled.add(command);
+        }, (task, delayMs) -> {
+            assertEquals(OutgoingQueue.RETRY_DELAY_MS, delayMs);
+            timerTasks.add(task);
+        }, new TrafficScheduler());
+
+        queue.offer(packet("kdeconnect.ping", NetworkPacket.Priority.Normal, 1), null);
+        assertEquals(1, queue.size());
+        assertEquals(1, timerTasks.size());
+        assertEquals(0, queue.getFlushCount());
+
+        reject[0] = false;
+        timerTasks.get(0).run();
+        runScheduled();
+        assertEquals(1, sent.size());
+        assertEquals(0, queue.size());
+    }
+
+    public void testPriorityAndDeadlineStayLocal() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.mousepad.request");
+        assertEquals(NetworkPacket.Priority.Normal, np.getPriority());
+        assertFalse(np.isExpired(Long.MAX_VALUE));
+
+        np.setPriority(NetworkPacket.Priority.High);
+        np.setCollapseKey("mouse");
+        np.setExpiresIn(500);
+        assertFalse(np.isExpired(System.currentTimeMillis()));
+        assertTrue(np.isExpired(System.currentTimeMillis() + 1000));
+
+        NetworkPacket received = NetworkPacket.unserialize(np.serialize());
+        assertEquals(NetworkPacket.Priority.Normal, received.getPriority());
+        assertEquals(0, received.getDeadlineMs());
+        assertNull(received.getCollapseKey());
+    }
+}
@@ -0,0 +1,140 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PacketDispatcherTest extends AndroidTestCase {
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testPacketsOfAPluginKeepTheirOrder() throws Exception {
+        PacketDispatcher dispatcher = new PacketDispatcher(executor, 10000);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            assertTrue(dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), () -> {
+                handled.add(n);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) handled.get(i));
+        }
+        assertEquals(1000, dispatcher.getStats("plugin").handled);
+    }
+
+    public void testSlowPluginDoesNotBlockOthers() throws Exception {
+        PacketDispatcher dispatcher = new PacketDispatcher(executor, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(10);
+
+        dispatcher.dispatch("slow", new NetworkPacket("kdeconnect.test"), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch("fast", new NetworkPacket("kdeconnect.test"), fastDone::countDown);
+        }
+
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    public void testPacketsAreDroppedPastTheBound() throws Exception {
+        PacketDispatcher dispatcher = new PacketDispatcher(executor, 5);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch queuedDone = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), queuedDone::countDown));
+        }
+
+        final AtomicBoolean payloadClosed = new AtomicBoolean(false);
+        NetworkPacket withPayload = new NetworkPacket("kdeconnect.test");
+        withPayload.setPayload(new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public void close() {
+                payloadClosed.set(true);
+            }
+        }, 10);
+        assertFalse(dispatcher.dispatch("plugin", withPayload, () -> fail("Should have been dropped")));
+        assertTrue(payloadClosed.get());
+        assertEquals(1, dispatcher.getStats("plugin").dropped);
+
+        release.countDown();
+        assertTrue(queuedDone.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testRejectedPacketDoesNotStallTheQueue() throws Exception {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        PacketDispatcher dispatcher = new PacketDispatcher(command -> {
+            if (reject.get()) {
+                throw new RejectedExecutionException("Full");
+            }
+            executor.execute(command);
+        }, 100);
+
+        assertFalse(dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), () -> fail("Should have been dropped")));
+        assertEquals(1, dispatcher.getStats("plugin").dropped);
+
+        reject.set(false);
+        final CountDownLatch done = new CountDownLatch(1);
+        assertTrue(dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testQueueLatencyIsRecorded() throws Exception {
+        PacketDispatcher dispatcher = new PacketDispatcher(executor, 100);
+        final CountDownLatch done = new CountDownLatch(2);
+        dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), () -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            done.countDown();
+        });
+        dispatcher.dispatch("plugin", new NetworkPacket("kdeconnect.test"), done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        //The second packet had to wait for the first one
+        PacketDispatcher.Stats stats = dispatcher.getStats("plugin");
+        assertEquals(2, stats.handled);
+        assertTrue(stats.maxQueueLatencyMs >= 90);
+    }
+}
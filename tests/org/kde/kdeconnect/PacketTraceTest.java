@@ -0,0 +1,89 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.List;
+
+public class PacketTraceTest extends AndroidTestCase {
+
+    public void testShapeSurvivesTheRoundTrip() throws Exception {
+        NetworkPacket np = new NetworkPacket("kdeconnect.notification");
+        np.set("id", "0|org.kde|12|null|10001");
+        np.set("ticker", "Something happened");
+        np.set("isClearable", true);
+        np.set("time", 1500000000);
+        JSONArray actions = new JSONArray();
+        actions.put("Reply");
+        actions.put("Mark as read");
+        np.set("actions", actions);
+        np.set("extra", new JSONObject());
+        np.setPayload(new byte[1234]);
+
+        String body = PacketTraceRecorder.describeBody(np.getBody());
+        assertTrue(body.contains("ticker:s18"));
+        assertTrue(body.contains("isClearable:b"));
+        assertTrue(body.contains("time:n"));
+        assertTrue(body.contains("actions:a2"));
+        assertTrue(body.contains("extra:o"));
+        assertFalse(body.contains("Something")); //No contents
+
+        String trace = PacketTraceRecorder.HEADER + "\n"
+                + "1000\tin\tLanLink\tcafe\tkdeconnect.notification\t1234\t" + body + "\n";
+        List<PacketTraceReplayer.Record> records = PacketTraceReplayer.read(new StringReader(trace));
+        assertEquals(1, records.size());
+
+        NetworkPacket replayed = PacketTraceReplayer.synthesize(records.get(0));
+        assertEquals(np.getType(), replayed.getType());
+        assertEquals(body, PacketTraceRecorder.describeBody(replayed.getBody()));
+        assertEquals(18, replayed.getString("ticker").length());
+        assertEquals(2, replayed.getJSONArray("actions").length());
+        assertTrue(replayed.hasPayload());
+        assertEquals(1234, replayed.getPayloadSize());
+    }
+
+    public void testOnlyIncomingPacketsAreReplayed() throws Exception {
+        String trace = PacketTraceRecorder.HEADER + "\n"
+                + "5000\tout\tLanLink\tcafe\tkdeconnect.ping\t0\t\n"
+                + "5100\tin\tLanLink\tcafe\tkdeconnect.mpris\t0\tplayer:s3\n"
+                + "not a record\n"
+                + "5350\tin\tBluetoothLink\tcafe\tkdeconnect.ping\t0\t\n"
+                + "5400\tin\tLan"; //Cut short while being written
+
+        List<PacketTraceReplayer.Record> records = PacketTraceReplayer.read(new StringReader(trace));
+        assertEquals(3, records.size());
+
+        List<LoadGenerator.TracedPacket> packets = new PacketTraceReplayer(records).getTrace();
+        assertEquals(2, packets.size());
+        assertEquals(0, packets.get(0).offsetMs);
+        assertEquals("kdeconnect.mpris", packets.get(0).packet.getType());
+        assertEquals(250, packets.get(1).offsetMs);
+    }
+
+    public void testRecorderWritesOnlyWhenEnabled() throws Exception {
+        PacketTraceRecorder.setEnabled(getContext(), true);
+        File file = PacketTraceRecorder.getTraceFile();
+        try {
+            NetworkPacket np = new NetworkPacket("kdeconnect.ping");
+            np.set("message", "secret");
+            PacketTraceRecorder.record(PacketTraceRecorder.OUTGOING, "LanLink", "testDevice", np);
+            PacketTraceRecorder.flush();
+        } finally {
+            PacketTraceRecorder.setEnabled(getContext(), false);
+        }
+        PacketTraceRecorder.record(PacketTraceRecorder.OUTGOING, "LanLink", "testDevice", new NetworkPacket("kdeconnect.ping"));
+
+        List<PacketTraceReplayer.Record> records = PacketTraceReplayer.read(new FileReader(file));
+        assertFalse(records.isEmpty());
+        PacketTraceReplayer.Record last = records.get(records.size() - 1);
+        assertFalse(last.incoming);
+        assertEquals("kdeconnect.ping", last.type);
+        assertEquals("message:s6", last.body);
+        assertFalse(last.device.contains("testDevice"));
+    }
+}
@@ -0,0 +1,63 @@
+package org.kde.kdeconnect;
+
+import android.test.AndroidTestCase;
+
+import org.kde.kdeconnect.Plugins.Plugin;
+import org.mockito.Mockito;
+
+public class PluginRoutingTableTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Dexmaker has problems guessing cache directory, setting manually
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+    }
+
+    public void testDeferredPluginIsRoutedOnceLoaded() {
+        Plugin ping = Mockito.mock(Plugin.class);
+        Plugin sftp = Mockito.mock(Plugin.class);
+
+        PluginRoutingTable table = new PluginRoutingTable.Builder()
+                .add("kdeconnect.ping", ping)
+                .addDeferred("kdeconnect.sftp.request", "SftpPlugin")
+                .build();
+
+        assertEquals(1, table.get("kdeconnect.ping").size());
+        assertTrue(table.get("kdeconnect.sftp.request").isEmpty());
+        assertEquals("SftpPlugin", table.getDeferred("kdeconnect.sftp.request").get(0));
+        assertTrue(table.isDeferred("SftpPlugin"));
+
+        PluginRoutingTable loaded = table.withLoaded("SftpPlugin", sftp);
+        assertSame(sftp, loaded.get("kdeconnect.sftp.request").get(0));
+        assertSame(ping, loaded.get("kdeconnect.ping").get(0));
+        assertTrue(loaded.getDeferred("kdeconnect.sftp.request").isEmpty());
+        assertFalse(loaded.isDeferred("SftpPlugin"));
+
+        //The original snapshot is untouched, readers may still be using it
+        assertTrue(table.isDeferred("SftpPlugin"));
+    }
+
+    public void testFailedDeferredPluginIsDropped() {
+        PluginRoutingTable table = new PluginRoutingTable.Builder()
+                .addDeferred("kdeconnect.sftp.request", "SftpPlugin")
+                .build();
+
+        PluginRoutingTable failed = table.withLoaded("SftpPlugin", null);
+        assertTrue(failed.get("kdeconnect.sftp.request").isEmpty());
+        assertTrue(failed.getDeferred("kdeconnect.sftp.request").isEmpty());
+        assertFalse(failed.isDeferred("SftpPlugin"));
+    }
+
+    public void testTableCannotBeModified() {
+        PluginRoutingTable table = new PluginRoutingTable.Builder()
+                .add("kdeconnect.ping", Mockito.mock(Plugin.class))
+                .build();
+        try {
+            table.get("kdeconnect.ping").clear();
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+}
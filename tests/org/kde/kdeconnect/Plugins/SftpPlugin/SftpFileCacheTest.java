@@ -0,0 +1,177 @@
+package org.kde.kdeconnect.Plugins.SftpPlugin;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SftpFileCacheTest extends AndroidTestCase {
+
+    private static final SftpFileCache.Attributes ATTRIBUTES = new SftpFileCache.Attributes(true, false, true, true, true, false, 0, 0);
+
+    private File root;
+    private SftpFileCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File(getContext().getCacheDir(), "sftpfilecachetest");
+        delete(root);
+        assertTrue(root.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (cache != null) {
+            cache.clear();
+        }
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testLeastRecentlyUsedDirectoryIsEvicted() throws Exception {
+        cache = new SftpFileCache(3, 1000);
+        String[] dirs = directories(4);
+        for (int i = 0; i < 3; i++) {
+            cache.putAttributes(dirs[i] + "/a", ATTRIBUTES);
+        }
+        //Makes the first one the most recently used
+        assertNotNull(cache.getAttributes(dirs[0] + "/a"));
+
+        cache.putAttributes(dirs[3] + "/a", ATTRIBUTES);
+        assertNotNull(cache.getAttributes(dirs[0] + "/a"));
+        assertNull(cache.getAttributes(dirs[1] + "/a"));
+        assertNotNull(cache.getAttributes(dirs[2] + "/a"));
+        assertNotNull(cache.getAttributes(dirs[3] + "/a"));
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    public void testEntryLimitEvictsLeastRecentlyUsedDirectories() throws Exception {
+        cache = new SftpFileCache(100, 10);
+        String[] dirs = directories(3);
+        cache.putListing(dirs[0], names(6));
+        cache.putListing(dirs[1], names(3));
+        cache.putAttributes(dirs[2] + "/a", ATTRIBUTES);
+        assertEquals(10, cache.getEntryCount());
+
+        cache.putAttributes(dirs[2] + "/b", ATTRIBUTES);
+        assertNull(cache.getListing(dirs[0]));
+        assertNotNull(cache.getListing(dirs[1]));
+        assertEquals(5, cache.getEntryCount());
+    }
+
+    public void testDirectoryJustTouchedIsNeverEvicted() throws Exception {
+        cache = new SftpFileCache(100, 5);
+        String[] dirs = directories(1);
+        cache.putListing(dirs[0], names(10));
+        assertEquals(10, cache.getListing(dirs[0]).size());
+    }
+
+    public void testWritesThroughTheServerInvalidate() throws Exception {
+        cache = new SftpFileCache();
+        File file = new File(root, "a.txt");
+        write(file, "abc");
+
+        SimpleSftpServer.AndroidSshFile directory = sshFile(root);
+        assertEquals(1, directory.listSshFiles().size());
+        SimpleSftpServer.AndroidSshFile sshFile = sshFile(file);
+        assertEquals(3, sshFile.getSize());
+
+        OutputStream out = sshFile.createOutputStream(3);
+        out.write("defg".getBytes("UTF-8"));
+        out.close();
+        sshFile.handleClose();
+        assertEquals(7, sshFile(file).getSize());
+
+        assertTrue(sshFile(new File(root, "b.txt")).create());
+        assertEquals(2, directory.listSshFiles().size());
+
+        assertTrue(sshFile(new File(root, "b.txt")).delete());
+        assertEquals(1, directory.listSshFiles().size());
+    }
+
+    public void testFileObserverEventsInvalidate() throws Exception {
+        cache = new SftpFileCache();
+        File file = new File(root, "a.txt");
+        write(file, "abc");
+        File subdirectory = new File(root, "sub");
+        assertTrue(subdirectory.mkdir());
+        String path = root.getAbsolutePath();
+
+        //Created behind our back
+        cache.putListing(path, Arrays.asList("a.txt", "sub"));
+        write(new File(root, "b.txt"), "");
+        assertTrue(waitForListing(path));
+
+        //Modified behind our back
+        cache.putAttributes(file.getAbsolutePath(), ATTRIBUTES);
+        write(file, "abcdef");
+        assertTrue(waitForAttributes(file.getAbsolutePath()));
+
+        //A watched directory goes away
+        cache.putListing(subdirectory.getAbsolutePath(), new ArrayList<String>());
+        assertTrue(subdirectory.delete());
+        assertTrue(waitForListing(subdirectory.getAbsolutePath()));
+    }
+
+    //Events come from another thread, so give them a moment. True once the listing is gone.
+    private boolean waitForListing(String path) throws InterruptedException {
+        for (int i = 0; i < 500 && cache.getListing(path) != null; i++) {
+            Thread.sleep(10);
+        }
+        return cache.getListing(path) == null;
+    }
+
+    private boolean waitForAttributes(String path) throws InterruptedException {
+        for (int i = 0; i < 500 && cache.getAttributes(path) != null; i++) {
+            Thread.sleep(10);
+        }
+        return cache.getAttributes(path) == null;
+    }
+
+    private SimpleSftpServer.AndroidSshFile sshFile(File file) {
+        return new SimpleSftpServer.AndroidSshFile(file, "kdeconnect", getContext(), cache);
+    }
+
+    private String[] directories(int count) {
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            File dir = new File(root, "dir" + i);
+            assertTrue(dir.mkdir());
+            paths[i] = dir.getAbsolutePath();
+        }
+        return paths;
+    }
+
+    private static List<String> names(int count) {
+        ArrayList<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("file" + i);
+        }
+        return names;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
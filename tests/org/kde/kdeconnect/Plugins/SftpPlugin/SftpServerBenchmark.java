@@ -0,0 +1,293 @@
+package org.kde.kdeconnect.Plugins.SftpPlugin;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.apache.sshd.ClientSession;
+import org.apache.sshd.SshClient;
+import org.apache.sshd.client.channel.ChannelSubsystem;
+import org.apache.sshd.client.future.ConnectFuture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Mounts {@link SimpleSftpServer} through a loopback SFTP client and measures
+ * what sshfs does the most: listing big folders and reading big files.
+ * Results are written to the log, the assertions only check correctness.
+ */
+public class SftpServerBenchmark extends AndroidTestCase {
+
+    private static final int DIRECTORY_ENTRIES = 2000;
+    private static final int LARGE_FILE_SIZE = 16 * 1024 * 1024;
+    private static final int READ_CHUNK = 32 * 1024;
+    private static final int READ_PIPELINE_DEPTH = 16; //sshfs keeps several reads in flight
+
+    private File directory;
+    private File largeFile;
+    private SimpleSftpServer server;
+    private SshClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = new File(getContext().getCacheDir(), "sftpbenchmark");
+        directory.mkdirs();
+        for (int i = 0; i < DIRECTORY_ENTRIES; i++) {
+            new File(directory, "IMG_" + i + ".jpg").createNewFile();
+        }
+
+        largeFile = new File(getContext().getCacheDir(), "sftpbenchmark.bin");
+        byte[] data = new byte[1024 * 1024];
+        new Random(0).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(largeFile);
+        for (int written = 0; written < LARGE_FILE_SIZE; written += data.length) {
+            out.write(data);
+        }
+        out.close();
+
+        server = new SimpleSftpServer();
+        server.init(getContext(), null, new SimpleSftpServer.Config());
+        assertTrue(server.start());
+
+        client = SshClient.setUpDefaultClient();
+        client.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        client.stop();
+        server.stop();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+        largeFile.delete();
+        super.tearDown();
+    }
+
+    public void testReaddirThroughput() throws Exception {
+        SftpChannel sftp = connect();
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                int entries = sftp.list(directory.getAbsolutePath());
+                long elapsed = System.nanoTime() - start;
+                // "." and ".." are included in the listing
+                assertTrue(entries >= DIRECTORY_ENTRIES);
+                Log.i("SftpServerBenchmark", "readdir round " + round + ": " + entries + " entries in " + (elapsed / 1000000) + "ms");
+            }
+        } finally {
+            sftp.close();
+        }
+    }
+
+    public void testSequentialReadThroughput() throws Exception {
+        SftpChannel sftp = connect();
+        try {
+            long start = System.nanoTime();
+            long read = sftp.readFully(largeFile.getAbsolutePath());
+            long elapsed = System.nanoTime() - start;
+            assertEquals(LARGE_FILE_SIZE, read);
+            Log.i("SftpServerBenchmark", "sequential read: " + (read * 1000 / Math.max(1, elapsed / 1000)) + "KB/s");
+        } finally {
+            sftp.close();
+        }
+    }
+
+    private SftpChannel connect() throws Exception {
+        ConnectFuture connectFuture = client.connect("127.0.0.1", server.getPort()).await();
+        ClientSession session = connectFuture.getSession();
+        assertTrue(session.authPassword(SimpleSftpServer.USER, server.getPassword()).await().isSuccess());
+        return new SftpChannel(session);
+    }
+
+    /**
+     * Just enough of the SFTP v3 protocol to open directories and files and read them.
+     */
+    private static class SftpChannel {
+
+        private static final int SSH_FXP_INIT = 1;
+        private static final int SSH_FXP_VERSION = 2;
+        private static final int SSH_FXP_OPEN = 3;
+        private static final int SSH_FXP_CLOSE = 4;
+        private static final int SSH_FXP_READ = 5;
+        private static final int SSH_FXP_OPENDIR = 11;
+        private static final int SSH_FXP_READDIR = 12;
+        private static final int SSH_FXP_STATUS = 101;
+        private static final int SSH_FXP_HANDLE = 102;
+        private static final int SSH_FXP_DATA = 103;
+        private static final int SSH_FXP_NAME = 104;
+        private static final int SSH_FXF_READ = 1;
+        private static final int SSH_FX_EOF = 1;
+
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        private final ClientSession session;
+        private final ChannelSubsystem channel;
+        private final DataOutputStream requests;
+        private final DataInputStream responses;
+        private int nextId = 0;
+
+        SftpChannel(ClientSession session) throws Exception {
+            this.session = session;
+
+            PipedOutputStream requestsOut = new PipedOutputStream();
+            PipedInputStream responsesIn = new PipedInputStream(1024 * 1024);
+            requests = new DataOutputStream(requestsOut);
+            responses = new DataInputStream(responsesIn);
+
+            channel = session.createSubsystemChannel("sftp");
+            channel.setIn(new PipedInputStream(requestsOut, 64 * 1024));
+            channel.setOut(new PipedOutputStream(responsesIn));
+            channel.setErr(new ByteArrayOutputStream());
+            if (!channel.open().await().isOpened()) {
+                throw new IOException("Could not open the sftp subsystem");
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            new DataOutputStream(body).writeInt(3);
+            send(SSH_FXP_INIT, body.toByteArray());
+            expect(SSH_FXP_VERSION, readPacket());
+        }
+
+        int list(String path) throws IOException {
+            byte[] handle = openHandle(SSH_FXP_OPENDIR, path, false);
+            int entries = 0;
+            while (true) {
+                sendRequest(SSH_FXP_READDIR, handle, null);
+                DataInputStream reply = readPacket();
+                int type = reply.readUnsignedByte();
+                reply.readInt(); //id
+                if (type == SSH_FXP_STATUS) {
+                    if (reply.readInt() != SSH_FX_EOF) {
+                        throw new IOException("readdir failed");
+                    }
+                    break;
+                }
+                expect(SSH_FXP_NAME, type);
+                entries += reply.readInt();
+            }
+            closeHandle(handle);
+            return entries;
+        }
+
+        long readFully(String path) throws IOException {
+            byte[] handle = openHandle(SSH_FXP_OPEN, path, true);
+            long requested = 0;
+            long received = 0;
+            int inFlight = 0;
+            boolean eof = false;
+            while (!eof || inFlight > 0) {
+                while (!eof && inFlight < READ_PIPELINE_DEPTH) {
+                    ByteArrayOutputStream extra = new ByteArrayOutputStream();
+                    DataOutputStream extraData = new DataOutputStream(extra);
+                    extraData.writeLong(requested);
+                    extraData.writeInt(READ_CHUNK);
+                    sendRequest(SSH_FXP_READ, handle, extra.toByteArray());
+                    requested += READ_CHUNK;
+                    inFlight++;
+                    if (requested >= LARGE_FILE_SIZE) {
+                        eof = true; //Stop issuing reads, the rest will come back as EOF or short reads
+                    }
+                }
+                DataInputStream reply = readPacket();
+                int type = reply.readUnsignedByte();
+                reply.readInt(); //id
+                inFlight--;
+                if (type == SSH_FXP_STATUS) {
+                    if (reply.readInt() != SSH_FX_EOF) {
+                        throw new IOException("read failed");
+                    }
+                    eof = true;
+                    continue;
+                }
+                expect(SSH_FXP_DATA, type);
+                received += reply.readInt();
+            }
+            closeHandle(handle);
+            return received;
+        }
+
+        void close() {
+            channel.close(false);
+            session.close(false);
+        }
+
+        private byte[] openHandle(int type, String path, boolean isFile) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyData = new DataOutputStream(body);
+            bodyData.writeInt(nextId++);
+            writeString(bodyData, path.getBytes(UTF8));
+            if (isFile) {
+                bodyData.writeInt(SSH_FXF_READ);
+                bodyData.writeInt(0); //No attributes
+            }
+            send(type, body.toByteArray());
+
+            DataInputStream reply = readPacket();
+            expect(SSH_FXP_HANDLE, reply.readUnsignedByte());
+            reply.readInt(); //id
+            byte[] handle = new byte[reply.readInt()];
+            reply.readFully(handle);
+            return handle;
+        }
+
+        private void closeHandle(byte[] handle) throws IOException {
+            sendRequest(SSH_FXP_CLOSE, handle, null);
+            expect(SSH_FXP_STATUS, readPacket());
+        }
+
+        private void sendRequest(int type, byte[] handle, byte[] extra) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyData = new DataOutputStream(body);
+            bodyData.writeInt(nextId++);
+            writeString(bodyData, handle);
+            if (extra != null) {
+                bodyData.write(extra);
+            }
+            send(type, body.toByteArray());
+        }
+
+        private void send(int type, byte[] body) throws IOException {
+            requests.writeInt(body.length + 1);
+            requests.writeByte(type);
+            requests.write(body);
+            requests.flush();
+        }
+
+        private DataInputStream readPacket() throws IOException {
+            byte[] packet = new byte[responses.readInt()];
+            responses.readFully(packet);
+            return new DataInputStream(new ByteArrayInputStream(packet));
+        }
+
+        private static void expect(int expectedType, DataInputStream packet) throws IOException {
+            expect(expectedType, packet.readUnsignedByte());
+        }
+
+        private static void expect(int expectedType, int type) throws IOException {
+            if (type != expectedType) {
+                throw new IOException("Unexpected sftp packet " + type + ", expected " + expectedType);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, byte[] value) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+}
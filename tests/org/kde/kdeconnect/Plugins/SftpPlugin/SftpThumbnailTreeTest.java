@@ -0,0 +1,140 @@
+package org.kde.kdeconnect.Plugins.SftpPlugin;
+
+import android.test.AndroidTestCase;
+
+import org.apache.sshd.server.SshFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SftpThumbnailTreeTest extends AndroidTestCase {
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private File pictures;
+    private File cacheRoot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        pictures = new File(getContext().getFilesDir(), "thumbnailtest");
+        cacheRoot = new File(getContext().getCacheDir(), "sftp_thumbnails");
+        delete(pictures);
+        delete(cacheRoot);
+        assertTrue(pictures.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(pictures);
+        delete(cacheRoot);
+        super.tearDown();
+    }
+
+    public void testOnlyFoldersAndImagesAreListed() throws Exception {
+        SftpThumbnailTree tree = new SftpThumbnailTree(getContext());
+        write(new File(pictures, "b.jpg"), "image", 0);
+        write(new File(pictures, "notes.txt"), "text", 0);
+        assertTrue(new File(pictures, "a").mkdir());
+
+        List<String> names = new ArrayList<>();
+        for (SshFile file : tree.getFile(SftpThumbnailTree.ROOT + pictures.getAbsolutePath(), "kdeconnect").listSshFiles()) {
+            names.add(file.getName());
+        }
+        assertEquals(2, names.size());
+        assertEquals("a", names.get(0));
+        assertEquals("b.jpg", names.get(1));
+    }
+
+    public void testCachedThumbnailIsServed() throws Exception {
+        SftpThumbnailTree tree = new SftpThumbnailTree(getContext());
+        File image = new File(pictures, "a.jpg");
+        write(image, "image", System.currentTimeMillis() - 2 * HOUR_MS);
+        write(tree.thumbnailPathFor(image), "thumbnail", System.currentTimeMillis() - HOUR_MS);
+
+        assertEquals("thumbnail", read(tree, image));
+        assertTrue(tree.locks.isEmpty());
+    }
+
+    public void testOutdatedThumbnailIsNotServed() throws Exception {
+        SftpThumbnailTree tree = new SftpThumbnailTree(getContext());
+        File image = new File(pictures, "a.jpg");
+        write(tree.thumbnailPathFor(image), "thumbnail", System.currentTimeMillis() - 2 * HOUR_MS);
+        write(image, "image", System.currentTimeMillis() - HOUR_MS);
+
+        //MediaStore doesn't know about files in our own directory, so we get the image itself
+        assertEquals("image", read(tree, image));
+        assertTrue(tree.locks.isEmpty());
+    }
+
+    public void testTrimDeletesLeastRecentlyUsedThumbnails() throws Exception {
+        SftpThumbnailTree tree = new SftpThumbnailTree(getContext(), 1000);
+        long now = System.currentTimeMillis();
+        File[] images = new File[4];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new File(pictures, i + ".jpg");
+            write(images[i], "image", now - 10 * HOUR_MS);
+            write(tree.thumbnailPathFor(images[i]), new String(new char[300]), now - (images.length - i) * HOUR_MS);
+        }
+        //The oldest one is opened, which makes it the most recently used
+        read(tree, images[0]);
+
+        assertEquals(600, tree.trimCache());
+        assertTrue(tree.thumbnailPathFor(images[0]).exists());
+        assertFalse(tree.thumbnailPathFor(images[1]).exists());
+        assertFalse(tree.thumbnailPathFor(images[2]).exists());
+        assertTrue(tree.thumbnailPathFor(images[3]).exists());
+    }
+
+    public void testTrimLeavesACacheUnderTheLimitAlone() throws Exception {
+        SftpThumbnailTree tree = new SftpThumbnailTree(getContext(), 1000);
+        File image = new File(pictures, "a.jpg");
+        write(tree.thumbnailPathFor(image), new String(new char[900]), 0);
+
+        assertEquals(900, tree.trimCache());
+        assertTrue(tree.thumbnailPathFor(image).exists());
+    }
+
+    private static String read(SftpThumbnailTree tree, File image) throws IOException {
+        InputStream in = tree.getFile(SftpThumbnailTree.ROOT + image.getAbsolutePath(), "kdeconnect").createInputStream(0);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String content, long lastModified) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        if (lastModified > 0) {
+            assertTrue(file.setLastModified(lastModified));
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}